@@ -0,0 +1,3 @@
+#!/bin/bash
+# ./archive.sh <orders.log> <archive>
+java -cp target/ob-jar-with-dependencies.jar net.parasec.ob.ArchiveConverter "$@"
@@ -0,0 +1,3 @@
+#!/bin/bash
+# ./footprint.sh [-perLevel <n>] [orders...]
+java -XX:+UseSerialGC -Xmx4g -cp target/ob-jar-with-dependencies.jar net.parasec.ob.FootprintBench "$@"
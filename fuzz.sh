@@ -0,0 +1,3 @@
+#!/bin/bash
+# ./fuzz.sh [-seed <n>] [-runs <n>] [-events <n>] [-chaos <p>] [-expiry <ms>] [-bench <events>] [orders.log | archive]
+java -cp target/ob-jar-with-dependencies.jar net.parasec.ob.BookFuzzer "$@"
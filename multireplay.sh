@@ -0,0 +1,3 @@
+#!/bin/bash
+# ./multireplay.sh [-concurrency <n>] [-platform] <orders.log | archive | dir>...
+java -cp target/ob-jar-with-dependencies.jar net.parasec.ob.MultiReplay "$@"
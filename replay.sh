@@ -0,0 +1,3 @@
+#!/bin/bash
+# ./replay.sh <orders.log> [delay ms] [print order book] [-record <golden> | -verify <golden>]
+java -cp target/ob-jar-with-dependencies.jar net.parasec.ob.Replay "$@"
@@ -0,0 +1,38 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+
+
+// indicator with no-op handlers: override the ones declared as dependencies.
+public abstract class AbstractIndicator implements Indicator {
+
+    private final String name;
+    private final int dependencies;
+    private final int maxDistance;
+
+    protected AbstractIndicator(final String name, final int dependencies, final int maxDistance) {
+	this.name = name;
+	this.dependencies = dependencies;
+	this.maxDistance = maxDistance;
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    public int getDependencies() {
+	return dependencies;
+    }
+
+    public int getMaxDistance() {
+	return maxDistance;
+    }
+
+    public void onBestChange(final OrderBook ob, final Direction side) {}
+
+    public void onLevelDelta(final OrderBook ob, final Direction side, final int price, final long delta) {}
+
+    public void onTrade(final OrderBook ob, final TradeRing.View trade) {}
+
+    public void onCancel(final OrderBook ob, final CancelRing.View cancel) {}
+}
@@ -0,0 +1,51 @@
+package net.parasec.ob;
+
+import java.io.File;
+import java.io.IOException;
+
+
+// convert a raw order log (orders.log), or a fix tag-value log, into an
+// archive (see ArchiveWriter).
+public final class ArchiveConverter {
+
+    // returns the number of order events written.
+    public static long convert(final File log, final ArchiveWriter writer) throws IOException {
+	try {
+	    return FeedReader.read(log, FeedReader.forFile(log), new FeedHandler() {
+		    public void onOrder(final int action, final int side, final long id,
+					final long price, final long amount, final long ts) {
+			try {
+			    writer.write(action, side, id, price, amount, ts);
+			} catch(final IOException e) {
+			    throw new IllegalStateException(e);
+			}
+		    }
+		});
+	} catch(final IllegalStateException e) {
+	    if(e.getCause() instanceof IOException)
+		throw (IOException) e.getCause();
+	    throw e;
+	}
+    }
+
+    public static void main(final String[] args) throws Exception {
+	if(args.length != 2) {
+	    System.err.println("usage: ArchiveConverter <orders.log | fix log> <archive>");
+	    System.exit(2);
+	}
+	final File log = new File(args[0]);
+	final File archive = new File(args[1]);
+	final long start = System.currentTimeMillis();
+	final ArchiveWriter writer = new ArchiveWriter(archive);
+	final long events;
+	try {
+	    events = convert(log, writer);
+	} finally {
+	    writer.close();
+	}
+	final long elapsed = System.currentTimeMillis() - start;
+	System.out.println(events + " events, " + log.length() + " -> " + archive.length() + " bytes ("
+			   + String.format("%.1f", log.length() / (double) Math.max(archive.length(), 1))
+			   + "x) in " + elapsed + " ms");
+    }
+}
@@ -0,0 +1,252 @@
+package net.parasec.ob;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+// sequential reader (with seeking) for archives written by ArchiveWriter.
+// blocks are read whole into a reused buffer and decoded in place; decoded
+// fields of the current event are exposed through getters, as for
+// OrderLogDecoder. not thread safe.
+public final class ArchiveReader {
+
+    private final RandomAccessFile file;
+    private final FileChannel ch;
+
+    // index.
+    private final int blocks;
+    private final long events;
+    private final long[] offsets;
+    private final long[] firstEvents;
+    private final long[] minTs;
+    private final long[] maxTs;
+
+    // current block.
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(8);
+    private byte[] block = new byte[64 * 1024];
+    private int pos = 0;
+    private int remaining = 0;
+    private int nextBlock = 0;
+
+    // current event.
+    private int action;
+    private int orderType;
+    private long id;
+    private long timestamp;
+    private long price;
+    private long amount;
+
+    public ArchiveReader(final File f) throws IOException {
+	file = new RandomAccessFile(f, "r");
+	ch = file.getChannel();
+	try {
+	    final long len = ch.size();
+	    final ByteBuffer header = ByteBuffer.allocate(8);
+	    readFully(header, 0);
+	    if(header.getInt(0) != ArchiveWriter.MAGIC || len < 8 + ArchiveWriter.FOOTER_LENGTH)
+		throw new IOException("not an order archive: " + f);
+	    if(header.getInt(4) != ArchiveWriter.VERSION)
+		throw new IOException("unsupported archive version " + header.getInt(4) + ": " + f);
+
+	    final ByteBuffer footer = ByteBuffer.allocate(ArchiveWriter.FOOTER_LENGTH);
+	    readFully(footer, len - ArchiveWriter.FOOTER_LENGTH);
+	    if(footer.getInt(20) != ArchiveWriter.MAGIC)
+		throw new IOException("archive not closed: " + f);
+	    final long indexOffset = footer.getLong(0);
+	    blocks = footer.getInt(8);
+	    events = footer.getLong(12);
+
+	    final ByteBuffer index = ByteBuffer.allocate(blocks * 32);
+	    readFully(index, indexOffset);
+	    offsets = new long[blocks];
+	    firstEvents = new long[blocks];
+	    minTs = new long[blocks];
+	    maxTs = new long[blocks];
+	    for(int i = 0; i < blocks; i++) {
+		offsets[i] = index.getLong();
+		firstEvents[i] = index.getLong();
+		minTs[i] = index.getLong();
+		maxTs[i] = index.getLong();
+	    }
+	} catch(final IOException e) {
+	    file.close();
+	    throw e;
+	}
+    }
+
+    // true if the file starts with the archive magic.
+    public static boolean isArchive(final File f) throws IOException {
+	final FileInputStream in = new FileInputStream(f);
+	try {
+	    final byte[] b = new byte[4];
+	    int n = 0, r;
+	    while(n < 4 && (r = in.read(b, n, 4 - n)) > 0)
+		n += r;
+	    return n == 4 && ByteBuffer.wrap(b).getInt() == ArchiveWriter.MAGIC;
+	} finally {
+	    in.close();
+	}
+    }
+
+    private void readFully(final ByteBuffer buf, long position) throws IOException {
+	while(buf.hasRemaining()) {
+	    final int n = ch.read(buf, position);
+	    if(n < 0)
+		throw new EOFException();
+	    position += n;
+	}
+	buf.flip();
+    }
+
+    public long getEvents() {
+	return events;
+    }
+
+    public int getBlocks() {
+	return blocks;
+    }
+
+    public long getBlockFirstEvent(final int i) {
+	return firstEvents[i];
+    }
+
+    public long getBlockMinTimestamp(final int i) {
+	return minTs[i];
+    }
+
+    public long getBlockMaxTimestamp(final int i) {
+	return maxTs[i];
+    }
+
+    private void loadBlock(final int i) throws IOException {
+	final ByteBuffer header = blockHeader;
+	header.clear();
+	readFully(header, offsets[i]);
+	final int length = header.getInt(0);
+	if(length > block.length)
+	    block = new byte[Math.max(length, block.length * 2)];
+	final ByteBuffer payload = ByteBuffer.wrap(block, 0, length);
+	readFully(payload, offsets[i] + 8);
+	remaining = header.getInt(4);
+	pos = 0;
+	id = 0;
+	timestamp = 0;
+	price = 0;
+	nextBlock = i + 1;
+    }
+
+    // position at the start of block i.
+    public void seekBlock(final int i) throws IOException {
+	if(i >= blocks) {
+	    remaining = 0;
+	    nextBlock = blocks;
+	    return;
+	}
+	loadBlock(i);
+    }
+
+    // position at the start of the block holding event n (0 based). returns
+    // the number of the first event in that block.
+    public long seekEvent(final long n) throws IOException {
+	int lo = 0, hi = blocks - 1, b = 0;
+	while(lo <= hi) {
+	    final int mid = (lo + hi) >>> 1;
+	    if(firstEvents[mid] <= n) {
+		b = mid;
+		lo = mid + 1;
+	    } else {
+		hi = mid - 1;
+	    }
+	}
+	seekBlock(b);
+	return blocks == 0 ? 0 : firstEvents[b];
+    }
+
+    // position at the start of the first block holding an event at or after
+    // ts. log timestamps are not strictly ordered, so this is by block
+    // rather than by event. returns the number of the first event in the
+    // block (or the event count if there is none).
+    public long seekTimestamp(final long ts) throws IOException {
+	for(int i = 0; i < blocks; i++) {
+	    if(maxTs[i] >= ts) {
+		seekBlock(i);
+		return firstEvents[i];
+	    }
+	}
+	seekBlock(blocks);
+	return events;
+    }
+
+    // decode the next event. returns false at the end of the archive.
+    public boolean next() throws IOException {
+	while(remaining == 0) {
+	    if(nextBlock >= blocks)
+		return false;
+	    loadBlock(nextBlock);
+	}
+	final int b = block[pos++];
+	action = b >> 1;
+	orderType = b & 1;
+	id += unzigzag(varint());
+	timestamp += unzigzag(varint());
+	price += unzigzag(varint());
+	amount = varint();
+	remaining--;
+	return true;
+    }
+
+    private long varint() {
+	final byte[] block = this.block;
+	int i = pos;
+	long v = 0;
+	int shift = 0;
+	byte b;
+	do {
+	    b = block[i++];
+	    v |= (long) (b & 0x7f) << shift;
+	    shift += 7;
+	} while(b < 0);
+	pos = i;
+	return v;
+    }
+
+    private static long unzigzag(final long v) {
+	return (v >>> 1) ^ -(v & 1);
+    }
+
+    public int getAction() {
+	return action;
+    }
+
+    public int getOrderType() {
+	return orderType;
+    }
+
+    public long getId() {
+	return id;
+    }
+
+    // exchange timestamp in ms.
+    public long getTimestamp() {
+	return timestamp;
+    }
+
+    // limit price in cents.
+    public long getPrice() {
+	return price;
+    }
+
+    // amount in satoshi.
+    public long getAmount() {
+	return amount;
+    }
+
+    public void close() throws IOException {
+	file.close();
+    }
+}
@@ -0,0 +1,177 @@
+package net.parasec.ob;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+
+// compact archive of raw order events.
+//
+// events are grouped into blocks. within a block, ids, timestamps and
+// prices are stored as zigzag varint deltas from the previous event (the
+// first event of a block from 0, so every block decodes on its own), action
+// and order type share a byte, and amounts are plain varints. a typical
+// event takes ~10 bytes against ~115 for an orders.log line.
+//
+// file layout (big endian):
+//
+//   header: int MAGIC, int VERSION
+//   blocks: int payload length, int event count, payload
+//   index:  per block: long offset, long first event, long min ts, long max ts
+//   footer: long index offset, int blocks, long events, int MAGIC
+//
+// the index allows a reader to seek by event number or timestamp.
+public final class ArchiveWriter {
+
+    public final static int MAGIC = 0x4f424131; // "OBA1"
+    public final static int VERSION = 1;
+    public final static int FOOTER_LENGTH = 8 + 4 + 8 + 4;
+
+    private final static int DEFAULT_BLOCK_EVENTS = 4096;
+
+    private final DataOutputStream out;
+    private final int blockEvents;
+
+    // current block.
+    private byte[] block = new byte[64 * 1024];
+    private int blockLength = 0;
+    private int blockCount = 0;
+    private long blockMinTs = Long.MAX_VALUE;
+    private long blockMaxTs = Long.MIN_VALUE;
+
+    // delta state.
+    private long lastId = 0;
+    private long lastTs = 0;
+    private long lastPrice = 0;
+
+    // index, one entry per block.
+    private long[] offsets = new long[64];
+    private long[] firstEvents = new long[64];
+    private long[] minTs = new long[64];
+    private long[] maxTs = new long[64];
+    private int blocks = 0;
+
+    private long offset = 0;
+    private long events = 0;
+
+    public ArchiveWriter(final File file) throws IOException {
+	this(file, DEFAULT_BLOCK_EVENTS);
+    }
+
+    public ArchiveWriter(final File file, final int blockEvents) throws IOException {
+	this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+	this.blockEvents = blockEvents;
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
+	offset = 8;
+    }
+
+    public long getEvents() {
+	return events;
+    }
+
+    // bytes written so far.
+    public long getOffset() {
+	return offset;
+    }
+
+    // action is one of OrderLogDecoder.CREATED/CHANGED/DELETED, order type
+    // OrderLogDecoder.BUY/SELL. price in cents, amount in satoshi, ts in ms.
+    public void write(final int action, final int orderType, final long id,
+		      final long price, final long amount, final long ts) throws IOException {
+	if(blockLength + 5 * 10 + 1 > block.length) {
+	    final byte[] b = new byte[block.length * 2];
+	    System.arraycopy(block, 0, b, 0, blockLength);
+	    block = b;
+	}
+	block[blockLength++] = (byte) ((action << 1) | orderType);
+	putVarint(zigzag(id - lastId));
+	putVarint(zigzag(ts - lastTs));
+	putVarint(zigzag(price - lastPrice));
+	putVarint(amount);
+	lastId = id;
+	lastTs = ts;
+	lastPrice = price;
+	if(ts < blockMinTs)
+	    blockMinTs = ts;
+	if(ts > blockMaxTs)
+	    blockMaxTs = ts;
+	if(++blockCount == blockEvents)
+	    flushBlock();
+    }
+
+    private static long zigzag(final long v) {
+	return (v << 1) ^ (v >> 63);
+    }
+
+    private void putVarint(long v) {
+	final byte[] block = this.block;
+	int i = blockLength;
+	while((v & ~0x7fL) != 0) {
+	    block[i++] = (byte) ((v & 0x7f) | 0x80);
+	    v >>>= 7;
+	}
+	block[i++] = (byte) v;
+	blockLength = i;
+    }
+
+    private void flushBlock() throws IOException {
+	if(blockCount == 0)
+	    return;
+	if(blocks == offsets.length) {
+	    offsets = grow(offsets);
+	    firstEvents = grow(firstEvents);
+	    minTs = grow(minTs);
+	    maxTs = grow(maxTs);
+	}
+	offsets[blocks] = offset;
+	firstEvents[blocks] = events;
+	minTs[blocks] = blockMinTs;
+	maxTs[blocks] = blockMaxTs;
+	blocks++;
+
+	out.writeInt(blockLength);
+	out.writeInt(blockCount);
+	out.write(block, 0, blockLength);
+	offset += 8 + blockLength;
+	events += blockCount;
+
+	blockLength = 0;
+	blockCount = 0;
+	blockMinTs = Long.MAX_VALUE;
+	blockMaxTs = Long.MIN_VALUE;
+	lastId = 0;
+	lastTs = 0;
+	lastPrice = 0;
+    }
+
+    private static long[] grow(final long[] a) {
+	final long[] b = new long[a.length * 2];
+	System.arraycopy(a, 0, b, 0, a.length);
+	return b;
+    }
+
+    // flush the last block, write the index and footer.
+    public void close() throws IOException {
+	try {
+	    flushBlock();
+	    final long indexOffset = offset;
+	    for(int i = 0; i < blocks; i++) {
+		out.writeLong(offsets[i]);
+		out.writeLong(firstEvents[i]);
+		out.writeLong(minTs[i]);
+		out.writeLong(maxTs[i]);
+	    }
+	    offset += blocks * 32L;
+	    out.writeLong(indexOffset);
+	    out.writeInt(blocks);
+	    out.writeLong(events);
+	    out.writeInt(MAGIC);
+	    offset += FOOTER_LENGTH;
+	} finally {
+	    out.close();
+	}
+    }
+}
@@ -0,0 +1,24 @@
+package net.parasec.ob;
+
+import java.nio.ByteBuffer;
+
+
+// bitstamp's raw order log / live orders stream lines (see OrderLogDecoder).
+public final class BitstampFeedAdapter implements FeedAdapter {
+
+    private final OrderLogDecoder decoder = new OrderLogDecoder();
+
+    public int decode(final ByteBuffer buf, final boolean endOfInput, final FeedHandler handler) {
+	final OrderLogDecoder decoder = this.decoder;
+	int events = 0;
+	int action;
+	while((action = decoder.decode(buf, endOfInput)) != OrderLogDecoder.UNDERFLOW) {
+	    if(action == OrderLogDecoder.OTHER)
+		continue;
+	    handler.onOrder(action, decoder.getOrderType(), decoder.getId(),
+			    decoder.getPrice(), decoder.getAmount(), decoder.getTimestamp());
+	    events++;
+	}
+	return events;
+    }
+}
@@ -0,0 +1,37 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+import net.parasec.trading.ticker.core.wire.OrderInfo;
+
+
+// applies decoded order events to a book. the book keeps an OrderInfo per
+// resting order, so one is made here per event, at the book boundary.
+public final class BookFeedHandler implements FeedHandler {
+
+    private final OrderBook ob;
+
+    public BookFeedHandler(final OrderBook ob) {
+	this.ob = ob;
+    }
+
+    public OrderBook getOrderBook() {
+	return ob;
+    }
+
+    public void onOrder(final int action, final int side, final long id,
+			final long price, final long amount, final long ts) {
+	final Direction direction = side == OrderLogDecoder.BUY ? Direction.BUY : Direction.SELL;
+	final OrderInfo o = Util.newOrderInfo(Long.toString(id), (int) price, amount, ts);
+	switch(action) {
+	case OrderLogDecoder.CREATED:
+	    ob.addOrder(direction, o);
+	    break;
+	case OrderLogDecoder.CHANGED:
+	    ob.modOrder(direction, o);
+	    break;
+	default:
+	    ob.delOrder(direction, o);
+	    break;
+	}
+    }
+}
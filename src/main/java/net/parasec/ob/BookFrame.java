@@ -0,0 +1,54 @@
+package net.parasec.ob;
+
+
+// a book as of an update, in plain fields: the state, the top depth levels
+// per side (TopOfBook) and the last depth trades (newest first). the slot
+// of a StateRing, and what BookRenderer draws, so a consumer on another
+// thread never touches the book itself.
+//
+// the state is a copy (State.copyFrom): its best bid/ask are unlinked, the
+// levels are in top.
+public final class BookFrame {
+
+    public final int depth;
+    public final State state = new State();
+    public final TopOfBook top;
+
+    public int trades;
+    public final boolean[] tradeBuy;
+    public final int[] tradePrice;
+    public final long[] tradeVolume;
+
+    public BookFrame(final int depth) {
+	this.depth = depth;
+	top = new TopOfBook(depth);
+	tradeBuy = new boolean[depth];
+	tradePrice = new int[depth];
+	tradeVolume = new long[depth];
+    }
+
+    // take the book as it is now (on the book thread).
+    public BookFrame fill(final OrderBook ob) {
+	state.copyFrom(ob.getState());
+	top.fill(ob);
+	final TradeRing ring = ob.getTrades();
+	trades = Math.min(ring.size(), depth);
+	for(int i = 0; i < trades; i++) {
+	    tradeBuy[i] = ring.isBuy(i);
+	    tradePrice[i] = ring.getPrice(i);
+	    tradeVolume[i] = ring.getVolume(i);
+	}
+	return this;
+    }
+
+    // same depth only.
+    public BookFrame copyFrom(final BookFrame f) {
+	state.copyFrom(f.state);
+	top.copyFrom(f.top);
+	trades = f.trades;
+	System.arraycopy(f.tradeBuy, 0, tradeBuy, 0, trades);
+	System.arraycopy(f.tradePrice, 0, tradePrice, 0, trades);
+	System.arraycopy(f.tradeVolume, 0, tradeVolume, 0, trades);
+	return this;
+    }
+}
@@ -0,0 +1,618 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.OrderInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+
+// differential fuzzing of LinkedOrderBook against ReferenceBook: order
+// streams are applied to both and the books compared after every event:
+// levels and queues on both sides (with the book's own links, counts and
+// level index), outstanding market orders, dead pools and every State
+// field. the first difference stops the run, reporting the seed and the
+// events leading up to it. then both replay a stream alone, for their
+// relative speed.
+//
+// streams come from a small exchange: limit orders around a drifting mid
+// price are matched in price/time priority and produce the events a feed
+// would (taker created, makers changed or deleted, the taker deleted once
+// filled or changed if it rests), along with cancels and price changes.
+// with probability chaos, each event is then perturbed the ways the feed
+// is: swapped with the next (out of order), delayed, repeated later
+// (stale), dropped (missing data, which leaves orphans), followed by a
+// change with more volume than the order has, or by a change or delete of
+// an unknown order, given an earlier timestamp, or followed by a sell
+// above the price limit. quiet gaps longer than the market order expiry
+// occur now and then. an order log or archive can be perturbed instead.
+public final class BookFuzzer {
+
+    public final static int RUNS = 20;
+    public final static int EVENTS = 20000;
+    public final static double CHAOS = 0.05;
+    public final static long MO_EXPIRY = 5000;
+    public final static int BENCH_EVENTS = 200000;
+
+    // events shown before a difference.
+    private final static int CONTEXT = 20;
+
+    private final static class Event {
+	final int action;
+	final int side;
+	final long id;
+	final long price;
+	final long amount;
+	final long ts;
+
+	Event(final int action, final int side, final long id, final long price, final long amount, final long ts) {
+	    this.action = action;
+	    this.side = side;
+	    this.id = id;
+	    this.price = price;
+	    this.amount = amount;
+	    this.ts = ts;
+	}
+    }
+
+    private final static class Resting {
+	final long id;
+	final boolean buy;
+	int price;
+	long amount;
+	long seq;
+
+	Resting(final long id, final boolean buy, final int price, final long amount, final long seq) {
+	    this.id = id;
+	    this.buy = buy;
+	    this.price = price;
+	    this.amount = amount;
+	    this.seq = seq;
+	}
+    }
+
+    // the exchange: a clean stream.
+    private final static class Exchange {
+
+	// resting orders kept around this many, cancels take over above.
+	private final static int TARGET = 200;
+
+	private final Random rnd;
+	private final long moExpiry;
+	private final ArrayList<Event> out;
+	private final ArrayList<Resting> book = new ArrayList<Resting>();
+	private long nextId = 100000000L;
+	private long seq = 0;
+	private long ts = 1390000000000L;
+	private int mid = 80000;
+
+	Exchange(final Random rnd, final long moExpiry, final ArrayList<Event> out) {
+	    this.rnd = rnd;
+	    this.moExpiry = moExpiry;
+	    this.out = out;
+	    // changes and deletes of orders from before the stream started.
+	    for(int i = rnd.nextInt(6); --i >= 0; ) {
+		out.add(new Event(rnd.nextBoolean() ? OrderLogDecoder.CHANGED : OrderLogDecoder.DELETED,
+				  rnd.nextInt(2), nextId++, price(rnd.nextBoolean(), 1), volume(), ts - rnd.nextInt(5000)));
+	    }
+	}
+
+	private long volume() {
+	    final double r = rnd.nextDouble();
+	    // mostly up to a few btc, sometimes hundreds.
+	    final double btc = r < 0.95 ? 0.01 + rnd.nextDouble() * 5 : rnd.nextDouble() * 500;
+	    return Math.max(1, (long) (btc * 1e8));
+	}
+
+	// a passive price, around offset cents away from the mid.
+	private int price(final boolean buy, final int offset) {
+	    final int d = 1 + (int) Math.min(5000, -Math.log(1 - rnd.nextDouble()) * 400 * offset);
+	    return Math.max(1, buy ? mid - d : mid + d);
+	}
+
+	private void emit(final int action, final Resting o) {
+	    out.add(new Event(action, o.buy ? OrderLogDecoder.BUY : OrderLogDecoder.SELL, o.id, o.price, o.amount, ts));
+	}
+
+	// best order opposite a taker crossing price, null if none.
+	private Resting bestMaker(final boolean buy, final int price) {
+	    Resting best = null;
+	    for(int i = 0, len = book.size(); i < len; i++) {
+		final Resting o = book.get(i);
+		if(o.buy == buy || (buy ? o.price > price : o.price < price))
+		    continue;
+		if(best == null || (buy ? o.price < best.price : o.price > best.price)
+		   || (o.price == best.price && o.seq < best.seq))
+		    best = o;
+	    }
+	    return best;
+	}
+
+	private void newOrder(final boolean marketable) {
+	    final boolean buy = rnd.nextBoolean();
+	    final int price = marketable ? (buy ? mid + rnd.nextInt(300) : Math.max(1, mid - rnd.nextInt(300)))
+		: price(buy, 1);
+	    final Resting taker = new Resting(nextId++, buy, price, volume(), seq++);
+	    final long volume = taker.amount;
+	    emit(OrderLogDecoder.CREATED, taker);
+	    Resting maker;
+	    while(taker.amount > 0 && (maker = bestMaker(buy, price)) != null) {
+		final long fill = Math.min(taker.amount, maker.amount);
+		maker.amount -= fill;
+		taker.amount -= fill;
+		if(maker.amount == 0) {
+		    book.remove(maker);
+		    emit(OrderLogDecoder.DELETED, maker);
+		} else {
+		    emit(OrderLogDecoder.CHANGED, maker);
+		}
+	    }
+	    if(taker.amount == 0) {
+		emit(OrderLogDecoder.DELETED, taker);
+		return;
+	    }
+	    if(taker.amount < volume)
+		emit(OrderLogDecoder.CHANGED, taker);
+	    book.add(taker);
+	}
+
+	private void cancel() {
+	    final Resting o = book.remove(rnd.nextInt(book.size()));
+	    emit(OrderLogDecoder.DELETED, o);
+	}
+
+	// to a new passive price, losing its place.
+	private void reprice() {
+	    final Resting o = book.get(rnd.nextInt(book.size()));
+	    final int price = price(o.buy, 1);
+	    if(bestMaker(o.buy, price) != null)
+		return;
+	    o.price = price;
+	    o.seq = seq++;
+	    emit(OrderLogDecoder.CHANGED, o);
+	}
+
+	void step() {
+	    ts += rnd.nextInt(50);
+	    if(rnd.nextDouble() < 0.002) {
+		// quiet: beyond the expiry, and sometimes the expiry wheel.
+		ts += moExpiry + rnd.nextInt(150000);
+	    }
+	    mid = Math.max(20000, Math.min(200000, mid + rnd.nextInt(21) - 10));
+	    final double r = rnd.nextDouble();
+	    final double cancels = book.size() > TARGET ? 0.5 : 0.2;
+	    if(book.isEmpty() || r < 0.5)
+		newOrder(false);
+	    else if(r < 0.5 + cancels)
+		cancel();
+	    else if(r < 0.8 + cancels / 2)
+		newOrder(true);
+	    else
+		reprice();
+	}
+    }
+
+    // perturb a stream with probability chaos per event.
+    private static OrderBatch perturb(final ArrayList<Event> events, final Random rnd, final double chaos) {
+	final int n = events.size();
+	final OrderBatch batch = new OrderBatch(2 * n + 16);
+	// delayed events, and the event after which each is due.
+	final ArrayList<Event> delayed = new ArrayList<Event>();
+	final ArrayList<Integer> due = new ArrayList<Integer>();
+	long unknownId = 900000000000L;
+	for(int i = 0; i < n; i++) {
+	    final Event e = events.get(i);
+	    if(rnd.nextDouble() >= chaos) {
+		emit(batch, e);
+	    } else {
+		switch(rnd.nextInt(8)) {
+		case 0:
+		    // out of order.
+		    if(i + 1 < n)
+			emit(batch, events.get(++i));
+		    emit(batch, e);
+		    break;
+		case 1:
+		    // arrives late.
+		    delayed.add(e);
+		    due.add(i + 1 + rnd.nextInt(50));
+		    break;
+		case 2:
+		    // repeated later (stale).
+		    emit(batch, e);
+		    delayed.add(e);
+		    due.add(i + 1 + rnd.nextInt(50));
+		    break;
+		case 3:
+		    // missing.
+		    break;
+		case 4:
+		    // a change with more volume than the order has.
+		    emit(batch, e);
+		    batch.onOrder(OrderLogDecoder.CHANGED, e.side, e.id, e.price,
+				  e.amount + 1 + rnd.nextInt(100000000), e.ts);
+		    break;
+		case 5:
+		    // an order never seen.
+		    emit(batch, e);
+		    batch.onOrder(rnd.nextBoolean() ? OrderLogDecoder.CHANGED : OrderLogDecoder.DELETED,
+				  rnd.nextInt(2), unknownId++, e.price, rnd.nextBoolean() ? 0 : e.amount, e.ts);
+		    break;
+		case 6:
+		    // timestamp from the past.
+		    batch.onOrder(e.action, e.side, e.id, e.price, e.amount, e.ts - rnd.nextInt(10000));
+		    break;
+		default:
+		    // a sell the book ignores (>= $10000).
+		    emit(batch, e);
+		    batch.onOrder(OrderLogDecoder.CREATED, OrderLogDecoder.SELL, unknownId++,
+				  1000000 + rnd.nextInt(100000), e.amount, e.ts);
+		    break;
+		}
+	    }
+	    for(int j = 0; j < delayed.size(); ) {
+		if(due.get(j) <= i) {
+		    emit(batch, delayed.remove(j));
+		    due.remove(j);
+		} else {
+		    j++;
+		}
+	    }
+	}
+	for(int j = 0; j < delayed.size(); j++)
+	    emit(batch, delayed.get(j));
+	return batch;
+    }
+
+    private static void emit(final OrderBatch batch, final Event e) {
+	batch.onOrder(e.action, e.side, e.id, e.price, e.amount, e.ts);
+    }
+
+    private static ArrayList<Event> generate(final Random rnd, final int events, final long moExpiry) {
+	final ArrayList<Event> out = new ArrayList<Event>(events + 16);
+	final Exchange exchange = new Exchange(rnd, moExpiry, out);
+	while(out.size() < events)
+	    exchange.step();
+	while(out.size() > events)
+	    out.remove(out.size() - 1);
+	return out;
+    }
+
+    // the first events of an order log or archive (all if events <= 0).
+    private static ArrayList<Event> read(final File f, final int events) throws IOException {
+	final ArrayList<Event> out = new ArrayList<Event>();
+	final FeedHandler handler = new FeedHandler() {
+		public void onOrder(final int action, final int side, final long id,
+				    final long price, final long amount, final long ts) {
+		    if(events <= 0 || out.size() < events)
+			out.add(new Event(action, side, id, price, amount, ts));
+		}
+	    };
+	if(ArchiveReader.isArchive(f)) {
+	    final ArchiveReader reader = new ArchiveReader(f);
+	    try {
+		while((events <= 0 || out.size() < events) && reader.next()) {
+		    handler.onOrder(reader.getAction(), reader.getOrderType(), reader.getId(),
+				    reader.getPrice(), reader.getAmount(), reader.getTimestamp());
+		}
+	    } finally {
+		reader.close();
+	    }
+	} else {
+	    FeedReader.read(f, FeedReader.forFile(f), handler);
+	}
+	return out;
+    }
+
+    ////////// comparison. null if the same, otherwise the first difference.
+
+    private static String compare(final LinkedOrderBook ob, final ReferenceBook ref) {
+	String d = compare("bids", ob.getBids(), ref.getBids());
+	if(d == null)
+	    d = compare("asks", ob.getAsks(), ref.getAsks());
+	if(d == null)
+	    d = compare("buy mos", ob.getBuyMarketOrders(), ref.getBuyMarketOrders());
+	if(d == null)
+	    d = compare("sell mos", ob.getSellMarketOrders(), ref.getSellMarketOrders());
+	if(d == null)
+	    d = compare(ob.getState(), ref.getState());
+	return d;
+    }
+
+    private static String compare(final String name, final Orders orders, final ReferenceBook.Side side) {
+	if(orders.getLevelCount() != side.levels.size())
+	    return name + ": " + orders.getLevelCount() + " levels != " + side.levels.size();
+	if(orders.getOrders() != side.orders.size())
+	    return name + ": " + orders.getOrders() + " orders != " + side.orders.size();
+	if(orders.getDeadPool().size() != side.dead.size())
+	    return name + ": " + orders.getDeadPool().size() + " dead != " + side.dead.size();
+	final Limit[] index = orders.getLevels();
+	Limit prev = null;
+	Limit l = orders.getBest();
+	for(final Map.Entry<Integer, ArrayList<ReferenceBook.Order>> e : side.levels.entrySet()) {
+	    final int price = e.getKey();
+	    if(l == null)
+		return name + ": level " + price + " missing";
+	    if(l.getPrice() != price)
+		return name + ": level " + l.getPrice() + " != " + price;
+	    if(l.getLeftSibling() != prev)
+		return name + ": level " + price + " left link";
+	    if(index[price] != l)
+		return name + ": level " + price + " not indexed";
+	    long volume = 0;
+	    LimitOrder lp = null;
+	    LimitOrder lo = l.getHead();
+	    for(final ReferenceBook.Order o : e.getValue()) {
+		if(lo == null)
+		    return name + ": level " + price + " order " + o + " missing";
+		final OrderInfo oi = lo.getOrder();
+		if(!oi.getexchangeOrderId().equals(o.id) || oi.getLimitPrice() != o.price
+		   || oi.getVolume() != o.volume || oi.getExchangeTimestamp() != o.ts)
+		    return name + ": level " + price + " order " + describe(oi) + " != " + o;
+		if(lo.getLeftSibling() != lp || lo.getParent() != l || orders.getOrder(o.id) != lo)
+		    return name + ": level " + price + " order " + o.id + " links";
+		volume += o.volume;
+		lp = lo;
+		lo = lo.getRightSibling();
+	    }
+	    if(lo != null)
+		return name + ": level " + price + " order " + describe(lo.getOrder()) + " extra";
+	    if(l.getLast() != lp)
+		return name + ": level " + price + " last";
+	    if(l.getOrders() != e.getValue().size() || l.getVolume() != volume)
+		return name + ": level " + price + " " + l.getOrders() + " orders " + l.getVolume()
+		    + " volume != " + e.getValue().size() + " " + volume;
+	    prev = l;
+	    l = l.getRightSibling();
+	}
+	if(l != null)
+	    return name + ": level " + l.getPrice() + " extra";
+	return null;
+    }
+
+    private static String compare(final String name, final Collection<MarketOrder> mos,
+				  final Collection<ReferenceBook.Order> ref) {
+	if(mos.size() != ref.size())
+	    return name + ": " + mos.size() + " != " + ref.size();
+	final Iterator<MarketOrder> it = mos.iterator();
+	for(final ReferenceBook.Order o : ref) {
+	    final MarketOrder mo = it.next();
+	    final OrderInfo oi = mo.getOrder();
+	    if(!oi.getexchangeOrderId().equals(o.id) || oi.getLimitPrice() != o.price
+	       || oi.getVolume() != o.volume || mo.getInitialVolume() != o.initialVolume)
+		return name + ": " + describe(oi) + " (initial " + mo.getInitialVolume() + ") != " + o
+		    + " (initial " + o.initialVolume + ")";
+	}
+	return null;
+    }
+
+    private static String describe(final OrderInfo o) {
+	return o.getexchangeOrderId() + " " + o.getLimitPrice() + " " + o.getVolume() + " " + o.getExchangeTimestamp();
+    }
+
+    // every instance field of State, so fields added later are covered.
+    private final static Field[] STATE_FIELDS = stateFields();
+
+    private static Field[] stateFields() {
+	final ArrayList<Field> fields = new ArrayList<Field>();
+	for(final Field f : State.class.getFields()) {
+	    if(!Modifier.isStatic(f.getModifiers()))
+		fields.add(f);
+	}
+	return fields.toArray(new Field[fields.size()]);
+    }
+
+    private static String compare(final State a, final State b) {
+	try {
+	    for(int i = 0; i < STATE_FIELDS.length; i++) {
+		final Object x = STATE_FIELDS[i].get(a);
+		final Object y = STATE_FIELDS[i].get(b);
+		if(!same(x, y))
+		    return "state " + STATE_FIELDS[i].getName() + ": " + show(x) + " != " + show(y);
+	    }
+	} catch(final IllegalAccessException e) {
+	    throw new IllegalStateException(e);
+	}
+	return null;
+    }
+
+    private static boolean same(final Object x, final Object y) {
+	if(x == y)
+	    return true;
+	if(x == null || y == null)
+	    return false;
+	if(x instanceof Limit) {
+	    final Limit a = (Limit) x, b = (Limit) y;
+	    return a.getPrice() == b.getPrice() && a.getVolume() == b.getVolume() && a.getOrders() == b.getOrders();
+	}
+	if(x instanceof Percentile) {
+	    final Percentile a = (Percentile) x, b = (Percentile) y;
+	    return a.getVwap() == b.getVwap() && a.getOrders() == b.getOrders()
+		&& a.getIdPriceLevels() == b.getIdPriceLevels() && a.getVolume() == b.getVolume();
+	}
+	if(x instanceof Percentile[]) {
+	    final Percentile[] a = (Percentile[]) x, b = (Percentile[]) y;
+	    if(a.length != b.length)
+		return false;
+	    for(int i = 0; i < a.length; i++) {
+		if(!same(a[i], b[i]))
+		    return false;
+	    }
+	    return true;
+	}
+	if(x instanceof int[])
+	    return Arrays.equals((int[]) x, (int[]) y);
+	return x.equals(y);
+    }
+
+    private static String show(final Object x) {
+	if(x instanceof Limit) {
+	    final Limit l = (Limit) x;
+	    return l.getPrice() + "/" + l.getVolume() + "/" + l.getOrders();
+	}
+	if(x instanceof Percentile[])
+	    return Arrays.toString((Percentile[]) x);
+	if(x instanceof int[])
+	    return Arrays.toString((int[]) x);
+	return String.valueOf(x);
+    }
+
+    // dead pools, and no stale entries in the level index.
+    private static String compareEnd(final LinkedOrderBook ob, final ReferenceBook ref) {
+	if(!ob.getBids().getDeadPool().equals(ref.getBids().dead))
+	    return "bids: dead pools";
+	if(!ob.getAsks().getDeadPool().equals(ref.getAsks().dead))
+	    return "asks: dead pools";
+	final Orders[] sides = { ob.getBids(), ob.getAsks() };
+	for(int s = 0; s < sides.length; s++) {
+	    int levels = 0;
+	    final Limit[] index = sides[s].getLevels();
+	    for(int i = 0; i < index.length; i++) {
+		if(index[i] != null)
+		    levels++;
+	    }
+	    if(levels != sides[s].getLevelCount())
+		return (s == 0 ? "bids" : "asks") + ": " + levels + " indexed levels != " + sides[s].getLevelCount();
+	}
+	return null;
+    }
+
+    ////////// runs.
+
+    private final static String[] ACTIONS = { "created", "changed", "deleted" };
+
+    private static void print(final OrderBatch events, final int i) {
+	events.replay(i, new FeedHandler() {
+		public void onOrder(final int action, final int side, final long id,
+				    final long price, final long amount, final long ts) {
+		    System.out.println(String.format("  %7d %s %s %d %d %d %d", i,
+						     action < ACTIONS.length ? ACTIONS[action] : "other",
+						     side == OrderLogDecoder.BUY ? "buy" : "sell", id, price, amount, ts));
+		}
+	    });
+    }
+
+    // apply the events to both books, comparing after each. returns the
+    // book, or null if they differed.
+    private static LinkedOrderBook check(final OrderBatch events, final long moExpiry) {
+	final LinkedOrderBook ob = new LinkedOrderBook(new EventClock(), moExpiry);
+	final BookFeedHandler book = new BookFeedHandler(ob);
+	final ReferenceBook ref = new ReferenceBook(moExpiry);
+	for(int i = 0, n = events.size(); i < n; i++) {
+	    events.replay(i, book);
+	    events.replay(i, ref);
+	    final String d = compare(ob, ref);
+	    if(d != null) {
+		System.out.println("difference after event " + i + ": " + d);
+		for(int j = Math.max(0, i - CONTEXT); j <= i; j++)
+		    print(events, j);
+		return null;
+	    }
+	}
+	final String d = compareEnd(ob, ref);
+	if(d != null) {
+	    System.out.println("difference at the end: " + d);
+	    return null;
+	}
+	return ob;
+    }
+
+    // keeps the books' results live.
+    private static long sink = 0;
+
+    // events per second replaying the stream alone, best of reps.
+    private static double speed(final OrderBatch events, final boolean reference, final long moExpiry, final int reps) {
+	long best = Long.MAX_VALUE;
+	for(int r = 0; r < reps; r++) {
+	    final long t0 = System.nanoTime();
+	    if(reference) {
+		final ReferenceBook ref = new ReferenceBook(moExpiry);
+		events.replay(ref);
+		sink += ref.getState().event;
+	    } else {
+		final LinkedOrderBook ob = new LinkedOrderBook(new EventClock(), moExpiry);
+		events.replay(new BookFeedHandler(ob));
+		sink += ob.getState().event;
+	    }
+	    best = Math.min(best, System.nanoTime() - t0);
+	}
+	return events.size() * 1e9 / best;
+    }
+
+    private static void usage() {
+	System.err.println("usage: BookFuzzer [-seed <n>] [-runs <n>] [-events <n>] [-chaos <p>] [-expiry <ms>]");
+	System.err.println("                  [-bench <events>] [orders.log | archive]");
+	System.exit(2);
+    }
+
+    public static void main(final String[] args) throws IOException {
+	long seed = 1;
+	int runs = RUNS;
+	int events = EVENTS;
+	double chaos = CHAOS;
+	long moExpiry = MO_EXPIRY;
+	int bench = BENCH_EVENTS;
+	File file = null;
+	for(int i = 0; i < args.length; i++) {
+	    if(args[i].equals("-seed") && i + 1 < args.length)
+		seed = Long.parseLong(args[++i]);
+	    else if(args[i].equals("-runs") && i + 1 < args.length)
+		runs = Integer.parseInt(args[++i]);
+	    else if(args[i].equals("-events") && i + 1 < args.length)
+		events = Integer.parseInt(args[++i]);
+	    else if(args[i].equals("-chaos") && i + 1 < args.length)
+		chaos = Double.parseDouble(args[++i]);
+	    else if(args[i].equals("-expiry") && i + 1 < args.length)
+		moExpiry = Long.parseLong(args[++i]);
+	    else if(args[i].equals("-bench") && i + 1 < args.length)
+		bench = Integer.parseInt(args[++i]);
+	    else if(!args[i].startsWith("-") && file == null)
+		file = new File(args[i]);
+	    else
+		usage();
+	}
+
+	final ArrayList<Event> recorded = file != null ? read(file, events) : null;
+	long total = 0;
+	for(int r = 0; r < runs; r++) {
+	    final Random rnd = new Random(seed + r);
+	    final ArrayList<Event> clean = recorded != null ? recorded : generate(rnd, events, moExpiry);
+	    final OrderBatch stream = perturb(clean, rnd, chaos);
+	    final long t0 = System.nanoTime();
+	    final LinkedOrderBook ob = check(stream, moExpiry);
+	    if(ob == null) {
+		System.out.println("run " + r + " (-seed " + (seed + r) + " -runs 1 -events " + events
+				   + " -chaos " + chaos + " -expiry " + moExpiry + ") failed");
+		System.exit(1);
+	    }
+	    total += stream.size();
+	    // what the run went through.
+	    final BookMetrics m = ob.getMetrics();
+	    System.out.println(String.format("run %d seed %d: %d events ok, %d trades, %d mos, %d orphans, %d expired,"
+					     + " %d dead pool hits (%d ms)", r, seed + r, stream.size(),
+					     ob.getState().lastTradeSeq, m.getCrossedInsertions(), m.getOrphanedOrders(),
+					     m.getStaleMoPurges(), m.getDeadPoolHits(), (System.nanoTime() - t0) / 1000000));
+	}
+	System.out.println(runs + " runs, " + total + " events, no differences");
+
+	if(bench > 0) {
+	    final Random rnd = new Random(seed);
+	    final ArrayList<Event> clean = recorded != null ? recorded : generate(rnd, bench, moExpiry);
+	    final OrderBatch stream = perturb(clean, rnd, chaos);
+	    // warm up, then best of 3.
+	    speed(stream, false, moExpiry, 1);
+	    speed(stream, true, moExpiry, 1);
+	    final double linked = speed(stream, false, moExpiry, 3);
+	    final double reference = speed(stream, true, moExpiry, 3);
+	    System.out.println(String.format("%d events: linked %.0f events/s, reference %.0f events/s (linked %.1fx)",
+					     stream.size(), linked, reference, linked / reference));
+	}
+    }
+}
@@ -0,0 +1,201 @@
+package net.parasec.ob;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import javax.management.ObjectName;
+
+
+// order book engine counters, exposed over jmx.
+// counters are plain fields written only by the thread driving the order
+// book (no locks or cas on the hot path). jmx reads them from another
+// thread, so a value may be slightly behind.
+public final class BookMetrics implements BookMetricsMBean {
+
+    // queue/ring depth, sampled when read.
+    public interface Gauge {
+	long get();
+    }
+
+    // events by type.
+    long adds = 0;
+    long mods = 0;
+    long dels = 0;
+
+    // events discarded because the order id is in the dead pool.
+    long deadPoolHits = 0;
+    // resting orders removed by removeOrphanedOrders.
+    long orphanedOrders = 0;
+    // market orders purged after not being cleared in time.
+    long staleMoPurges = 0;
+    // orders that crossed the book (became market orders).
+    long crossedInsertions = 0;
+    // snapshot reconciliations, and orders added, removed or changed by them.
+    long reconciliations = 0;
+    long reconciledOrders = 0;
+    // trade, cancel and fill order ids which are not numeric (recorded as
+    // Util.UNPARSED_ID).
+    long unparsedIds = 0;
+
+    private final OrderBook ob;
+
+    private final List<String> gaugeNames = new ArrayList<String>();
+    private final List<Gauge> gauges = new ArrayList<Gauge>();
+
+    // per type rates ([adds, mods, dels] per second) over the last
+    // RATE_INTERVAL, sampled by a shared timer once registered, so every
+    // jmx client sees the same window. the counters themselves are
+    // monotonic, for clients which would rather derive their own rates.
+    public final static long RATE_INTERVAL = 1000; // ms.
+    private static Timer sampler = null;
+    private final long[] lastCount = new long[3];
+    private long lastTime = 0;
+    private volatile double[] rates = new double[3];
+
+    public BookMetrics(final OrderBook ob) {
+	this.ob = ob;
+    }
+
+    public synchronized void addGauge(final String name, final Gauge gauge) {
+	gaugeNames.add(name);
+	gauges.add(gauge);
+    }
+
+    public void register(final String name) throws Exception {
+	ManagementFactory.getPlatformMBeanServer()
+	    .registerMBean(this, new ObjectName("net.parasec.ob:type=BookMetrics,name=" + name));
+	startSampling();
+    }
+
+    private static synchronized Timer sampler() {
+	if(sampler == null)
+	    sampler = new Timer("ob-metrics", true);
+	return sampler;
+    }
+
+    // sample the rates every RATE_INTERVAL (done by register()).
+    public void startSampling() {
+	synchronized(this) {
+	    if(lastTime != 0)
+		return;
+	    lastTime = System.currentTimeMillis();
+	    lastCount[0] = adds;
+	    lastCount[1] = mods;
+	    lastCount[2] = dels;
+	}
+	sampler().scheduleAtFixedRate(new TimerTask() {
+		public void run() {
+		    sample();
+		}
+	    }, RATE_INTERVAL, RATE_INTERVAL);
+    }
+
+    private synchronized void sample() {
+	final long now = System.currentTimeMillis();
+	final long elapsed = now - lastTime;
+	if(elapsed <= 0)
+	    return;
+	final long[] count = { adds, mods, dels };
+	final double[] r = new double[3];
+	for(int i = 0; i < 3; i++) {
+	    r[i] = (count[i] - lastCount[i]) * 1000d / elapsed;
+	    lastCount[i] = count[i];
+	}
+	lastTime = now;
+	rates = r;
+    }
+
+    public long getAdds() {
+	return adds;
+    }
+
+    public long getMods() {
+	return mods;
+    }
+
+    public long getDels() {
+	return dels;
+    }
+
+    public double getAddsPerSecond() {
+	return rates[0];
+    }
+
+    public double getModsPerSecond() {
+	return rates[1];
+    }
+
+    public double getDelsPerSecond() {
+	return rates[2];
+    }
+
+    public long getDeadPoolHits() {
+	return deadPoolHits;
+    }
+
+    public long getOrphanedOrders() {
+	return orphanedOrders;
+    }
+
+    public long getStaleMoPurges() {
+	return staleMoPurges;
+    }
+
+    public long getCrossedInsertions() {
+	return crossedInsertions;
+    }
+
+    public long getReconciliations() {
+	return reconciliations;
+    }
+
+    public long getReconciledOrders() {
+	return reconciledOrders;
+    }
+
+    public long getUnparsedIds() {
+	return unparsedIds;
+    }
+
+    // estimated heap use of the book (see Footprint).
+    public long getEstimatedBytes() {
+	return Footprint.of(ob).total();
+    }
+
+    public int getActiveBidLevels() {
+	return ob.getBids().getLevelCount();
+    }
+
+    public int getActiveAskLevels() {
+	return ob.getAsks().getLevelCount();
+    }
+
+    public int getActiveBids() {
+	return ob.getBids().getOrders();
+    }
+
+    public int getActiveAsks() {
+	return ob.getAsks().getOrders();
+    }
+
+    public int getActiveBuyMos() {
+	return ob.getState().moActiveBuys;
+    }
+
+    public int getActiveSellMos() {
+	return ob.getState().moActiveSells;
+    }
+
+    // name=depth,name=depth...
+    public synchronized String getQueueDepths() {
+	final StringBuilder sb = new StringBuilder();
+	for(int i = 0, len = gauges.size(); i < len; i++) {
+	    if(i > 0)
+		sb.append(",");
+	    sb.append(gaugeNames.get(i)).append("=").append(gauges.get(i).get());
+	}
+	return sb.toString();
+    }
+}
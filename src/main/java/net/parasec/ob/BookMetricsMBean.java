@@ -0,0 +1,31 @@
+package net.parasec.ob;
+
+// jmx view of the order book engine counters.
+public interface BookMetricsMBean {
+
+    long getAdds();
+    long getMods();
+    long getDels();
+
+    double getAddsPerSecond();
+    double getModsPerSecond();
+    double getDelsPerSecond();
+
+    long getDeadPoolHits();
+    long getOrphanedOrders();
+    long getStaleMoPurges();
+    long getCrossedInsertions();
+    long getReconciliations();
+    long getReconciledOrders();
+    long getUnparsedIds();
+    long getEstimatedBytes();
+
+    int getActiveBidLevels();
+    int getActiveAskLevels();
+    int getActiveBids();
+    int getActiveAsks();
+    int getActiveBuyMos();
+    int getActiveSellMos();
+
+    String getQueueDepths();
+}
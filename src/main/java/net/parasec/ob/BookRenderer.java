@@ -0,0 +1,232 @@
+package net.parasec.ob;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+// terminal view of a book (the LinkedOrderBook.toString layout) that only
+// rewrites what changed: the previous frame is kept row by row, and a row
+// which differs is redrawn in place with ansi cursor addressing. frames are
+// capped at fps, an update inside the frame interval costs a clock read.
+// a frame is drawn from a BookFrame: taken from the book on an update, or
+// handed over by a StateRing when the renderer is a consumer on its own
+// thread. numbers are formatted without String.format.
+//
+// the frame shows the book as of the last update drawn: when the feed goes
+// quiet inside a frame interval the screen can be one frame behind until
+// the next update (or render).
+public final class BookRenderer implements OrderBookStream.Evt, StateRing.Handler {
+
+    public final static int DEPTH = 45;
+    public final static int FPS = 10;
+
+    private final static String SEPARATOR = "=============================================================================================================";
+    private final static String EMPTY_BID = "                                                      ";
+
+    private final OutputStream out;
+    private final int depth;
+    private final BookFrame view;
+    private final long frameNanos;
+    private long lastFrame = 0;
+    private boolean cleared = false;
+
+    // previous frame, one row per line.
+    private StringBuilder[] rows = new StringBuilder[0];
+    private int rowCount = 0;
+
+    private final StringBuilder row = new StringBuilder(256);
+    private final StringBuilder text = new StringBuilder(2048);
+    private final StringBuilder frame = new StringBuilder(16384);
+    private byte[] bytes = new byte[16384];
+
+    private long frames = 0;
+    private long skipped = 0;
+    private long rowsWritten = 0;
+
+    public BookRenderer(final OutputStream out) {
+	this(out, DEPTH, Integer.getInteger("ob.render.fps", FPS));
+    }
+
+    // fps <= 0: draw every update.
+    public BookRenderer(final OutputStream out, final int depth, final int fps) {
+	this.out = out;
+	this.depth = depth;
+	this.view = new BookFrame(depth);
+	this.frameNanos = fps > 0 ? 1000000000L / fps : 0;
+    }
+
+    public long getFrames() {
+	return frames;
+    }
+
+    // updates not drawn (inside a frame interval).
+    public long getSkipped() {
+	return skipped;
+    }
+
+    public long getRowsWritten() {
+	return rowsWritten;
+    }
+
+    public int getDepth() {
+	return depth;
+    }
+
+    // false if inside the frame interval.
+    private boolean due() {
+	final long now = System.nanoTime();
+	if(frames > 0 && now - lastFrame < frameNanos) {
+	    skipped++;
+	    return false;
+	}
+	lastFrame = now;
+	return true;
+    }
+
+    public void onUpdate(final OrderBook ob) {
+	if(due())
+	    render(ob);
+    }
+
+    // as a StateRing consumer (of a ring at least as deep).
+    public void onFrame(final BookFrame f, final long sequence) {
+	if(due())
+	    render(f);
+    }
+
+    // redraw everything on the next frame (e.g. after the terminal was
+    // resized or written to by something else).
+    public void reset() {
+	cleared = false;
+	rowCount = 0;
+    }
+
+    // draw a frame now, regardless of the cap.
+    public void render(final OrderBook ob) {
+	render(view.fill(ob));
+    }
+
+    public void render(final BookFrame f) {
+	frame.setLength(0);
+	if(!cleared) {
+	    frame.append("\u001b[2J");
+	    cleared = true;
+	}
+	int n = 0;
+	n = levels(f, n);
+	row.setLength(0);
+	row.append(SEPARATOR);
+	line(n++);
+	n = state(f.state, n);
+	// rows the previous frame had beyond this one.
+	for(int i = n; i < rowCount; i++)
+	    frame.append("\u001b[").append(i + 1).append(";1H\u001b[2K");
+	rowCount = n;
+	frame.append("\u001b[").append(n + 1).append(";1H");
+	write();
+	frames++;
+    }
+
+    private int levels(final BookFrame f, int n) {
+	final TopOfBook t = f.top;
+	final int lines = Math.min(depth, f.depth);
+	long bidVolSum = 0, askVolSum = 0;
+	for(int i = 0; i < lines; i++) {
+	    row.setLength(0);
+	    if(i < t.bidLevels) {
+		final int best = t.bidPrice[0];
+		bidVolSum += t.bidVolume[i];
+		Util.appendPercent(row, 100*((best-t.bidPrice[i])/(double)best)).append("%\t");
+		Util.appendBTC(row, bidVolSum).append('\t').append(t.bidOrders[i]).append('\t');
+		Util.appendBTC(row, t.bidVolume[i]).append('\t');
+		Util.appendUSD(row, t.bidPrice[i]);
+	    } else {
+		row.append(EMPTY_BID);
+	    }
+	    row.append(" | ");
+	    if(i < t.askLevels) {
+		final int best = t.askPrice[0];
+		askVolSum += t.askVolume[i];
+		Util.appendUSD(row, t.askPrice[i]).append('\t');
+		Util.appendBTC(row, t.askVolume[i]).append('\t').append(t.askOrders[i]).append('\t');
+		Util.appendBTC(row, askVolSum).append('\t');
+		Util.appendPercent(row, 100*((t.askPrice[i]-best)/(double)t.askPrice[i])).append('%');
+	    }
+	    if(i < f.trades) {
+		row.append(' ').append(f.tradeBuy[i] ? '+' : '-');
+		Util.appendBTC(row, f.tradeVolume[i]).append(" @ ");
+		Util.appendUSD(row, f.tradePrice[i]);
+	    }
+	    line(n++);
+	}
+	return n;
+    }
+
+    // the state summary (State.appendTo, into a reused builder), one row
+    // per line. not skipped when the event is unchanged: some updates
+    // (e.g. market order prunes) change the state without counting an event.
+    private int state(final State s, int n) {
+	text.setLength(0);
+	s.appendTo(text);
+	row.setLength(0);
+	for(int i = 0, len = text.length(); i < len; i++) {
+	    final char c = text.charAt(i);
+	    if(c == '\n') {
+		line(n++);
+		row.setLength(0);
+	    } else {
+		row.append(c);
+	    }
+	}
+	if(row.length() > 0)
+	    line(n++);
+	return n;
+    }
+
+    // row becomes line n: drawn if it differs from line n of the last frame.
+    private void line(final int n) {
+	if(n >= rows.length) {
+	    final StringBuilder[] r = new StringBuilder[Math.max(64, rows.length * 2)];
+	    System.arraycopy(rows, 0, r, 0, rows.length);
+	    for(int i = rows.length; i < r.length; i++)
+		r[i] = new StringBuilder(256);
+	    rows = r;
+	}
+	final StringBuilder prev = rows[n];
+	if(n < rowCount && same(prev, row))
+	    return;
+	prev.setLength(0);
+	prev.append(row);
+	// whole line erased first: tabs skip over what was there.
+	frame.append("\u001b[").append(n + 1).append(";1H\u001b[2K").append(row);
+	rowsWritten++;
+    }
+
+    private static boolean same(final StringBuilder a, final StringBuilder b) {
+	final int len = a.length();
+	if(len != b.length())
+	    return false;
+	for(int i = 0; i < len; i++) {
+	    if(a.charAt(i) != b.charAt(i))
+		return false;
+	}
+	return true;
+    }
+
+    // frame as ascii, in one write.
+    private void write() {
+	final int len = frame.length();
+	if(len > bytes.length)
+	    bytes = new byte[Math.max(len, bytes.length * 2)];
+	for(int i = 0; i < len; i++) {
+	    final char c = frame.charAt(i);
+	    bytes[i] = (byte) (c < 128 ? c : '?');
+	}
+	try {
+	    out.write(bytes, 0, len);
+	    out.flush();
+	} catch(final IOException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+}
@@ -0,0 +1,68 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+import net.parasec.trading.ticker.core.wire.OrderInfo;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+// full snapshot of the resting orders on each side of an exchange's book
+// (a rest order book snapshot, or a book known to be correct), keyed by
+// order id. used to check a live book for drift (DriftDetector) and to
+// resync it (LinkedOrderBook.reconcile).
+public final class BookSnapshot {
+
+    private final LinkedHashMap<String, OrderInfo> bids = new LinkedHashMap<String, OrderInfo>();
+    private final LinkedHashMap<String, OrderInfo> asks = new LinkedHashMap<String, OrderInfo>();
+
+    private long bidVolume = 0;
+    private long askVolume = 0;
+
+    public BookSnapshot add(final Direction side, final OrderInfo o) {
+	final OrderInfo prev;
+	if(side.equals(Direction.BUY)) {
+	    prev = bids.put(o.getexchangeOrderId(), o);
+	    bidVolume += o.getVolume() - (prev != null ? prev.getVolume() : 0);
+	} else {
+	    prev = asks.put(o.getexchangeOrderId(), o);
+	    askVolume += o.getVolume() - (prev != null ? prev.getVolume() : 0);
+	}
+	return this;
+    }
+
+    public Map<String, OrderInfo> getBids() {
+	return Collections.unmodifiableMap(bids);
+    }
+
+    public Map<String, OrderInfo> getAsks() {
+	return Collections.unmodifiableMap(asks);
+    }
+
+    public long getBidVolume() {
+	return bidVolume;
+    }
+
+    public long getAskVolume() {
+	return askVolume;
+    }
+
+    private static void addSide(final BookSnapshot s, final Direction side, final Orders orders) {
+	for(Limit l = orders.getBest(); l != null; l = l.getRightSibling()) {
+	    for(LimitOrder lo = l.getHead(); lo != null; lo = lo.getRightSibling()) {
+		final OrderInfo o = lo.getOrder();
+		s.add(side, Util.newOrderInfo(o.getexchangeOrderId(), o.getLimitPrice(), o.getVolume(), o.getExchangeTimestamp()));
+	    }
+	}
+    }
+
+    // copy of the resting orders of a book (market orders are in flight and
+    // not part of a snapshot).
+    public static BookSnapshot of(final OrderBook ob) {
+	final BookSnapshot s = new BookSnapshot();
+	addSide(s, Direction.BUY, ob.getBids());
+	addSide(s, Direction.SELL, ob.getAsks());
+	return s;
+    }
+}
@@ -3,6 +3,9 @@ package net.parasec.ob;
 import net.parasec.trading.ticker.core.wire.Direction;
 
 
+// a cancel as an object. the book keeps cancels in a CancelRing (read
+// through its view) and no longer creates these: kept for existing callers.
+@Deprecated
 public final class Cancel {
     private String id;
     private Direction type;
@@ -0,0 +1,147 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+// the last cancels (orders removed from the book without a fill, or the rest
+// after a partial fill), in pre-allocated primitive columns like TradeRing.
+// ids are numeric exchange order ids, -1 if not numeric.
+public final class CancelRing {
+
+    private final int mask;
+    private final boolean[] buy;
+    private final int[] price;
+    private final long[] amount;
+    private final long[] ts;
+    private final long[] id;
+    private long count = 0;
+
+    // capacity is rounded up to a power of 2.
+    public CancelRing(final int capacity) {
+	int c = 1;
+	while(c < capacity)
+	    c <<= 1;
+	mask = c - 1;
+	buy = new boolean[c];
+	price = new int[c];
+	amount = new long[c];
+	ts = new long[c];
+	id = new long[c];
+    }
+
+    // returns the cancel's sequence (count - 1).
+    public long add(final Direction type, final int price, final long amount, final long ts, final long id) {
+	final int i = (int) count & mask;
+	this.buy[i] = type.equals(Direction.BUY);
+	this.price[i] = price;
+	this.amount[i] = amount;
+	this.ts[i] = ts;
+	this.id[i] = id;
+	return count++;
+    }
+
+    public int capacity() {
+	return mask + 1;
+    }
+
+    public int size() {
+	return (int) Math.min(count, mask + 1);
+    }
+
+    public long getCount() {
+	return count;
+    }
+
+    private int slot(final int i) {
+	return (int) (count - 1 - i) & mask;
+    }
+
+    public boolean isBuy(final int i) {
+	return buy[slot(i)];
+    }
+
+    public long getAmount(final int i) {
+	return amount[slot(i)];
+    }
+
+    // as TradeRing.
+    public void writeTo(final DataOutput out) throws IOException {
+	final int n = size();
+	out.writeLong(count);
+	out.writeInt(n);
+	for(int i = n - 1; i >= 0; i--) {
+	    final int s = slot(i);
+	    out.writeBoolean(buy[s]);
+	    out.writeInt(price[s]);
+	    out.writeLong(amount[s]);
+	    out.writeLong(ts[s]);
+	    out.writeLong(id[s]);
+	}
+    }
+
+    public void readFrom(final DataInput in) throws IOException {
+	final long saved = in.readLong();
+	final int n = in.readInt();
+	count = saved - n;
+	for(int i = 0; i < n; i++, count++) {
+	    final int s = (int) count & mask;
+	    buy[s] = in.readBoolean();
+	    price[s] = in.readInt();
+	    amount[s] = in.readLong();
+	    ts[s] = in.readLong();
+	    id[s] = in.readLong();
+	}
+    }
+
+    public View view() {
+	return new View();
+    }
+
+    // valid until capacity more cancels are added.
+    public final class View {
+
+	private int slot;
+	private long seq;
+
+	private View() {}
+
+	// i = 0 is the newest cancel.
+	public View at(final int i) {
+	    slot = slot(i);
+	    seq = count - 1 - i;
+	    return this;
+	}
+
+	public long getSeq() {
+	    return seq;
+	}
+
+	public boolean isBuy() {
+	    return buy[slot];
+	}
+
+	public Direction getType() {
+	    return buy[slot] ? Direction.BUY : Direction.SELL;
+	}
+
+	public int getPrice() {
+	    return price[slot];
+	}
+
+	public long getAmount() {
+	    return amount[slot];
+	}
+
+	public long getTimestamp() {
+	    return ts[slot];
+	}
+
+	public long getId() {
+	    return id[slot];
+	}
+    }
+}
@@ -0,0 +1,144 @@
+package net.parasec.ob;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+// reader for checkpoint stores written by CheckpointWriter: the index is
+// read when opened, a checkpoint only when it is restored. not thread safe.
+public final class CheckpointReader {
+
+    private final RandomAccessFile file;
+    private final FileChannel ch;
+
+    private final long archiveEvents;
+    private final long archiveLength;
+    private final long moExpiry;
+
+    // index.
+    private final int checkpoints;
+    private final long[] offsets;
+    private final long[] events;
+    private final long[] timestamps;
+
+    public CheckpointReader(final File f) throws IOException {
+	file = new RandomAccessFile(f, "r");
+	ch = file.getChannel();
+	try {
+	    final long len = ch.size();
+	    final ByteBuffer header = ByteBuffer.allocate(CheckpointWriter.HEADER_LENGTH);
+	    if(len < CheckpointWriter.HEADER_LENGTH + CheckpointWriter.FOOTER_LENGTH)
+		throw new IOException("not a checkpoint store: " + f);
+	    readFully(header, 0);
+	    if(header.getInt(0) != CheckpointWriter.MAGIC)
+		throw new IOException("not a checkpoint store: " + f);
+	    if(header.getInt(4) != CheckpointWriter.VERSION)
+		throw new IOException("unsupported checkpoint store version " + header.getInt(4) + ": " + f);
+	    archiveEvents = header.getLong(8);
+	    archiveLength = header.getLong(16);
+	    moExpiry = header.getLong(24);
+
+	    final ByteBuffer footer = ByteBuffer.allocate(CheckpointWriter.FOOTER_LENGTH);
+	    readFully(footer, len - CheckpointWriter.FOOTER_LENGTH);
+	    if(footer.getInt(12) != CheckpointWriter.MAGIC)
+		throw new IOException("checkpoint store not closed: " + f);
+	    final long indexOffset = footer.getLong(0);
+	    checkpoints = footer.getInt(8);
+
+	    final ByteBuffer index = ByteBuffer.allocate(checkpoints * 24);
+	    readFully(index, indexOffset);
+	    offsets = new long[checkpoints];
+	    events = new long[checkpoints];
+	    timestamps = new long[checkpoints];
+	    for(int i = 0; i < checkpoints; i++) {
+		offsets[i] = index.getLong();
+		events[i] = index.getLong();
+		timestamps[i] = index.getLong();
+	    }
+	} catch(final IOException e) {
+	    file.close();
+	    throw e;
+	}
+    }
+
+    private void readFully(final ByteBuffer buf, long position) throws IOException {
+	while(buf.hasRemaining()) {
+	    final int n = ch.read(buf, position);
+	    if(n < 0)
+		throw new EOFException();
+	    position += n;
+	}
+	buf.flip();
+    }
+
+    // events in the archive the checkpoints were taken from.
+    public long getArchiveEvents() {
+	return archiveEvents;
+    }
+
+    public long getArchiveLength() {
+	return archiveLength;
+    }
+
+    // market order expiry of the book the checkpoints were taken from (a
+    // book restored from them must have the same).
+    public long getMoExpiry() {
+	return moExpiry;
+    }
+
+    public int getCheckpoints() {
+	return checkpoints;
+    }
+
+    public long getEvent(final int i) {
+	return events[i];
+    }
+
+    public long getTimestamp(final int i) {
+	return timestamps[i];
+    }
+
+    // last of the increasing values <= v, -1 if none.
+    private int floor(final long[] values, final long v) {
+	int lo = 0, hi = checkpoints - 1, found = -1;
+	while(lo <= hi) {
+	    final int mid = (lo + hi) >>> 1;
+	    if(values[mid] <= v) {
+		found = mid;
+		lo = mid + 1;
+	    } else {
+		hi = mid - 1;
+	    }
+	}
+	return found;
+    }
+
+    // the last checkpoint taken after at most n events, -1 if none.
+    public int findEvent(final long n) {
+	return floor(events, n);
+    }
+
+    // the last checkpoint taken with the clock at or before ts, -1 if none.
+    public int findTimestamp(final long ts) {
+	return floor(timestamps, ts);
+    }
+
+    // restore checkpoint i into a new book.
+    public void restore(final int i, final LinkedOrderBook ob) throws IOException {
+	final ByteBuffer length = ByteBuffer.allocate(4);
+	readFully(length, offsets[i]);
+	final ByteBuffer payload = ByteBuffer.allocate(length.getInt(0));
+	readFully(payload, offsets[i] + 4);
+	ob.readCheckpoint(new DataInputStream(new ByteArrayInputStream(payload.array())));
+    }
+
+    public void close() throws IOException {
+	file.close();
+    }
+}
@@ -0,0 +1,111 @@
+package net.parasec.ob;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+
+// store of book checkpoints (LinkedOrderBook.writeCheckpoint) taken while
+// replaying an archive, so the book at any point can be had by restoring
+// the nearest checkpoint and replaying only the events after it (see
+// TimeTravel).
+//
+// file layout (big endian):
+//
+//   header:      int MAGIC, int VERSION, long archive events, long archive
+//                length (bytes), long mo expiry
+//   checkpoints: int length, checkpoint
+//   index:       per checkpoint: long offset, long event, long clock ts
+//   footer:      long index offset, int checkpoints, int MAGIC
+//
+// event is the number of archive events applied before the checkpoint, the
+// clock ts the book's (event) clock at that point. both increase from one
+// checkpoint to the next, so the index can be searched by either.
+public final class CheckpointWriter {
+
+    public final static int MAGIC = 0x4f424331; // "OBC1"
+    public final static int VERSION = 1;
+    public final static int HEADER_LENGTH = 4 + 4 + 8 + 8 + 8;
+    public final static int FOOTER_LENGTH = 8 + 4 + 4;
+
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream buf = new ByteArrayOutputStream(1 << 16);
+    private final DataOutputStream bufOut = new DataOutputStream(buf);
+
+    // index.
+    private long[] offsets = new long[64];
+    private long[] events = new long[64];
+    private long[] timestamps = new long[64];
+    private int checkpoints = 0;
+
+    private long offset = 0;
+
+    public CheckpointWriter(final File file, final long archiveEvents, final long archiveLength,
+			    final long moExpiry) throws IOException {
+	this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
+	out.writeLong(archiveEvents);
+	out.writeLong(archiveLength);
+	out.writeLong(moExpiry);
+	offset = HEADER_LENGTH;
+    }
+
+    public int getCheckpoints() {
+	return checkpoints;
+    }
+
+    // bytes written so far.
+    public long getOffset() {
+	return offset;
+    }
+
+    // checkpoint the book after event archive events.
+    public void write(final LinkedOrderBook ob, final long event, final long ts) throws IOException {
+	if(checkpoints > 0 && (event <= events[checkpoints - 1] || ts < timestamps[checkpoints - 1]))
+	    throw new IllegalArgumentException("checkpoints must be in event order");
+	buf.reset();
+	ob.writeCheckpoint(bufOut);
+	bufOut.flush();
+	if(checkpoints == offsets.length) {
+	    offsets = grow(offsets);
+	    events = grow(events);
+	    timestamps = grow(timestamps);
+	}
+	offsets[checkpoints] = offset;
+	events[checkpoints] = event;
+	timestamps[checkpoints] = ts;
+	checkpoints++;
+	out.writeInt(buf.size());
+	buf.writeTo(out);
+	offset += 4 + buf.size();
+    }
+
+    private static long[] grow(final long[] a) {
+	final long[] b = new long[a.length * 2];
+	System.arraycopy(a, 0, b, 0, a.length);
+	return b;
+    }
+
+    // write the index and footer.
+    public void close() throws IOException {
+	try {
+	    final long indexOffset = offset;
+	    for(int i = 0; i < checkpoints; i++) {
+		out.writeLong(offsets[i]);
+		out.writeLong(events[i]);
+		out.writeLong(timestamps[i]);
+	    }
+	    offset += checkpoints * 24L;
+	    out.writeLong(indexOffset);
+	    out.writeInt(checkpoints);
+	    out.writeInt(MAGIC);
+	    offset += FOOTER_LENGTH;
+	} finally {
+	    out.close();
+	}
+    }
+}
@@ -0,0 +1,12 @@
+package net.parasec.ob;
+
+// time source for order book state (State.ts, trade timestamps).
+public interface Clock {
+
+    // called once per order event with the event's exchange timestamp
+    // (milliseconds), before the event is applied.
+    void advance(long exchangeTs);
+
+    // current time in milliseconds.
+    long currentTimeMillis();
+}
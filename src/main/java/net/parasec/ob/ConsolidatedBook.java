@@ -0,0 +1,256 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+
+
+// price levels of the same pair on several venues merged into one book,
+// kept up to date level by level from each venue's Orders (LevelListener),
+// so the merged book is never rebuilt. each consolidated level holds its
+// total volume and the volume of each venue, for best prices, depth and
+// market impact across venues, and how a sweep would be split between
+// them.
+//
+// levels are kept like Orders: a sparse array indexed by price in cents,
+// linked best first. freed levels are reused. venues are usually updated
+// on their own threads: level changes and queries are synchronized on the
+// book. a venue is seeded with the levels its book already has when added,
+// which should be done on that book's thread (or before it gets events).
+public final class ConsolidatedBook {
+
+    private final String[] names;
+    private final Side bids;
+    private final Side asks;
+    private int venues = 0;
+
+    public ConsolidatedBook(final int maxVenues) {
+	this.names = new String[maxVenues];
+	this.bids = new Side(Direction.BUY);
+	this.asks = new Side(Direction.SELL);
+    }
+
+    // returns the venue's index.
+    public synchronized int addVenue(final String name, final OrderBook ob) {
+	return addVenue(name, ob.getBids(), ob.getAsks());
+    }
+
+    public synchronized int addVenue(final String name, final Orders venueBids, final Orders venueAsks) {
+	if(venues == names.length)
+	    throw new IllegalStateException("max venues (" + names.length + ") reached");
+	final int venue = venues++;
+	names[venue] = name;
+	bids.attach(venue, venueBids);
+	asks.attach(venue, venueAsks);
+	return venue;
+    }
+
+    public synchronized int getVenues() {
+	return venues;
+    }
+
+    public String getVenueName(final int venue) {
+	return names[venue];
+    }
+
+    public Side getBids() {
+	return bids;
+    }
+
+    public Side getAsks() {
+	return asks;
+    }
+
+    // best bid at or above best ask: an arbitrage across venues (or a venue
+    // which is crossed itself).
+    public synchronized boolean isCrossed() {
+	final Level b = bids.best, a = asks.best;
+	return b != null && a != null && b.price >= a.price;
+    }
+
+    private final static class Level {
+	int price;
+	long volume;
+	long[] venue;
+	Level left;
+	Level right;
+    }
+
+    // one side of the consolidated book: bids or asks.
+    public final class Side {
+
+	// search direction for the next better level, as Orders.
+	private final int direction;
+	private final Level[] sparseLevels = new Level[1000000];
+	private Level best = null;
+	private int levels = 0;
+	private Level free = null;
+
+	private Side(final Direction type) {
+	    this.direction = type.equals(Direction.BUY) ? 1 : -1;
+	}
+
+	private void attach(final int venue, final Orders orders) {
+	    for(Limit l = orders.getBest(); l != null; l = l.getRightSibling())
+		change(venue, l.getPrice(), l.getVolume());
+	    orders.addLevelListener(new LevelListener() {
+		    public void onLevelChanged(final int price, final long delta) {
+			synchronized(ConsolidatedBook.this) {
+			    change(venue, price, delta);
+			}
+		    }
+		});
+	}
+
+	private void change(final int venue, final int price, final long delta) {
+	    Level l = sparseLevels[price];
+	    if(l == null) {
+		if(delta == 0)
+		    return;
+		l = createLevel(price);
+	    }
+	    l.volume += delta;
+	    l.venue[venue] += delta;
+	    if(l.volume <= 0)
+		removeLevel(l);
+	}
+
+	private Level newLevel(final int price) {
+	    Level l = free;
+	    if(l != null) {
+		free = l.right;
+		for(int i = 0; i < l.venue.length; i++)
+		    l.venue[i] = 0;
+	    } else {
+		l = new Level();
+		l.venue = new long[names.length];
+	    }
+	    l.price = price;
+	    l.volume = 0;
+	    l.left = null;
+	    l.right = null;
+	    return l;
+	}
+
+	private Level createLevel(final int price) {
+	    final Level p = newLevel(price);
+	    if(best == null) {
+		best = p;
+	    } else if(direction*(price-best.price) > 0) {
+		// better than best.
+		p.right = best;
+		best.left = p;
+		best = p;
+	    } else {
+		// behind the next better level.
+		Level left = null;
+		for(int i = price + direction; left == null; i += direction)
+		    left = sparseLevels[i];
+		p.left = left;
+		p.right = left.right;
+		if(left.right != null)
+		    left.right.left = p;
+		left.right = p;
+	    }
+	    sparseLevels[price] = p;
+	    levels++;
+	    return p;
+	}
+
+	private void removeLevel(final Level l) {
+	    if(l.left != null)
+		l.left.right = l.right;
+	    if(l.right != null)
+		l.right.left = l.left;
+	    if(l == best)
+		best = l.right;
+	    sparseLevels[l.price] = null;
+	    levels--;
+	    l.left = null;
+	    l.right = free;
+	    free = l;
+	}
+
+	// best price (cents), 0 if the side is empty.
+	public int getBest() {
+	    synchronized(ConsolidatedBook.this) {
+		return best != null ? best.price : 0;
+	    }
+	}
+
+	public long getBestVolume() {
+	    synchronized(ConsolidatedBook.this) {
+		return best != null ? best.volume : 0;
+	    }
+	}
+
+	public int getLevelCount() {
+	    synchronized(ConsolidatedBook.this) {
+		return levels;
+	    }
+	}
+
+	// volume at a price, over all venues.
+	public long getVolume(final int price) {
+	    synchronized(ConsolidatedBook.this) {
+		final Level l = sparseLevels[price];
+		return l != null ? l.volume : 0;
+	    }
+	}
+
+	public long getVolume(final int price, final int venue) {
+	    synchronized(ConsolidatedBook.this) {
+		final Level l = sparseLevels[price];
+		return l != null ? l.venue[venue] : 0;
+	    }
+	}
+
+	// the top depth levels, best first: price and volume, and if
+	// venueVolume is not null the volume of each venue at level i in
+	// venueVolume[i*maxVenues + venue]. returns the number of levels
+	// filled.
+	public int getLevels(final int depth, final int[] price, final long[] volume, final long[] venueVolume) {
+	    synchronized(ConsolidatedBook.this) {
+		int n = 0;
+		for(Level l = best; l != null && n < depth; l = l.right, n++) {
+		    price[n] = l.price;
+		    volume[n] = l.volume;
+		    if(venueVolume != null)
+			System.arraycopy(l.venue, 0, venueVolume, n * names.length, names.length);
+		}
+		return n;
+	    }
+	}
+
+	// worst price reached taking volume from this side across all
+	// venues (as Orders.getMarketImpact), 0 if the side is empty.
+	public int getMarketImpact(final long volume) {
+	    return getMarketImpact(volume, null);
+	}
+
+	// as above, also adding what the sweep takes from each venue to
+	// venueFill (by venue index).
+	public int getMarketImpact(final long volume, final long[] venueFill) {
+	    synchronized(ConsolidatedBook.this) {
+		int impact = 0;
+		long remaining = volume;
+		for(Level l = best; l != null; l = l.right) {
+		    impact = l.price;
+		    if(venueFill != null) {
+			// within a level, venues are taken in index order.
+			for(int v = 0; v < venues && remaining > 0; v++) {
+			    final long take = Math.min(remaining, l.venue[v]);
+			    if(take > 0) {
+				venueFill[v] += take;
+				remaining -= take;
+			    }
+			}
+		    } else {
+			remaining -= l.volume;
+		    }
+		    if(remaining <= 0)
+			break;
+		}
+		return impact;
+	    }
+	}
+    }
+}
@@ -0,0 +1,97 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+import net.parasec.trading.ticker.core.wire.OrderInfo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+// binary depth feed protocol (DepthFeedServer, DepthFeedClient).
+//
+// a client connects over tcp and sends one request byte: SUBSCRIBE for a
+// snapshot followed by the live stream, or SNAPSHOT_ONLY (the stream is
+// then taken from udp multicast). all messages start with a type byte and
+// a sequence number (big endian):
+//
+//   SNAPSHOT_BEGIN  seq, int length       book as of seq follows: length bytes
+//                                         of LinkedOrderBook.writeCheckpoint
+//   SNAPSHOT_END    seq
+//   ADD/MOD/DEL     seq, order            raw order event, seq increments by 1
+//
+// where order is: byte side (BID/ASK), utf id, int price (cents), long
+// volume (satoshi), long exchange timestamp (ms). the snapshot is the
+// engine state rather than a list of orders: outstanding market orders,
+// replayed as adds, would cross the book again. the stream after a
+// snapshot starts at seq + 1. over udp each datagram holds one message.
+public final class DepthFeed {
+
+    // requests.
+    public final static byte SUBSCRIBE = 0;
+    public final static byte SNAPSHOT_ONLY = 1;
+
+    // message types.
+    public final static byte SNAPSHOT_BEGIN = 1;
+    public final static byte SNAPSHOT_END = 3;
+    public final static byte ADD = 4;
+    public final static byte MOD = 5;
+    public final static byte DEL = 6;
+
+    public final static byte BID = 0;
+    public final static byte ASK = 1;
+
+    // a decoded message.
+    public final static class Message {
+	public byte type;
+	public long seq;
+	public int length;
+	public Direction side;
+	public String id;
+	public int price;
+	public long volume;
+	public long ts;
+
+	public OrderInfo toOrderInfo() {
+	    return Util.newOrderInfo(id, price, volume, ts);
+	}
+    }
+
+    public static void writeHeader(final DataOutput out, final byte type, final long seq) throws IOException {
+	out.writeByte(type);
+	out.writeLong(seq);
+    }
+
+    public static void writeOrder(final DataOutput out, final byte type, final long seq,
+				  final Direction side, final OrderInfo o) throws IOException {
+	writeHeader(out, type, seq);
+	out.writeByte(side.equals(Direction.BUY) ? BID : ASK);
+	out.writeUTF(o.getexchangeOrderId());
+	out.writeInt(o.getLimitPrice());
+	out.writeLong(o.getVolume());
+	out.writeLong(o.getExchangeTimestamp());
+    }
+
+    public static void read(final DataInput in, final Message m) throws IOException {
+	m.type = in.readByte();
+	m.seq = in.readLong();
+	switch(m.type) {
+	case SNAPSHOT_BEGIN:
+	    m.length = in.readInt();
+	    break;
+	case SNAPSHOT_END:
+	    break;
+	case ADD:
+	case MOD:
+	case DEL:
+	    m.side = in.readByte() == BID ? Direction.BUY : Direction.SELL;
+	    m.id = in.readUTF();
+	    m.price = in.readInt();
+	    m.volume = in.readLong();
+	    m.ts = in.readLong();
+	    break;
+	default:
+	    throw new IOException("unknown message type " + m.type);
+	}
+    }
+}
@@ -0,0 +1,172 @@
+package net.parasec.ob;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.Socket;
+
+
+// rebuilds an order book from a DepthFeedServer: restores the snapshot (a
+// checkpoint, so the same market order expiry as the server's) into a new
+// book, then applies the sequenced stream, from tcp or, if a multicast
+// group is given, from udp. a sequence gap (or lost connection) starts over
+// with a fresh snapshot. evt is called after the snapshot is loaded and
+// after every event, on the client's thread.
+public final class DepthFeedClient implements Runnable {
+
+    private final String host;
+    private final int port;
+    private final InetSocketAddress udpGroup;
+    private final OrderBookStream.Evt evt;
+
+    private volatile LinkedOrderBook ob = null;
+    private volatile boolean running = true;
+    private volatile long seq = 0;
+    private volatile long gaps = 0;
+
+    private final DepthFeed.Message m = new DepthFeed.Message();
+
+    // udpGroup may be null (stream over tcp).
+    public DepthFeedClient(final String host, final int port, final InetSocketAddress udpGroup,
+			   final OrderBookStream.Evt evt) {
+	this.host = host;
+	this.port = port;
+	this.udpGroup = udpGroup;
+	this.evt = evt;
+    }
+
+    public OrderBook getOrderBook() {
+	return ob;
+    }
+
+    public long getSequence() {
+	return seq;
+    }
+
+    // number of times the book was rebuilt after a gap or disconnect.
+    public long getGaps() {
+	return gaps;
+    }
+
+    public void halt() {
+	running = false;
+    }
+
+    public void run() {
+	while(running) {
+	    try {
+		session();
+	    } catch(final IOException e) {
+		if(!running)
+		    break;
+		System.err.println("depth feed client: " + e + ", resubscribing");
+		gaps++;
+		try {
+		    Thread.sleep(1000);
+		} catch(final InterruptedException ie) {
+		    break;
+		}
+	    }
+	}
+    }
+
+    private void apply(final DepthFeed.Message m) {
+	switch(m.type) {
+	case DepthFeed.ADD:
+	    ob.addOrder(m.side, m.toOrderInfo());
+	    break;
+	case DepthFeed.MOD:
+	    ob.modOrder(m.side, m.toOrderInfo());
+	    break;
+	default:
+	    ob.delOrder(m.side, m.toOrderInfo());
+	    break;
+	}
+	seq = m.seq;
+	evt.onUpdate(ob);
+    }
+
+    private void readSnapshot(final DataInputStream in) throws IOException {
+	DepthFeed.read(in, m);
+	if(m.type != DepthFeed.SNAPSHOT_BEGIN)
+	    throw new IOException("expected snapshot, got type " + m.type);
+	final byte[] checkpoint = new byte[m.length];
+	in.readFully(checkpoint);
+	final LinkedOrderBook book = new LinkedOrderBook(new EventClock());
+	final ByteArrayInputStream bis = new ByteArrayInputStream(checkpoint);
+	book.readCheckpoint(new DataInputStream(bis));
+	if(bis.available() != 0)
+	    throw new IOException("snapshot has " + bis.available() + " trailing bytes");
+	DepthFeed.read(in, m);
+	if(m.type != DepthFeed.SNAPSHOT_END)
+	    throw new IOException("expected snapshot end, got type " + m.type);
+	seq = m.seq;
+	ob = book;
+	evt.onUpdate(ob);
+    }
+
+    private void session() throws IOException {
+	MulticastSocket udp = null;
+	final Socket socket = new Socket(host, port);
+	try {
+	    if(udpGroup != null) {
+		// join before the snapshot, so the stream from the snapshot on
+		// is buffered by the socket.
+		udp = new MulticastSocket(udpGroup.getPort());
+		udp.setReceiveBufferSize(1 << 22);
+		udp.joinGroup(udpGroup.getAddress());
+	    }
+	    socket.setTcpNoDelay(true);
+	    socket.getOutputStream().write(udp != null ? DepthFeed.SNAPSHOT_ONLY : DepthFeed.SUBSCRIBE);
+	    socket.getOutputStream().flush();
+	    final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+	    readSnapshot(in);
+
+	    if(udp == null) {
+		while(running) {
+		    DepthFeed.read(in, m);
+		    if(m.seq != seq + 1)
+			throw new IOException("sequence gap: expected " + (seq + 1) + " got " + m.seq);
+		    apply(m);
+		}
+		return;
+	    }
+
+	    socket.close();
+	    final byte[] b = new byte[64 * 1024];
+	    final DatagramPacket p = new DatagramPacket(b, b.length);
+	    while(running) {
+		p.setLength(b.length);
+		udp.receive(p);
+		DepthFeed.read(new DataInputStream(new ByteArrayInputStream(b, 0, p.getLength())), m);
+		if(m.seq <= seq)
+		    continue; // already in the snapshot.
+		if(m.seq != seq + 1)
+		    throw new IOException("udp sequence gap: expected " + (seq + 1) + " got " + m.seq);
+		apply(m);
+	    }
+	} finally {
+	    socket.close();
+	    if(udp != null)
+		udp.close();
+	}
+    }
+
+    // show the rebuilt book (BookRenderer, -Dob.render.fps=<n>).
+    public static void main(final String[] args) throws Exception {
+	if(args.length < 2) {
+	    System.err.println("usage: DepthFeedClient <host> <port> [<udp group:port>]");
+	    System.exit(2);
+	}
+	InetSocketAddress group = null;
+	if(args.length > 2) {
+	    final String[] hp = args[2].split(":");
+	    group = new InetSocketAddress(hp[0], Integer.parseInt(hp[1]));
+	}
+	new DepthFeedClient(args[0], Integer.parseInt(args[1]), group, new BookRenderer(System.out)).run();
+    }
+}
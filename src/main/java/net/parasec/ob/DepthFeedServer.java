@@ -0,0 +1,405 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.bitstamp.BitstampTicker;
+import net.parasec.trading.ticker.core.dispatch.EventListener;
+import net.parasec.trading.ticker.core.dispatch.EventQueue;
+import net.parasec.trading.ticker.core.wire.Direction;
+import net.parasec.trading.ticker.core.wire.OrderEvent;
+import net.parasec.trading.ticker.core.wire.OrderInfo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+// builds the order book once and serves it to other processes (see
+// DepthFeed for the protocol): a snapshot on subscribe, then every order
+// event with a sequence number, over tcp and optionally udp multicast on
+// loopback.
+//
+// events are applied to the book and encoded under the server lock, so a
+// snapshot is always consistent with the sequence it is sent at. every tcp
+// client has a bounded queue and its own thread, which reads the request
+// (within REQUEST_TIMEOUT) and writes: a client which falls too far behind
+// is disconnected rather than slowing the book down.
+public final class DepthFeedServer implements EventListener<OrderEvent> {
+
+    private final static int CLIENT_QUEUE = 1 << 16;
+    // ms to wait for a new connection's request byte.
+    private final static int REQUEST_TIMEOUT = 10000;
+
+    private final LinkedOrderBook ob;
+    private final ServerSocket server;
+    private final MulticastSocket udp;
+    private final InetSocketAddress udpGroup;
+
+    private final CopyOnWriteArrayList<Client> clients = new CopyOnWriteArrayList<Client>();
+
+    // sequence of the last event applied.
+    private long seq = 0;
+    private final ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(buf);
+
+    private final class Client implements Runnable {
+
+	private final Socket socket;
+	private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(CLIENT_QUEUE);
+	// close after the queue is drained (snapshot only).
+	private volatile boolean last = false;
+	private volatile boolean closed = false;
+
+	private Client(final Socket socket) {
+	    this.socket = socket;
+	}
+
+	private void send(final byte[] msg) {
+	    if(!queue.offer(msg)) {
+		System.err.println("depth feed: client " + socket.getRemoteSocketAddress() + " too slow, disconnecting");
+		close();
+	    }
+	}
+
+	private void close() {
+	    closed = true;
+	    clients.remove(this);
+	    try {
+		socket.close();
+	    } catch(final IOException e) {
+	    }
+	}
+
+	public void run() {
+	    try {
+		final int request = socket.getInputStream().read();
+		if(request < 0)
+		    return;
+		synchronized(DepthFeedServer.this) {
+		    send(snapshot());
+		    if(request == DepthFeed.SUBSCRIBE)
+			clients.add(this);
+		    else
+			last = true;
+		}
+		final OutputStream os = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+		while(!closed) {
+		    byte[] msg = queue.poll();
+		    if(msg == null) {
+			os.flush();
+			if(last)
+			    break;
+			msg = queue.take();
+		    }
+		    os.write(msg);
+		}
+		os.flush();
+	    } catch(final Exception e) {
+		if(!closed)
+		    System.err.println("depth feed: client " + socket.getRemoteSocketAddress() + ": " + e);
+	    } finally {
+		close();
+	    }
+	}
+    }
+
+    // udpGroup may be null (tcp only).
+    public DepthFeedServer(final LinkedOrderBook ob, final int port, final InetSocketAddress udpGroup) throws IOException {
+	this.ob = ob;
+	this.server = new ServerSocket(port, 50, InetAddress.getByName(null));
+	this.udpGroup = udpGroup;
+	if(udpGroup != null) {
+	    udp = new MulticastSocket();
+	    // stay on this host.
+	    udp.setTimeToLive(0);
+	    udp.setLoopbackMode(false);
+	} else {
+	    udp = null;
+	}
+    }
+
+    public OrderBook getOrderBook() {
+	return ob;
+    }
+
+    public synchronized long getSequence() {
+	return seq;
+    }
+
+    public int getClients() {
+	return clients.size();
+    }
+
+    public int getPort() {
+	return server.getLocalPort();
+    }
+
+    // accept subscriptions on a background thread.
+    public void start() {
+	final Thread t = new Thread(new Runnable() {
+		public void run() {
+		    while(!server.isClosed()) {
+			try {
+			    subscribe(server.accept());
+			} catch(final IOException e) {
+			    if(!server.isClosed())
+				System.err.println("depth feed: accept: " + e);
+			}
+		    }
+		}
+	    }, "depth-feed-accept");
+	t.setDaemon(true);
+	t.start();
+    }
+
+    public void close() throws IOException {
+	server.close();
+	for(final Client c : clients)
+	    c.close();
+	if(udp != null)
+	    udp.close();
+    }
+
+    private void subscribe(final Socket socket) throws IOException {
+	socket.setTcpNoDelay(true);
+	socket.setSoTimeout(REQUEST_TIMEOUT);
+	final Client c = new Client(socket);
+	final Thread t = new Thread(c, "depth-feed-" + socket.getRemoteSocketAddress());
+	t.setDaemon(true);
+	t.start();
+    }
+
+    // the book at the current sequence. caller holds the lock.
+    private byte[] snapshot() throws IOException {
+	final ByteArrayOutputStream checkpoint = new ByteArrayOutputStream(1 << 16);
+	final DataOutputStream cos = new DataOutputStream(checkpoint);
+	ob.writeCheckpoint(cos);
+	cos.flush();
+	final ByteArrayOutputStream bos = new ByteArrayOutputStream(checkpoint.size() + 32);
+	final DataOutputStream dos = new DataOutputStream(bos);
+	DepthFeed.writeHeader(dos, DepthFeed.SNAPSHOT_BEGIN, seq);
+	dos.writeInt(checkpoint.size());
+	checkpoint.writeTo(dos);
+	DepthFeed.writeHeader(dos, DepthFeed.SNAPSHOT_END, seq);
+	dos.flush();
+	return bos.toByteArray();
+    }
+
+    // apply an event to the book and publish it. type is DepthFeed.ADD/MOD/DEL.
+    public synchronized void apply(final byte type, final Direction side, final OrderInfo o) {
+	// encode first: the book may keep (and later modify) the order info.
+	buf.reset();
+	try {
+	    DepthFeed.writeOrder(out, type, seq + 1, side, o);
+	} catch(final IOException e) {
+	    throw new IllegalStateException(e);
+	}
+	switch(type) {
+	case DepthFeed.ADD:
+	    ob.addOrder(side, o);
+	    break;
+	case DepthFeed.MOD:
+	    ob.modOrder(side, o);
+	    break;
+	default:
+	    ob.delOrder(side, o);
+	    break;
+	}
+	seq++;
+
+	final byte[] msg = buf.toByteArray();
+	for(final Client c : clients)
+	    c.send(msg);
+	if(udp != null) {
+	    try {
+		udp.send(new DatagramPacket(msg, msg.length, udpGroup));
+	    } catch(final IOException e) {
+		System.err.println("depth feed: udp: " + e);
+	    }
+	}
+    }
+
+    public void onEvent(final OrderEvent oe) {
+	switch(oe.getState()) {
+	case CREATED:
+	    apply(DepthFeed.ADD, oe.getDirection(), oe.getOrderInfo());
+	    break;
+	case UPDATED:
+	    apply(DepthFeed.MOD, oe.getDirection(), oe.getOrderInfo());
+	    break;
+	case DELETED:
+	    apply(DepthFeed.DEL, oe.getDirection(), oe.getOrderInfo());
+	    break;
+	}
+    }
+
+    private static void usage() {
+	System.err.println("usage: DepthFeedServer <port> [-udp <group:port>] [-replay <orders archive> <delay ms> [-check <seq,...>]]");
+	System.exit(2);
+    }
+
+    private static String side(final String name, final Orders a, final Orders b) {
+	Limit la = a.getBest(), lb = b.getBest();
+	for(int level = 0; la != null || lb != null; level++, la = la.getRightSibling(), lb = lb.getRightSibling()) {
+	    if(la == null || lb == null)
+		return name + " level " + level + ": " + la + " != " + lb;
+	    if(la.getPrice() != lb.getPrice() || la.getVolume() != lb.getVolume() || la.getOrders() != lb.getOrders())
+		return name + " level " + level + ": " + la.getPrice() + " " + la.getVolume() + " " + la.getOrders()
+		    + " != " + lb.getPrice() + " " + lb.getVolume() + " " + lb.getOrders();
+	    LimitOrder oa = la.getHead(), ob = lb.getHead();
+	    for(; oa != null && ob != null; oa = oa.getRightSibling(), ob = ob.getRightSibling()) {
+		if(!oa.getOrder().getexchangeOrderId().equals(ob.getOrder().getexchangeOrderId())
+		   || oa.getOrder().getVolume() != ob.getOrder().getVolume())
+		    return name + " queue at " + la.getPrice() + ": " + oa.getOrder().getexchangeOrderId() + " != "
+			+ ob.getOrder().getexchangeOrderId();
+	    }
+	}
+	return null;
+    }
+
+    private static String marketOrders(final String name, final Collection<MarketOrder> a, final Collection<MarketOrder> b) {
+	if(a.size() != b.size())
+	    return name + ": " + a.size() + " != " + b.size();
+	final Iterator<MarketOrder> ib = b.iterator();
+	for(final MarketOrder ma : a) {
+	    final MarketOrder mb = ib.next();
+	    if(!ma.getOrder().getexchangeOrderId().equals(mb.getOrder().getexchangeOrderId())
+	       || ma.getOrder().getVolume() != mb.getOrder().getVolume() || ma.getSlot() != mb.getSlot())
+		return name + ": " + ma.getOrder().getexchangeOrderId() + " != " + mb.getOrder().getexchangeOrderId();
+	}
+	return null;
+    }
+
+    // first difference between the server's book and a client's, or null.
+    private static String compare(final LinkedOrderBook a, final LinkedOrderBook b) {
+	String diff = side("bids", a.getBids(), b.getBids());
+	if(diff == null)
+	    diff = side("asks", a.getAsks(), b.getAsks());
+	if(diff == null)
+	    diff = marketOrders("buy market orders", a.getBuyMarketOrders(), b.getBuyMarketOrders());
+	if(diff == null)
+	    diff = marketOrders("sell market orders", a.getSellMarketOrders(), b.getSellMarketOrders());
+	if(diff == null) {
+	    final String sa = a.getState().toCsv().toString(), sb = b.getState().toCsv().toString();
+	    if(!sa.equals(sb))
+		diff = "state:\n" + sa + "\n" + sb;
+	}
+	return diff;
+    }
+
+    // -check: clients subscribed at the given sequences must end up with
+    // the server's book.
+    private static boolean check(final DepthFeedServer server, final List<DepthFeedClient> clients,
+				 final List<Long> joins) throws InterruptedException {
+	boolean ok = true;
+	for(int i = 0; i < clients.size(); i++) {
+	    final DepthFeedClient c = clients.get(i);
+	    final long deadline = System.currentTimeMillis() + 60000;
+	    while(c.getSequence() != server.getSequence() && System.currentTimeMillis() < deadline)
+		Thread.sleep(10);
+	    c.halt();
+	    final String diff;
+	    synchronized(server) {
+		if(c.getSequence() != server.getSequence())
+		    diff = "at seq " + c.getSequence() + ", server at " + server.getSequence();
+		else if(c.getGaps() != 0)
+		    diff = c.getGaps() + " resubscriptions";
+		else
+		    diff = compare(server.ob, (LinkedOrderBook) c.getOrderBook());
+	    }
+	    System.err.println("depth feed: client joined at seq " + joins.get(i) + ": " + (diff == null ? "same book" : diff));
+	    ok &= diff == null;
+	}
+	return ok;
+    }
+
+    // serve the live bitstamp book, or (for testing) a replayed archive.
+    public static void main(final String[] args) throws Exception {
+	if(args.length < 1)
+	    usage();
+	final int port = Integer.parseInt(args[0]);
+	InetSocketAddress group = null;
+	File replay = null;
+	long delay = 0;
+	final List<Long> joins = new ArrayList<Long>();
+	for(int i = 1; i < args.length; i++) {
+	    if(args[i].equals("-udp") && i + 1 < args.length) {
+		final String[] hp = args[++i].split(":");
+		group = new InetSocketAddress(InetAddress.getByName(hp[0]), Integer.parseInt(hp[1]));
+	    } else if(args[i].equals("-replay") && i + 2 < args.length) {
+		replay = new File(args[++i]);
+		delay = Long.parseLong(args[++i]);
+	    } else if(args[i].equals("-check") && i + 1 < args.length) {
+		for(final String seq : args[++i].split(","))
+		    joins.add(Long.parseLong(seq));
+	    } else {
+		usage();
+	    }
+	}
+
+	if(replay == null && !joins.isEmpty())
+	    usage();
+	if(replay == null) {
+	    final DepthFeedServer server = new DepthFeedServer(new LinkedOrderBook(), port, group);
+	    server.start();
+	    new BitstampTicker().watchOrders(new EventQueue(server));
+	    return;
+	}
+
+	final DepthFeedServer server = new DepthFeedServer(new LinkedOrderBook(new EventClock()), port, group);
+	server.start();
+	final List<DepthFeedClient> checked = new ArrayList<DepthFeedClient>();
+	final ArchiveReader reader = new ArchiveReader(replay);
+	try {
+	    while(reader.next()) {
+		if(checked.size() < joins.size() && server.getSequence() == joins.get(checked.size())) {
+		    final DepthFeedClient c = new DepthFeedClient("localhost", server.getPort(), null, new OrderBookStream.Evt() {
+			    public void onUpdate(final OrderBook ob) {
+			    }
+			});
+		    final Thread t = new Thread(c, "depth-feed-check-" + server.getSequence());
+		    t.setDaemon(true);
+		    t.start();
+		    checked.add(c);
+		}
+		final Direction side = reader.getOrderType() == OrderLogDecoder.BUY ? Direction.BUY : Direction.SELL;
+		final OrderInfo o = Util.newOrderInfo(Long.toString(reader.getId()), (int) reader.getPrice(),
+						      reader.getAmount(), reader.getTimestamp());
+		final int action = reader.getAction();
+		server.apply(action == OrderLogDecoder.CREATED ? DepthFeed.ADD
+			     : action == OrderLogDecoder.CHANGED ? DepthFeed.MOD : DepthFeed.DEL, side, o);
+		if(delay > 0)
+		    Thread.sleep(delay);
+		// don't let a checked client fall a queue behind.
+		for(final DepthFeedClient c : checked) {
+		    while(server.getSequence() - c.getSequence() > CLIENT_QUEUE / 2)
+			Thread.sleep(1);
+		}
+	    }
+	} finally {
+	    reader.close();
+	}
+	System.err.println("depth feed: replay done at seq " + server.getSequence());
+	if(!joins.isEmpty()) {
+	    final boolean ok = check(server, checked, joins);
+	    server.close();
+	    System.exit(ok ? 0 : 1);
+	}
+	// keep serving the final book.
+	Thread.sleep(Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,61 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+
+
+// (bid volume - ask volume) / (bid volume + ask volume) over the levels
+// within distance (cents) of the best bid and ask, in [-1, 1]. the side
+// sums are adjusted by level deltas inside the window and re-summed only
+// when the best bid/ask moves.
+public final class DepthImbalance extends AbstractIndicator {
+
+    private final int distance;
+
+    private long bidVolume = 0;
+    private long askVolume = 0;
+
+    public DepthImbalance(final int distance) {
+	super("depth_imbalance_" + distance, BEST_CHANGE | LEVEL_DELTA, distance);
+	this.distance = distance;
+    }
+
+    private long sum(final Limit best, final boolean bids) {
+	long volume = 0;
+	if(best == null)
+	    return 0;
+	final int limit = bids ? best.getPrice() - distance : best.getPrice() + distance;
+	for(Limit l = best; l != null; l = l.getRightSibling()) {
+	    if(bids ? l.getPrice() < limit : l.getPrice() > limit)
+		break;
+	    volume += l.getVolume();
+	}
+	return volume;
+    }
+
+    public void onBestChange(final OrderBook ob, final Direction side) {
+	if(side.equals(Direction.BUY))
+	    bidVolume = sum(ob.getBids().getBest(), true);
+	else
+	    askVolume = sum(ob.getAsks().getBest(), false);
+    }
+
+    public void onLevelDelta(final OrderBook ob, final Direction side, final int price, final long delta) {
+	if(side.equals(Direction.BUY))
+	    bidVolume += delta;
+	else
+	    askVolume += delta;
+    }
+
+    public long getBidVolume() {
+	return bidVolume;
+    }
+
+    public long getAskVolume() {
+	return askVolume;
+    }
+
+    public double getValue() {
+	final long volume = bidVolume + askVolume;
+	return volume > 0 ? (double) (bidVolume - askVolume) / volume : 0;
+    }
+}
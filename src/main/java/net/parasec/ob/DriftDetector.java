@@ -0,0 +1,156 @@
+package net.parasec.ob;
+
+
+// watches a book for signs that the feed has dropped events and the book
+// has drifted from the exchange's, rather than waiting for stale market
+// orders to be purged:
+//
+// - crossed: best bid >= best ask for longer than crossedMillis. crossing
+//   orders are held as market orders, so a crossed book means a missed fill
+//   or cancel.
+// - unconfirmed: more than maxStaleMos market orders in a window were
+//   never filled or cancelled (purged as stale).
+// - orphans: more than maxOrphans resting orders in a window were swept as
+//   orphans (traded through, but never removed by the feed).
+// - diverged: check() against a snapshot finds the resting order count or
+//   volume of a side off by more than maxDivergence (relative).
+//
+// on drift the listener is called (on the book thread), typically to fetch
+// a snapshot and LinkedOrderBook.reconcile the book, and the heuristics
+// start over. times are book time (State.ts).
+public final class DriftDetector implements OrderBookStream.Evt {
+
+    public interface Listener {
+	void onDrift(OrderBook ob, String reason);
+    }
+
+    private final Listener listener;
+
+    private long crossedMillis = 5000;
+    private long window = 60000;
+    private long maxStaleMos = 20;
+    private long maxOrphans = 50;
+    private double maxDivergence = 0.02;
+
+    private long crossedSince = -1;
+    private long windowStart = -1;
+    private long staleMosAtStart = 0;
+    private long orphansAtStart = 0;
+
+    private long drifts = 0;
+    private String lastReason = null;
+
+    public DriftDetector(final Listener listener) {
+	this.listener = listener;
+    }
+
+    public DriftDetector setCrossedMillis(final long crossedMillis) {
+	this.crossedMillis = crossedMillis;
+	return this;
+    }
+
+    public DriftDetector setWindow(final long window) {
+	this.window = window;
+	return this;
+    }
+
+    public DriftDetector setMaxStaleMos(final long maxStaleMos) {
+	this.maxStaleMos = maxStaleMos;
+	return this;
+    }
+
+    public DriftDetector setMaxOrphans(final long maxOrphans) {
+	this.maxOrphans = maxOrphans;
+	return this;
+    }
+
+    public DriftDetector setMaxDivergence(final double maxDivergence) {
+	this.maxDivergence = maxDivergence;
+	return this;
+    }
+
+    public long getDrifts() {
+	return drifts;
+    }
+
+    public String getLastReason() {
+	return lastReason;
+    }
+
+    private void reset(final OrderBook ob) {
+	crossedSince = -1;
+	windowStart = ob.getState().ts;
+	staleMosAtStart = ob.getMetrics().getStaleMoPurges();
+	orphansAtStart = ob.getMetrics().getOrphanedOrders();
+    }
+
+    private void drift(final OrderBook ob, final String reason) {
+	drifts++;
+	lastReason = reason;
+	listener.onDrift(ob, reason);
+	reset(ob);
+    }
+
+    public void onUpdate(final OrderBook ob) {
+	final State s = ob.getState();
+	final long now = s.ts;
+	if(windowStart < 0 || now - windowStart >= window)
+	    reset(ob);
+
+	if(s.bestBid != null && s.bestAsk != null && s.bestBid.getPrice() >= s.bestAsk.getPrice()) {
+	    if(crossedSince < 0) {
+		crossedSince = now;
+	    } else if(now - crossedSince >= crossedMillis) {
+		drift(ob, "crossed for " + (now - crossedSince) + " ms at " + Util.asUSD(s.bestBid.getPrice())
+		      + "/" + Util.asUSD(s.bestAsk.getPrice()));
+		return;
+	    }
+	} else {
+	    crossedSince = -1;
+	}
+
+	final BookMetrics m = ob.getMetrics();
+	final long staleMos = m.getStaleMoPurges() - staleMosAtStart;
+	if(staleMos > maxStaleMos) {
+	    drift(ob, staleMos + " market orders never confirmed");
+	    return;
+	}
+	final long orphans = m.getOrphanedOrders() - orphansAtStart;
+	if(orphans > maxOrphans)
+	    drift(ob, orphans + " orphaned orders swept");
+    }
+
+    private static boolean diverged(final long live, final long snapshot, final double max) {
+	return Math.abs(live - snapshot) > max * Math.max(snapshot, 1);
+    }
+
+    private static long volume(final Orders orders) {
+	long volume = 0;
+	for(Limit l = orders.getBest(); l != null; l = l.getRightSibling())
+	    volume += l.getVolume();
+	return volume;
+    }
+
+    // compare the book's resting orders (counts and volume per side) with a
+    // snapshot of the exchange's book taken at the current point of the
+    // stream. true (and the listener called) if they diverge.
+    public boolean check(final OrderBook ob, final BookSnapshot snapshot) {
+	final int bids = ob.getBids().getOrders();
+	final int asks = ob.getAsks().getOrders();
+	final long bidVolume = volume(ob.getBids());
+	final long askVolume = volume(ob.getAsks());
+	final String reason;
+	if(diverged(bids, snapshot.getBids().size(), maxDivergence))
+	    reason = "bids " + bids + " vs " + snapshot.getBids().size() + " in snapshot";
+	else if(diverged(asks, snapshot.getAsks().size(), maxDivergence))
+	    reason = "asks " + asks + " vs " + snapshot.getAsks().size() + " in snapshot";
+	else if(diverged(bidVolume, snapshot.getBidVolume(), maxDivergence))
+	    reason = "bid volume " + Util.asBTC(bidVolume) + " vs " + Util.asBTC(snapshot.getBidVolume()) + " in snapshot";
+	else if(diverged(askVolume, snapshot.getAskVolume(), maxDivergence))
+	    reason = "ask volume " + Util.asBTC(askVolume) + " vs " + Util.asBTC(snapshot.getAskVolume()) + " in snapshot";
+	else
+	    return false;
+	drift(ob, reason);
+	return true;
+    }
+}
@@ -0,0 +1,19 @@
+package net.parasec.ob;
+
+// replay mode: time is driven by exchange timestamps, so replaying the
+// same events always produces the same output. time never goes backwards
+// (events can arrive out of order): it is the latest exchange timestamp
+// seen so far.
+public final class EventClock implements Clock {
+
+    private long now = 0;
+
+    public void advance(final long exchangeTs) {
+	if(exchangeTs > now)
+	    now = exchangeTs;
+    }
+
+    public long currentTimeMillis() {
+	return now;
+    }
+}
@@ -0,0 +1,126 @@
+package net.parasec.ob;
+
+// hashed timer wheel for market order expiry, keyed by exchange timestamp.
+//
+// a market order expires once an event arrives with an exchange timestamp
+// more than horizon ms after the market order's own timestamp. each slot
+// holds the orders whose deadline falls in one tick; orders are linked
+// into their slot (intrusive, see MarketOrder), so schedule and remove are
+// O(1) and expire() only visits the slots that have elapsed since the
+// previous call (plus the current one), i.e. O(expired) per event rather
+// than a scan over every active market order.
+public final class ExpiryWheel {
+
+    public interface Expired {
+	void onExpired(MarketOrder mo);
+    }
+
+    private final static int SLOTS = 128; // power of 2.
+    private final static long TICK = 1000; // ms.
+
+    private final MarketOrder[] slots = new MarketOrder[SLOTS];
+    private final long horizon;
+    private final Expired expired;
+
+    // tick processed by the last call to expire().
+    private long currentTick = Long.MIN_VALUE;
+    private int size = 0;
+
+    public ExpiryWheel(final long horizon, final Expired expired) {
+	this.horizon = horizon;
+	this.expired = expired;
+    }
+
+    public long getHorizon() {
+	return horizon;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public void schedule(final MarketOrder mo) {
+	final long deadline = mo.getOrder().getExchangeTimestamp() + horizon;
+	long tick = deadline / TICK;
+	if(tick < currentTick) {
+	    // deadline already passed (old event): check on next expire.
+	    tick = currentTick;
+	}
+	final int slot = (int) (tick & (SLOTS - 1));
+	final MarketOrder head = slots[slot];
+	mo.setDeadline(deadline).setSlot(slot).setLeftSibling(null).setRightSibling(head);
+	if(head != null)
+	    head.setLeftSibling(mo);
+	slots[slot] = mo;
+	size++;
+    }
+
+    public void remove(final MarketOrder mo) {
+	final int slot = mo.getSlot();
+	if(slot < 0)
+	    return;
+	final MarketOrder left = mo.getLeftSibling();
+	final MarketOrder right = mo.getRightSibling();
+	if(left == null)
+	    slots[slot] = right;
+	else
+	    left.setRightSibling(right);
+	if(right != null)
+	    right.setLeftSibling(left);
+	mo.setSlot(-1).setLeftSibling(null).setRightSibling(null);
+	size--;
+    }
+
+    // tick processed by the last expire(), and a market order put back in
+    // the slot it had (restoring a checkpoint, see
+    // LinkedOrderBook.readCheckpoint).
+    public long getCurrentTick() {
+	return currentTick;
+    }
+
+    public void restore(final long currentTick) {
+	this.currentTick = currentTick;
+    }
+
+    public void restore(final MarketOrder mo, final int slot) {
+	final MarketOrder head = slots[slot];
+	mo.setDeadline(mo.getOrder().getExchangeTimestamp() + horizon).setSlot(slot).setLeftSibling(null).setRightSibling(head);
+	if(head != null)
+	    head.setLeftSibling(mo);
+	slots[slot] = mo;
+	size++;
+    }
+
+    // expire (remove and report) all orders with deadline < exchangeTs.
+    public void expire(final long exchangeTs) {
+	final long tick = exchangeTs / TICK;
+	if(currentTick == Long.MIN_VALUE)
+	    currentTick = tick;
+	if(size == 0) {
+	    if(tick > currentTick)
+		currentTick = tick;
+	    return;
+	}
+	if(tick > currentTick) {
+	    // visit every slot that has elapsed, or the whole wheel once if
+	    // more than a full rotation has passed.
+	    final long from = tick - currentTick > SLOTS ? tick - SLOTS : currentTick;
+	    for(long t = from; t < tick; t++)
+		expireSlot((int) (t & (SLOTS - 1)), exchangeTs);
+	    currentTick = tick;
+	}
+	expireSlot((int) (currentTick & (SLOTS - 1)), exchangeTs);
+    }
+
+    private void expireSlot(final int slot, final long exchangeTs) {
+	MarketOrder mo = slots[slot];
+	while(mo != null) {
+	    final MarketOrder next = mo.getRightSibling();
+	    if(mo.getDeadline() < exchangeTs) {
+		remove(mo);
+		expired.onExpired(mo);
+	    }
+	    mo = next;
+	}
+    }
+}
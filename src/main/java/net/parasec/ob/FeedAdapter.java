@@ -0,0 +1,19 @@
+package net.parasec.ob;
+
+import java.nio.ByteBuffer;
+
+
+// decodes a venue's wire format straight from a byte buffer into primitive
+// order events (see FeedHandler), so a new venue plugs in without wrapper
+// objects on the hot path. an adapter keeps its own parse state and is not
+// thread safe.
+public interface FeedAdapter {
+
+    // decode the complete messages between position and limit, passing
+    // each order event to the handler, and move the position past them. an
+    // incomplete message at the end is left in place (position at its
+    // start) for the next call, unless endOfInput is set. messages which
+    // are not order events are skipped. returns the number of events passed
+    // on.
+    int decode(ByteBuffer buf, boolean endOfInput, FeedHandler handler);
+}
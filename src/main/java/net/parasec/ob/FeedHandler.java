@@ -0,0 +1,9 @@
+package net.parasec.ob;
+
+// receives the order events a FeedAdapter decodes, as primitives: action
+// is OrderLogDecoder.CREATED/CHANGED/DELETED, side OrderLogDecoder.BUY/SELL,
+// price in ticks (cents), amount in satoshi and ts the exchange time in ms.
+public interface FeedHandler {
+
+    void onOrder(int action, int side, long id, long price, long amount, long ts);
+}
@@ -0,0 +1,54 @@
+package net.parasec.ob;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+// reads a recorded feed through an adapter: blocking channel reads into a
+// direct buffer, decoded in place and compacted.
+public final class FeedReader {
+
+    private final static int BUFFER_SIZE = 1 << 20;
+
+    // the adapter for a file's format, by its first bytes: fix tag-value
+    // (8=FIX) or else bitstamp's order log.
+    public static FeedAdapter forFile(final File f) throws IOException {
+	final byte[] b = new byte[5];
+	final FileInputStream in = new FileInputStream(f);
+	int n = 0;
+	try {
+	    int r;
+	    while(n < b.length && (r = in.read(b, n, b.length - n)) > 0)
+		n += r;
+	} finally {
+	    in.close();
+	}
+	if(n == b.length && new String(b, "US-ASCII").equals("8=FIX"))
+	    return new TagValueFeedAdapter();
+	return new BitstampFeedAdapter();
+    }
+
+    // returns the number of order events.
+    public static long read(final File f, final FeedAdapter adapter, final FeedHandler handler) throws IOException {
+	final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	final FileChannel ch = new FileInputStream(f).getChannel();
+	long events = 0;
+	try {
+	    boolean eof = false;
+	    while(!eof) {
+		eof = ch.read(buf) < 0;
+		buf.flip();
+		events += adapter.decode(buf, eof, handler);
+		if(buf.position() == 0 && buf.limit() == buf.capacity())
+		    throw new IOException("message too long in " + f);
+		buf.compact();
+	    }
+	} finally {
+	    ch.close();
+	}
+	return events;
+    }
+}
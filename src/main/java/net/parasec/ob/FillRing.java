@@ -0,0 +1,159 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+// the last completed market orders (filled, or what was filled when they
+// were cancelled or rested), in pre-allocated primitive columns like
+// TradeRing, so the market orders themselves are not kept alive. ids are
+// numeric exchange order ids, -1 if not numeric.
+public final class FillRing {
+
+    private final int mask;
+    private final boolean[] buy;
+    private final int[] price;
+    private final long[] initialVolume;
+    private final long[] filledVolume;
+    private final long[] ts;
+    private final long[] id;
+    private long count = 0;
+
+    // capacity is rounded up to a power of 2.
+    public FillRing(final int capacity) {
+	int c = 1;
+	while(c < capacity)
+	    c <<= 1;
+	mask = c - 1;
+	buy = new boolean[c];
+	price = new int[c];
+	initialVolume = new long[c];
+	filledVolume = new long[c];
+	ts = new long[c];
+	id = new long[c];
+    }
+
+    // returns the fill's sequence (count - 1).
+    public long add(final Direction direction, final int price, final long initialVolume,
+		    final long filledVolume, final long ts, final long id) {
+	final int i = (int) count & mask;
+	this.buy[i] = direction.equals(Direction.BUY);
+	this.price[i] = price;
+	this.initialVolume[i] = initialVolume;
+	this.filledVolume[i] = filledVolume;
+	this.ts[i] = ts;
+	this.id[i] = id;
+	return count++;
+    }
+
+    public int capacity() {
+	return mask + 1;
+    }
+
+    public int size() {
+	return (int) Math.min(count, mask + 1);
+    }
+
+    public long getCount() {
+	return count;
+    }
+
+    private int slot(final int i) {
+	return (int) (count - 1 - i) & mask;
+    }
+
+    public boolean isBuy(final int i) {
+	return buy[slot(i)];
+    }
+
+    public long getFilledVolume(final int i) {
+	return filledVolume[slot(i)];
+    }
+
+    // as TradeRing.
+    public void writeTo(final DataOutput out) throws IOException {
+	final int n = size();
+	out.writeLong(count);
+	out.writeInt(n);
+	for(int i = n - 1; i >= 0; i--) {
+	    final int s = slot(i);
+	    out.writeBoolean(buy[s]);
+	    out.writeInt(price[s]);
+	    out.writeLong(initialVolume[s]);
+	    out.writeLong(filledVolume[s]);
+	    out.writeLong(ts[s]);
+	    out.writeLong(id[s]);
+	}
+    }
+
+    public void readFrom(final DataInput in) throws IOException {
+	final long saved = in.readLong();
+	final int n = in.readInt();
+	count = saved - n;
+	for(int i = 0; i < n; i++, count++) {
+	    final int s = (int) count & mask;
+	    buy[s] = in.readBoolean();
+	    price[s] = in.readInt();
+	    initialVolume[s] = in.readLong();
+	    filledVolume[s] = in.readLong();
+	    ts[s] = in.readLong();
+	    id[s] = in.readLong();
+	}
+    }
+
+    public View view() {
+	return new View();
+    }
+
+    // valid until capacity more fills are added.
+    public final class View {
+
+	private int slot;
+	private long seq;
+
+	private View() {}
+
+	// i = 0 is the newest fill.
+	public View at(final int i) {
+	    slot = slot(i);
+	    seq = count - 1 - i;
+	    return this;
+	}
+
+	public long getSeq() {
+	    return seq;
+	}
+
+	public boolean isBuy() {
+	    return buy[slot];
+	}
+
+	public Direction getDirection() {
+	    return buy[slot] ? Direction.BUY : Direction.SELL;
+	}
+
+	// limit price.
+	public int getPrice() {
+	    return price[slot];
+	}
+
+	public long getInitialVolume() {
+	    return initialVolume[slot];
+	}
+
+	public long getFilledVolume() {
+	    return filledVolume[slot];
+	}
+
+	public long getTimestamp() {
+	    return ts[slot];
+	}
+
+	public long getId() {
+	    return id[slot];
+	}
+    }
+}
@@ -0,0 +1,153 @@
+package net.parasec.ob;
+
+import java.util.HashSet;
+
+
+// estimated heap use of a book, by component. computed from element counts
+// with a model of the 64 bit hotspot layout with compressed oops (12 byte
+// object headers, 4 byte references, 8 byte alignment), so it is cheap
+// enough to poll (BookMetrics) for capacity planning; FootprintBench
+// measures the real thing to check it against. ids are assumed to be the
+// length of a sampled resting order's id. counts are read without locking,
+// so an estimate taken off the book thread may be slightly behind.
+public final class Footprint {
+
+    public final static int HEADER = 12;
+    public final static int REF = 4;
+    public final static int ALIGN = 8;
+    // used if the book has no resting orders to sample an id from.
+    public final static int ID_LENGTH = 10;
+
+    // pre java 9 strings are utf-16 (char[]), later latin-1 (byte[]).
+    private final static int CHAR = System.getProperty("java.specification.version", "").startsWith("1.") ? 2 : 1;
+
+    public static long align(final long bytes) {
+	return (bytes + ALIGN - 1) / ALIGN * ALIGN;
+    }
+
+    // array of n elements of the given size.
+    public static long array(final long n, final int size) {
+	return align(HEADER + 4 + n * size);
+    }
+
+    // string and its backing array.
+    public static long string(final int length) {
+	return align(HEADER + REF + 4 + 4) + array(length, CHAR);
+    }
+
+    // hash map/set bucket table for n entries (default load factor).
+    public static long table(final long n) {
+	if(n == 0)
+	    return 0;
+	long capacity = 16;
+	while(capacity * 3 / 4 < n)
+	    capacity <<= 1;
+	return array(capacity, REF);
+    }
+
+    // shallow sizes.
+    public final static long LIMIT = align(HEADER + 4 + 8 + 4 + 4 * REF);
+    public final static long LIMIT_ORDER = align(HEADER + 4 * REF);
+    // id, price, volume, exchange timestamp.
+    public final static long ORDER_INFO = align(HEADER + REF + 4 + 8 + 8);
+    public final static long HASH_NODE = align(HEADER + 4 + 3 * REF);
+    public final static long LINKED_HASH_NODE = align(HASH_NODE + 2 * REF);
+    public final static long MARKET_ORDER = align(HEADER + 4 * 8 + 4 + 4 * REF);
+
+    // bytes by component.
+    public long sparseLevels = 0; // level arrays, fixed per side.
+    public long levels = 0; // Limit per active level.
+    public long orders = 0; // LimitOrder, OrderInfo and id per resting order.
+    public long orderPool = 0; // id -> LimitOrder maps.
+    public long deadPool = 0; // ids of processed orders.
+    public long marketOrders = 0; // outstanding market orders and their indexes.
+    public long history = 0; // trade, cancel and fill rings.
+
+    // counts.
+    public long levelCount = 0;
+    public long orderCount = 0;
+    public long deadCount = 0;
+    public long marketOrderCount = 0;
+    public int idLength = ID_LENGTH;
+
+    public long total() {
+	return sparseLevels + levels + orders + orderPool + deadPool + marketOrders + history;
+    }
+
+    public double bytesPerOrder() {
+	return orderCount > 0 ? (orders + orderPool) / (double) orderCount : 0;
+    }
+
+    public double bytesPerLevel() {
+	return levelCount > 0 ? levels / (double) levelCount : 0;
+    }
+
+    private static int sampleIdLength(final Orders side) {
+	final Limit best = side.getBest();
+	final LimitOrder lo = best != null ? best.getHead() : null;
+	final String id = lo != null ? lo.getOrder().getexchangeOrderId() : null;
+	return id != null ? id.length() : -1;
+    }
+
+    // add one side of a book.
+    public Footprint add(final Orders side) {
+	final long levelCount = side.getLevelCount();
+	final long orderCount = side.getOrders();
+	final HashSet<String> dead = side.getDeadPool();
+	final long deadCount = dead.size();
+	sparseLevels += array(side.getLevels().length, REF);
+	levels += levelCount * LIMIT;
+	orders += orderCount * (LIMIT_ORDER + ORDER_INFO + string(idLength));
+	orderPool += orderCount * HASH_NODE + table(orderCount);
+	deadPool += deadCount * (HASH_NODE + string(idLength)) + table(deadCount);
+	this.levelCount += levelCount;
+	this.orderCount += orderCount;
+	this.deadCount += deadCount;
+	return this;
+    }
+
+    // outstanding market orders: the order and its info, map entry, price
+    // index and expiry wheel links.
+    public Footprint addMarketOrders(final long n) {
+	marketOrders += n * (MARKET_ORDER + ORDER_INFO + string(idLength) + LINKED_HASH_NODE + REF);
+	marketOrderCount += n;
+	return this;
+    }
+
+    public Footprint addHistory(final TradeRing trades, final CancelRing cancels, final FillRing fills) {
+	// columns: side, price, then longs.
+	history += array(trades.capacity(), 1) + array(trades.capacity(), 4) + 5 * array(trades.capacity(), 8);
+	history += array(cancels.capacity(), 1) + array(cancels.capacity(), 4) + 3 * array(cancels.capacity(), 8);
+	history += array(fills.capacity(), 1) + array(fills.capacity(), 4) + 4 * array(fills.capacity(), 8);
+	return this;
+    }
+
+    public static Footprint of(final OrderBook ob) {
+	final Footprint f = new Footprint();
+	int idLength = sampleIdLength(ob.getBids());
+	if(idLength < 0)
+	    idLength = sampleIdLength(ob.getAsks());
+	if(idLength > 0)
+	    f.idLength = idLength;
+	f.add(ob.getBids()).add(ob.getAsks());
+	final State s = ob.getState();
+	f.addMarketOrders(s.moActiveBuys + s.moActiveSells);
+	f.addHistory(ob.getTrades(), ob.getCancels(), ob.getFills());
+	return f;
+    }
+
+    private static String mb(final long bytes) {
+	return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    public String toString() {
+	return new StringBuilder().append("total = ").append(mb(total())).append(" mb")
+	    .append(" (").append(orderCount).append(" orders ").append(mb(orders + orderPool)).append(" mb, ")
+	    .append(String.format("%.1f", bytesPerOrder())).append(" b/order; ")
+	    .append(levelCount).append(" levels ").append(mb(levels)).append(" mb; ")
+	    .append("sparse levels ").append(mb(sparseLevels)).append(" mb; ")
+	    .append(deadCount).append(" dead ").append(mb(deadPool)).append(" mb; ")
+	    .append(marketOrderCount).append(" market orders ").append(mb(marketOrders)).append(" mb; ")
+	    .append("history ").append(mb(history)).append(" mb)").toString();
+    }
+}
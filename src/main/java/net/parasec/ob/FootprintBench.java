@@ -0,0 +1,113 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+
+
+// what a book costs in heap: fills one side (Orders) with n resting orders
+// and measures the heap in use (after gc) at each step, next to the
+// Footprint estimate:
+//
+// - sparse levels: an empty side (the fixed level array).
+// - per order: n orders on a single level (LimitOrder, OrderInfo, id and
+//   order pool entry).
+// - per level: the same n orders spread over n / perLevel levels, less the
+//   single level book (Limit).
+// - dead pool: every order deleted, its id kept in the dead pool as the
+//   book does (includes the order pool's table, which does not shrink).
+//
+// ids are 9-10 digit decimal strings, as on bitstamp. give the jvm heap for
+// the largest size (around 300 bytes an order, e.g. -Xmx4g for 10m); a size
+// which does not fit is reported and the run stops. -XX:+UseSerialGC gives
+// exact figures, a concurrent collector may leave some garbage behind.
+public final class FootprintBench {
+
+    private final static long FIRST_ID = 100000000L;
+    private final static int FIRST_PRICE = 10000;
+    private final static int MAX_LEVELS = 500000;
+
+    // heap in use once a gc no longer changes it.
+    private static long used() throws InterruptedException {
+	final Runtime rt = Runtime.getRuntime();
+	long prev = -1;
+	for(int i = 0; i < 20; i++) {
+	    System.gc();
+	    Thread.sleep(20);
+	    final long used = rt.totalMemory() - rt.freeMemory();
+	    if(i >= 2 && Math.abs(used - prev) < 1024)
+		return used;
+	    prev = used;
+	}
+	return prev;
+    }
+
+    private static Orders fill(final int n, final int levels) {
+	final Orders side = new Orders(Direction.BUY, null);
+	for(int i = 0; i < n; i++)
+	    side.addOrder(Util.newOrderInfo(Long.toString(FIRST_ID + i), FIRST_PRICE + i % levels, 100000000L, i));
+	return side;
+    }
+
+    // the side being measured: a static, so the jit cannot drop it early.
+    private static Orders side = null;
+
+    private static void run(final int n, final int perLevel) throws InterruptedException {
+	final int levels = Math.min(MAX_LEVELS, Math.max(1, n / perLevel));
+
+	final long base = used();
+	side = new Orders(Direction.BUY, null);
+	final long sparse = used() - base;
+	side = null;
+
+	final long t0 = System.nanoTime();
+	side = fill(n, 1);
+	final long fillNanos = System.nanoTime() - t0;
+	final long flat = used() - base;
+	final Footprint est = new Footprint().add(side);
+	side = null;
+
+	side = fill(n, levels);
+	final long spread = used() - base;
+	final double perLevelBytes = levels > 1 ? (spread - flat) / (double) (levels - 1) : 0;
+
+	for(int i = 0; i < n; i++) {
+	    side.remOrder(Long.toString(FIRST_ID + i));
+	    side.getDeadPool().add(Long.toString(FIRST_ID + i));
+	}
+	final long dead = used() - base;
+	final Footprint deadEst = new Footprint().add(side);
+	side = null;
+
+	System.out.println(String.format("%9d %7d %10.1f %7.1f %10.1f %7d %9.1f %7.1f %8.1f %7.1f %8.0f",
+					 n, levels,
+					 (flat - sparse) / (double) n, est.bytesPerOrder(),
+					 perLevelBytes, Footprint.LIMIT,
+					 sparse / 1024.0, est.sparseLevels / 1024.0,
+					 (dead - sparse) / (double) n, deadEst.deadPool / (double) n,
+					 fillNanos / (double) n));
+    }
+
+    public static void main(final String[] args) throws Exception {
+	int perLevel = 10;
+	final StringBuilder sizes = new StringBuilder();
+	for(int i = 0; i < args.length; i++) {
+	    if(args[i].equals("-perLevel") && i + 1 < args.length)
+		perLevel = Integer.parseInt(args[++i]);
+	    else
+		sizes.append(args[i]).append(" ");
+	}
+	final String[] ns = (sizes.length() > 0 ? sizes.toString() : "1000 10000 100000 1000000 10000000").trim().split(" +");
+
+	System.out.println("bytes measured (est = Footprint estimate), max heap "
+			   + (Runtime.getRuntime().maxMemory() >> 20) + " mb, " + perLevel + " orders per level");
+	System.out.println("   orders  levels    b/order     est    b/level     est  sparse kb     est  dead b/id     est  ns/add");
+	for(int i = 0; i < ns.length; i++) {
+	    final int n = Integer.parseInt(ns[i]);
+	    try {
+		run(n, perLevel);
+	    } catch(final OutOfMemoryError e) {
+		System.out.println(String.format("%9d out of memory (max heap %d mb)", n, Runtime.getRuntime().maxMemory() >> 20));
+		break;
+	    }
+	}
+    }
+}
@@ -0,0 +1,75 @@
+package net.parasec.ob;
+
+import java.util.Random;
+
+
+// checks the String.format free number formatting of Util (appendUSD,
+// appendBTC, appendPercent, used by BookRenderer and State.appendTo)
+// against asUSD/asBTC and "%.2f": edge values (ties at every cent up to
+// 1000, values just either side of them, negatives, zeros, extremes) and
+// random samples. prints the differences, exits 1 if there are any.
+public final class FormatCheck {
+
+    public final static int SAMPLES = 5000000;
+
+    private static int diffs = 0;
+    private static final StringBuilder sb = new StringBuilder();
+
+    private static void percent(final double per) {
+	sb.setLength(0);
+	final String got = Util.appendPercent(sb, per).toString();
+	final String want = String.format("%.2f", per);
+	if(!got.equals(want) && diffs++ < 20)
+	    System.err.println("appendPercent(" + per + ") = " + got + ", %.2f = " + want);
+    }
+
+    private static void usd(final int cents) {
+	sb.setLength(0);
+	final String got = Util.appendUSD(sb, cents).toString();
+	final String want = Util.asUSD(cents);
+	if(!got.equals(want) && diffs++ < 20)
+	    System.err.println("appendUSD(" + cents + ") = " + got + ", asUSD = " + want);
+    }
+
+    private static void btc(final long satoshi) {
+	sb.setLength(0);
+	final String got = Util.appendBTC(sb, satoshi).toString();
+	final String want = Util.asBTC(satoshi);
+	if(!got.equals(want) && diffs++ < 20)
+	    System.err.println("appendBTC(" + satoshi + ") = " + got + ", asBTC = " + want);
+    }
+
+    public static void main(final String[] args) {
+	final int samples = args.length > 0 ? Integer.parseInt(args[0]) : SAMPLES;
+	final double[] edges = { 0, -0.0, 0.005, -0.005, 0.001, -0.001, 2.175, 3.8249999999999997, 1.005, 1.015,
+				 1.025, 99.995, 100, 1e-9, -1e-9, 123456.785 };
+	for(final double e : edges) {
+	    percent(e);
+	    percent(Math.nextUp(e));
+	    percent(Math.nextAfter(e, Double.NEGATIVE_INFINITY));
+	}
+	// ties (x.xx5) and their neighbours.
+	for(int i = 0; i < 100000; i++) {
+	    final double tie = i / 1000.0 + 0.005;
+	    for(final double d : new double[] { tie, Math.nextUp(tie), Math.nextAfter(tie, 0), -tie }) {
+		percent(d);
+	    }
+	}
+	final int[] cents = { 0, 1, -1, 5, -5, 99, 100, -100, Integer.MAX_VALUE, Integer.MIN_VALUE + 1 };
+	for(final int c : cents)
+	    usd(c);
+	final long[] satoshis = { 0, 1, -1, 99999999, 100000000, -100000000, 2100000000000000L };
+	for(final long s : satoshis)
+	    btc(s);
+	final Random r = new Random(1);
+	for(int i = 0; i < samples; i++) {
+	    percent(r.nextDouble() * 100);
+	    percent((r.nextDouble() - 0.5) * 2e6);
+	    usd(r.nextInt(100000000));
+	    btc((long) (r.nextDouble() * 1e14));
+	}
+	System.out.println(diffs == 0 ? "no differences" : diffs + " differences");
+	if(diffs > 0)
+	    System.exit(1);
+    }
+}
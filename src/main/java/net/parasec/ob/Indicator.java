@@ -0,0 +1,35 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+
+
+// an incrementally maintained order book indicator (see IndicatorSet).
+// an indicator declares the book changes it depends on, and is only called
+// for those. the book is mid-update during a call, so an indicator should
+// only look at what its dependencies cover (e.g. the best bid/ask).
+public interface Indicator {
+
+    // dependencies (bit mask).
+    int BEST_CHANGE = 1; // best bid or ask level changed.
+    int LEVEL_DELTA = 2; // volume changed at a level within getMaxDistance() of the best.
+    int TRADE = 4;
+    int CANCEL = 8;
+
+    String getName();
+
+    int getDependencies();
+
+    // for LEVEL_DELTA: the furthest distance (cents) from the best bid/ask
+    // of level changes the indicator wants. 0 = best level only.
+    int getMaxDistance();
+
+    // side is BUY for bids, SELL for asks.
+    void onBestChange(OrderBook ob, Direction side);
+    void onLevelDelta(OrderBook ob, Direction side, int price, long delta);
+    // trade/cancel: flyweights on the newest entry of the book's rings,
+    // only valid during the call.
+    void onTrade(OrderBook ob, TradeRing.View trade);
+    void onCancel(OrderBook ob, CancelRing.View cancel);
+
+    double getValue();
+}
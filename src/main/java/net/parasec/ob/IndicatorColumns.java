@@ -0,0 +1,188 @@
+package net.parasec.ob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+// schema of the columnar indicator store: one typed primitive column per
+// field of State.toCsv(), in the same order. prices are cents, volumes
+// satoshi, timestamps ms. fields which are empty in the csv (no trade yet,
+// empty side of the book, no percentile/impact) are null.
+public final class IndicatorColumns {
+
+    public final static byte INT = 1;
+    public final static byte LONG = 2;
+
+    private final static List<String> NAMES = new ArrayList<String>();
+    private final static List<Byte> TYPES = new ArrayList<Byte>();
+
+    private static void column(final String name, final byte type) {
+	NAMES.add(name);
+	TYPES.add(type);
+    }
+
+    static {
+	column("event", LONG);
+	column("ts", LONG);
+	column("trade_ts", LONG);
+	column("trade_price", INT);
+	column("trade_volume", LONG);
+	column("trade_direction", INT);
+	column("trade_taker", LONG);
+	column("trade_maker", LONG);
+	column("mo_active_buys", INT);
+	column("mo_active_sells", INT);
+	column("mo_outstanding_buy_volume", LONG);
+	column("mo_outstanding_sell_volume", LONG);
+	column("mo_buy_tip", INT);
+	column("mo_sell_tip", INT);
+	column("mo_last100_buy", INT);
+	column("mo_last100_buy_vol", LONG);
+	column("mo_last100_buy_max", LONG);
+	column("mo_last100_sell_vol", LONG);
+	column("mo_last100_sell_max", LONG);
+	column("mo_last100_buy_trades", INT);
+	column("mo_last100_buy_trade_vol", LONG);
+	column("mo_last100_buy_trade_max", LONG);
+	column("mo_last100_sell_trade_vol", LONG);
+	column("mo_last100_sell_trade_max", LONG);
+	column("best_bid", INT);
+	column("best_bid_volume", LONG);
+	column("best_ask", INT);
+	column("best_ask_volume", LONG);
+	for(final String side : new String[] { "bid", "ask" }) {
+	    for(int i = 0; i < Percentile.PERCENTILE_STEPS; i++) {
+		column(side + "_p" + i + "_vwap", INT);
+		column(side + "_p" + i + "_orders", INT);
+		column(side + "_p" + i + "_levels", INT);
+		column(side + "_p" + i + "_volume", LONG);
+	    }
+	}
+	column("lowest_price", INT);
+	column("highest_price", INT);
+	column("total_bids", INT);
+	column("total_asks", INT);
+	column("total_bid_vol", LONG);
+	column("total_ask_vol", LONG);
+	column("bid_last100_cancel", INT);
+	column("bid_last100_cancel_volume", LONG);
+	column("bid_last100_cancel_max", LONG);
+	column("ask_last100_cancel_volume", LONG);
+	column("ask_last100_cancel_max", LONG);
+	column("total_mo_buy_vol", LONG);
+	column("total_mo_buys", INT);
+	column("total_mo_sell_vol", LONG);
+	column("total_mo_sells", INT);
+	for(final String side : new String[] { "buy", "sell" }) {
+	    for(int i = 0; i < State.impactPoints.length; i++)
+		column(side + "_impact_" + (1 << i), INT);
+	}
+    }
+
+    public final static int COLUMNS = NAMES.size();
+
+    public static String getName(final int column) {
+	return NAMES.get(column);
+    }
+
+    public static byte getType(final int column) {
+	return TYPES.get(column);
+    }
+
+    // receives a row, column by column, in schema order.
+    public interface Row {
+	void putInt(int v);
+	void putLong(long v);
+	void putNull();
+    }
+
+    private static void percentiles(final Percentile[] percentiles, final Row row) {
+	for(int i = 0; i < Percentile.PERCENTILE_STEPS; i++) {
+	    final Percentile p = percentiles[i];
+	    if(p != null) {
+		row.putInt(p.getVwap());
+		row.putInt(p.getOrders());
+		row.putInt(p.getIdPriceLevels());
+		row.putLong(p.getVolume());
+	    } else {
+		row.putNull();
+		row.putNull();
+		row.putNull();
+		row.putNull();
+	    }
+	}
+    }
+
+    private static void impacts(final int[] impacts, final Row row) {
+	for(int i = 0; i < State.impactPoints.length; i++) {
+	    if(impacts != null)
+		row.putInt(impacts[i]);
+	    else
+		row.putNull();
+	}
+    }
+
+    private static void level(final Limit l, final Row row) {
+	if(l != null) {
+	    row.putInt(l.getPrice());
+	    row.putLong(l.getVolume());
+	} else {
+	    row.putNull();
+	    row.putNull();
+	}
+    }
+
+    // write the state as a row, same fields and order as State.toCsv().
+    public static void write(final State s, final Row row) {
+	row.putLong(s.event);
+	row.putLong(s.ts);
+	if(s.lastTradeSeq != 0) {
+	    row.putLong(s.lastTradeTs);
+	    row.putInt(s.lastTradePrice);
+	    row.putLong(s.lastTradeVolume);
+	    row.putInt(s.lastTradeDirection);
+	    row.putLong(s.lastTradeTaker);
+	    row.putLong(s.lastTradeMaker);
+	} else {
+	    for(int i = 0; i < 6; i++)
+		row.putNull();
+	}
+	row.putInt(s.moActiveBuys);
+	row.putInt(s.moActiveSells);
+	row.putLong(s.moOutstandingBuyVolume);
+	row.putLong(s.moOutstandingSellVolume);
+	row.putInt(s.moBuyTip);
+	row.putInt(s.moSellTip);
+	row.putInt(s.moLast100Buy);
+	row.putLong(s.moLast100BuyVol);
+	row.putLong(s.moLast100BuyMax);
+	row.putLong(s.moLast100SellVol);
+	row.putLong(s.moLast100SellMax);
+	row.putInt(s.moLast100BuyTrades);
+	row.putLong(s.moLast100BuyTradeVol);
+	row.putLong(s.moLast100BuyTradeMax);
+	row.putLong(s.moLast100SellTradeVol);
+	row.putLong(s.moLast100SellTradeMax);
+	level(s.bestBid, row);
+	level(s.bestAsk, row);
+	percentiles(s.bidPercentile, row);
+	percentiles(s.askPercentile, row);
+	row.putInt(s.lowestPrice);
+	row.putInt(s.highestPrice);
+	row.putInt(s.totalBids);
+	row.putInt(s.totalAsks);
+	row.putLong(s.totalBidVol);
+	row.putLong(s.totalAskVol);
+	row.putInt(s.bidLast100Cancel);
+	row.putLong(s.bidLast100CancelVolume);
+	row.putLong(s.bidLast100CancelMax);
+	row.putLong(s.askLast100CancelVolume);
+	row.putLong(s.askLast100CancelMax);
+	row.putLong(s.totalMoBuyVol);
+	row.putInt(s.totalMoBuys);
+	row.putLong(s.totalMoSellVol);
+	row.putInt(s.totalMoSells);
+	impacts(s.buyImpact, row);
+	impacts(s.sellImpact, row);
+    }
+}
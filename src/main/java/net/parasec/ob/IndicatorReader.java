@@ -0,0 +1,230 @@
+package net.parasec.ob;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+
+// reader for the columnar indicator store written by IndicatorWriter.
+// columns are loaded individually: only the byte ranges of the requested
+// column in each row group are read. null (absent) values read as 0,
+// readPresent() tells them apart.
+public final class IndicatorReader {
+
+    private final RandomAccessFile file;
+    private final FileChannel ch;
+
+    private final String[] names;
+    private final byte[] types;
+
+    private final int groups;
+    private final long rows;
+    private final int[] groupRows;
+    // offsets[group][column], lengths[group][column]
+    private final long[][] offsets;
+    private final int[][] lengths;
+
+    public IndicatorReader(final File f) throws IOException {
+	file = new RandomAccessFile(f, "r");
+	ch = file.getChannel();
+	try {
+	    final long len = ch.size();
+	    final ByteBuffer head = ByteBuffer.allocate(16);
+	    readFully(head, 0);
+	    if(len < 16 + IndicatorWriter.FOOTER_LENGTH || head.getInt(0) != IndicatorWriter.MAGIC)
+		throw new IOException("not an indicator store: " + f);
+	    if(head.getInt(4) != IndicatorWriter.VERSION)
+		throw new IOException("unsupported indicator store version " + head.getInt(4) + ": " + f);
+	    final int columns = head.getInt(8);
+
+	    final ByteBuffer schema = ByteBuffer.allocate(head.getInt(12));
+	    readFully(schema, 16);
+	    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(schema.array()));
+	    names = new String[columns];
+	    types = new byte[columns];
+	    for(int i = 0; i < columns; i++) {
+		types[i] = in.readByte();
+		names[i] = in.readUTF();
+	    }
+
+	    final ByteBuffer footer = ByteBuffer.allocate(IndicatorWriter.FOOTER_LENGTH);
+	    readFully(footer, len - IndicatorWriter.FOOTER_LENGTH);
+	    if(footer.getInt(20) != IndicatorWriter.MAGIC)
+		throw new IOException("indicator store not closed: " + f);
+	    final long indexOffset = footer.getLong(0);
+	    groups = footer.getInt(8);
+	    rows = footer.getLong(12);
+
+	    final ByteBuffer index = ByteBuffer.allocate(groups * (4 + 12 * columns));
+	    readFully(index, indexOffset);
+	    groupRows = new int[groups];
+	    offsets = new long[groups][columns];
+	    lengths = new int[groups][columns];
+	    for(int g = 0; g < groups; g++) {
+		groupRows[g] = index.getInt();
+		for(int i = 0; i < columns; i++) {
+		    offsets[g][i] = index.getLong();
+		    lengths[g][i] = index.getInt();
+		}
+	    }
+	} catch(final IOException e) {
+	    file.close();
+	    throw e;
+	}
+    }
+
+    private void readFully(final ByteBuffer buf, long position) throws IOException {
+	while(buf.hasRemaining()) {
+	    final int n = ch.read(buf, position);
+	    if(n < 0)
+		throw new EOFException();
+	    position += n;
+	}
+	buf.flip();
+    }
+
+    public long getRows() {
+	return rows;
+    }
+
+    public int getColumns() {
+	return names.length;
+    }
+
+    public String getName(final int column) {
+	return names[column];
+    }
+
+    public byte getType(final int column) {
+	return types[column];
+    }
+
+    public int getColumn(final String name) {
+	for(int i = 0; i < names.length; i++) {
+	    if(names[i].equals(name))
+		return i;
+	}
+	throw new IllegalArgumentException("no column " + name);
+    }
+
+    // read the chunk (null bitmap, then values) of a column in a row group.
+    private ByteBuffer chunk(final int group, final int column) throws IOException {
+	final ByteBuffer buf = ByteBuffer.allocate(lengths[group][column]);
+	readFully(buf, offsets[group][column]);
+	return buf;
+    }
+
+    private int column(final String name, final byte type) {
+	final int column = getColumn(name);
+	if(type != 0 && types[column] != type)
+	    throw new IllegalArgumentException(name + " is not an " + (type == IndicatorColumns.INT ? "int" : "long") + " column");
+	return column;
+    }
+
+    // decode a column, widened to long, absent values 0.
+    private long[] decode(final int column) throws IOException {
+	final long[] values = new long[(int) rows];
+	int n = 0;
+	for(int g = 0; g < groups; g++) {
+	    final ByteBuffer buf = chunk(g, column);
+	    final int rs = groupRows[g];
+	    buf.position((rs + 7) / 8);
+	    long prev = 0;
+	    for(int r = 0; r < rs; r++) {
+		if((buf.get(r >>> 3) & (1 << (r & 7))) == 0)
+		    continue;
+		long z = 0;
+		int shift = 0;
+		byte b;
+		do {
+		    b = buf.get();
+		    z |= (long) (b & 0x7f) << shift;
+		    shift += 7;
+		} while(b < 0);
+		prev += (z >>> 1) ^ -(z & 1);
+		values[n + r] = prev;
+	    }
+	    n += rs;
+	}
+	return values;
+    }
+
+    // which rows of a column have a value (are not empty in the csv).
+    public BitSet readPresent(final String name) throws IOException {
+	final int column = column(name, (byte) 0);
+	final BitSet present = new BitSet((int) rows);
+	int n = 0;
+	for(int g = 0; g < groups; g++) {
+	    final ByteBuffer buf = ByteBuffer.allocate((groupRows[g] + 7) / 8);
+	    readFully(buf, offsets[g][column]);
+	    for(int r = 0; r < groupRows[g]; r++) {
+		if((buf.get(r >>> 3) & (1 << (r & 7))) != 0)
+		    present.set(n + r);
+	    }
+	    n += groupRows[g];
+	}
+	return present;
+    }
+
+    public int[] readInts(final String name) throws IOException {
+	final long[] longs = decode(column(name, IndicatorColumns.INT));
+	final int[] values = new int[longs.length];
+	for(int i = 0; i < longs.length; i++)
+	    values[i] = (int) longs[i];
+	return values;
+    }
+
+    public long[] readLongs(final String name) throws IOException {
+	return decode(column(name, IndicatorColumns.LONG));
+    }
+
+    // any column, widened to long.
+    public long[] read(final String name) throws IOException {
+	return decode(column(name, (byte) 0));
+    }
+
+    public void close() throws IOException {
+	file.close();
+    }
+
+    // print selected columns as csv.
+    public static void main(final String[] args) throws Exception {
+	if(args.length < 1) {
+	    System.err.println("usage: IndicatorReader <store> [column...]");
+	    System.exit(2);
+	}
+	final IndicatorReader reader = new IndicatorReader(new File(args[0]));
+	try {
+	    if(args.length == 1) {
+		for(int i = 0; i < reader.getColumns(); i++)
+		    System.out.println(reader.getName(i) + "," + (reader.getType(i) == IndicatorColumns.INT ? "int" : "long"));
+		return;
+	    }
+	    final long[][] columns = new long[args.length - 1][];
+	    final BitSet[] present = new BitSet[args.length - 1];
+	    for(int i = 1; i < args.length; i++) {
+		columns[i - 1] = reader.read(args[i]);
+		present[i - 1] = reader.readPresent(args[i]);
+	    }
+	    final StringBuilder sb = new StringBuilder();
+	    for(int r = 0; r < reader.getRows(); r++) {
+		sb.setLength(0);
+		for(int i = 0; i < columns.length; i++) {
+		    if(i > 0)
+			sb.append(",");
+		    if(present[i].get(r))
+			sb.append(columns[i][r]);
+		}
+		System.out.println(sb);
+	    }
+	} finally {
+	    reader.close();
+	}
+    }
+}
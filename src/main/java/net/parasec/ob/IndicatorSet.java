@@ -0,0 +1,106 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+
+
+// the indicators registered with an order book. each book change is
+// dispatched only to the indicators which depend on it (a level delta only
+// to those whose max distance covers it), so an indicator costs nothing on
+// events it does not care about.
+//
+// not thread safe: add indicators before events arrive, or from the thread
+// driving the book.
+public final class IndicatorSet {
+
+    private final OrderBook ob;
+
+    private Indicator[] all = new Indicator[0];
+    private Indicator[] bestChange = new Indicator[0];
+    private Indicator[] levelDelta = new Indicator[0];
+    private Indicator[] trade = new Indicator[0];
+    private Indicator[] cancel = new Indicator[0];
+    // furthest distance any level delta indicator wants.
+    private int maxDistance = -1;
+
+    public IndicatorSet(final OrderBook ob) {
+	this.ob = ob;
+    }
+
+    private static Indicator[] append(final Indicator[] a, final Indicator i) {
+	final Indicator[] b = new Indicator[a.length + 1];
+	System.arraycopy(a, 0, b, 0, a.length);
+	b[a.length] = i;
+	return b;
+    }
+
+    public IndicatorSet add(final Indicator indicator) {
+	final int deps = indicator.getDependencies();
+	all = append(all, indicator);
+	if((deps & Indicator.BEST_CHANGE) != 0)
+	    bestChange = append(bestChange, indicator);
+	if((deps & Indicator.LEVEL_DELTA) != 0) {
+	    levelDelta = append(levelDelta, indicator);
+	    maxDistance = Math.max(maxDistance, indicator.getMaxDistance());
+	}
+	if((deps & Indicator.TRADE) != 0)
+	    trade = append(trade, indicator);
+	if((deps & Indicator.CANCEL) != 0)
+	    cancel = append(cancel, indicator);
+	return this;
+    }
+
+    public Indicator get(final String name) {
+	for(final Indicator i : all) {
+	    if(i.getName().equals(name))
+		return i;
+	}
+	return null;
+    }
+
+    public Indicator[] getIndicators() {
+	return all;
+    }
+
+    void onBestChange(final Direction side) {
+	final Indicator[] is = bestChange;
+	for(int i = 0, len = is.length; i < len; i++)
+	    is[i].onBestChange(ob, side);
+    }
+
+    void onLevelDelta(final Direction side, final int price, final long delta) {
+	if(maxDistance < 0)
+	    return;
+	final Limit best = side.equals(Direction.BUY) ? ob.getBids().getBest() : ob.getAsks().getBest();
+	if(best == null)
+	    return;
+	final int distance = side.equals(Direction.BUY) ? best.getPrice() - price : price - best.getPrice();
+	if(distance < 0 || distance > maxDistance)
+	    return;
+	final Indicator[] is = levelDelta;
+	for(int i = 0, len = is.length; i < len; i++) {
+	    if(distance <= is[i].getMaxDistance())
+		is[i].onLevelDelta(ob, side, price, delta);
+	}
+    }
+
+    void onTrade(final TradeRing.View t) {
+	final Indicator[] is = trade;
+	for(int i = 0, len = is.length; i < len; i++)
+	    is[i].onTrade(ob, t);
+    }
+
+    void onCancel(final CancelRing.View c) {
+	final Indicator[] is = cancel;
+	for(int i = 0, len = is.length; i < len; i++)
+	    is[i].onCancel(ob, c);
+    }
+
+    // indicators,name,value,name,value...
+    public StringBuilder toCsv() {
+	final String dl = ",";
+	final StringBuilder sb = new StringBuilder().append("indicators");
+	for(final Indicator i : all)
+	    sb.append(dl).append(i.getName()).append(dl).append(i.getValue());
+	return sb;
+    }
+}
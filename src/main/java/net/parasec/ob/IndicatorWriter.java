@@ -0,0 +1,181 @@
+package net.parasec.ob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+// columnar indicator store (see IndicatorColumns for the schema).
+//
+// rows are buffered per column and written in row groups: within a group,
+// each column is a contiguous chunk, so a reader can load a single column
+// without touching the others.
+//
+// a chunk is a null bitmap (bit set = value present, row r at byte r / 8,
+// bit r % 8), followed by the present values, each as the zigzag varint of
+// its difference to the previous present value in the chunk (the first to
+// 0). monotonic (event, ts) and mostly constant (sparse, 0) columns so take
+// a byte or two per row.
+//
+// file layout:
+//
+//   header: int MAGIC, int VERSION, int columns, int schema length,
+//           schema: per column: byte type, utf name
+//   row groups: column 0 chunk, column 1 chunk, ...
+//   index: per row group: int rows, per column: long offset, int length
+//   footer: long index offset, int row groups, long rows, int MAGIC
+public final class IndicatorWriter implements IndicatorColumns.Row {
+
+    public final static int MAGIC = 0x4f424931; // "OBI1"
+    public final static int VERSION = 2;
+    public final static int FOOTER_LENGTH = 8 + 4 + 8 + 4;
+
+    private final static int DEFAULT_GROUP_ROWS = 8192;
+
+    private final FileOutputStream out;
+    private final FileChannel ch;
+    private final int groupRows;
+
+    // a column of the current row group.
+    private final static class Column {
+	final byte type;
+	final byte[] nulls;
+	byte[] data = new byte[1024];
+	int length = 0;
+	long prev = 0;
+
+	Column(final byte type, final int groupRows) {
+	    this.type = type;
+	    nulls = new byte[(groupRows + 7) / 8];
+	}
+
+	void put(final int row, final long v) {
+	    nulls[row >>> 3] |= 1 << (row & 7);
+	    if(length + 10 > data.length)
+		data = Arrays.copyOf(data, data.length * 2);
+	    final long d = v - prev;
+	    long z = (d << 1) ^ (d >> 63);
+	    while((z & ~0x7fL) != 0) {
+		data[length++] = (byte) ((z & 0x7f) | 0x80);
+		z >>>= 7;
+	    }
+	    data[length++] = (byte) z;
+	    prev = v;
+	}
+
+	void clear() {
+	    Arrays.fill(nulls, (byte) 0);
+	    length = 0;
+	    prev = 0;
+	}
+    }
+
+    private final Column[] columns = new Column[IndicatorColumns.COLUMNS];
+    private int column = 0;
+    private int rows = 0;
+
+    // index: rows and per column offsets and lengths of each row group.
+    private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+    private final DataOutputStream indexOut = new DataOutputStream(index);
+    private int groups = 0;
+    private long totalRows = 0;
+
+    public IndicatorWriter(final File file) throws IOException {
+	this(file, DEFAULT_GROUP_ROWS);
+    }
+
+    public IndicatorWriter(final File file, final int groupRows) throws IOException {
+	this.groupRows = groupRows;
+	for(int i = 0; i < IndicatorColumns.COLUMNS; i++)
+	    columns[i] = new Column(IndicatorColumns.getType(i), groupRows);
+	out = new FileOutputStream(file);
+	ch = out.getChannel();
+
+	final ByteArrayOutputStream schema = new ByteArrayOutputStream();
+	final DataOutputStream dos = new DataOutputStream(schema);
+	for(int i = 0; i < IndicatorColumns.COLUMNS; i++) {
+	    dos.writeByte(columns[i].type);
+	    dos.writeUTF(IndicatorColumns.getName(i));
+	}
+	dos.flush();
+	final ByteBuffer header = ByteBuffer.allocate(16);
+	header.putInt(MAGIC).putInt(VERSION).putInt(IndicatorColumns.COLUMNS).putInt(schema.size());
+	header.flip();
+	writeFully(header);
+	writeFully(ByteBuffer.wrap(schema.toByteArray()));
+    }
+
+    public long getRows() {
+	return totalRows;
+    }
+
+    private void writeFully(final ByteBuffer buf) throws IOException {
+	while(buf.hasRemaining())
+	    ch.write(buf);
+    }
+
+    public void putInt(final int v) {
+	if(columns[column].type != IndicatorColumns.INT)
+	    throw new IllegalStateException("column " + IndicatorColumns.getName(column) + " is not an int");
+	columns[column++].put(rows, v);
+    }
+
+    public void putLong(final long v) {
+	if(columns[column].type != IndicatorColumns.LONG)
+	    throw new IllegalStateException("column " + IndicatorColumns.getName(column) + " is not a long");
+	columns[column++].put(rows, v);
+    }
+
+    public void putNull() {
+	column++;
+    }
+
+    // append the state as a row.
+    public void write(final State s) throws IOException {
+	column = 0;
+	IndicatorColumns.write(s, this);
+	if(column != IndicatorColumns.COLUMNS)
+	    throw new IllegalStateException("row has " + column + " columns");
+	if(++rows == groupRows)
+	    flushGroup();
+    }
+
+    private void flushGroup() throws IOException {
+	if(rows == 0)
+	    return;
+	indexOut.writeInt(rows);
+	final int nullBytes = (rows + 7) / 8;
+	for(int i = 0; i < IndicatorColumns.COLUMNS; i++) {
+	    final Column c = columns[i];
+	    indexOut.writeLong(ch.position());
+	    indexOut.writeInt(nullBytes + c.length);
+	    writeFully(ByteBuffer.wrap(c.nulls, 0, nullBytes));
+	    writeFully(ByteBuffer.wrap(c.data, 0, c.length));
+	    c.clear();
+	}
+	groups++;
+	totalRows += rows;
+	rows = 0;
+    }
+
+    // flush the last row group, write the index and footer.
+    public void close() throws IOException {
+	try {
+	    flushGroup();
+	    final long indexOffset = ch.position();
+	    indexOut.flush();
+	    writeFully(ByteBuffer.wrap(index.toByteArray()));
+	    final ByteBuffer footer = ByteBuffer.allocate(FOOTER_LENGTH);
+	    footer.putLong(indexOffset).putInt(groups).putLong(totalRows).putInt(MAGIC);
+	    footer.flip();
+	    writeFully(footer);
+	} finally {
+	    out.close();
+	}
+    }
+}
@@ -0,0 +1,180 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.OrderInfo;
+
+import java.util.Map;
+
+
+// incremental version of Orders.getMarketImpact(Map): the knife tip after
+// all outstanding market orders (in arrival order) have been filled against
+// the other side of the book.
+//
+// the walk through the book is checkpointed per market order (level, volume
+// offset and impact reached before it). on the next call, market orders are
+// compared with the checkpoints and the book reports the most aggressive
+// price it has changed at since the last call (Orders.getTouchedPrice()), so
+// the walk resumes from the first market order which was added, modified,
+// removed, or which walked over a changed price. the rest is reused.
+public final class KnifeTip {
+
+    private final Orders orders;
+
+    // number of valid checkpoints.
+    private int size = 0;
+
+    // per market order: the order and the volume it was walked with,
+    // walk state before it, and the level price the walk stopped at (or
+    // ranOff if it walked off the end of the book).
+    private MarketOrder[] mos = new MarketOrder[8];
+    private long[] volumes = new long[8];
+    private Limit[] startLevels = new Limit[8];
+    private long[] startOffsets = new long[8];
+    private int[] startImpacts = new int[8];
+    private int[] endPrices = new int[8];
+    private boolean[] ranOff = new boolean[8];
+
+    // walk state after the last market order.
+    private Limit endLevel = null;
+    private long endOffset = 0;
+    private int endImpact = 0;
+
+    public KnifeTip(final Orders orders) {
+	this.orders = orders;
+    }
+
+    private void ensureCapacity(final int capacity) {
+	if(capacity <= mos.length)
+	    return;
+	final int len = Math.max(capacity, mos.length * 2);
+	final MarketOrder[] mos = new MarketOrder[len];
+	final long[] volumes = new long[len];
+	final Limit[] startLevels = new Limit[len];
+	final long[] startOffsets = new long[len];
+	final int[] startImpacts = new int[len];
+	final int[] endPrices = new int[len];
+	final boolean[] ranOff = new boolean[len];
+	System.arraycopy(this.mos, 0, mos, 0, size);
+	System.arraycopy(this.volumes, 0, volumes, 0, size);
+	System.arraycopy(this.startLevels, 0, startLevels, 0, size);
+	System.arraycopy(this.startOffsets, 0, startOffsets, 0, size);
+	System.arraycopy(this.startImpacts, 0, startImpacts, 0, size);
+	System.arraycopy(this.endPrices, 0, endPrices, 0, size);
+	System.arraycopy(this.ranOff, 0, ranOff, 0, size);
+	this.mos = mos;
+	this.volumes = volumes;
+	this.startLevels = startLevels;
+	this.startOffsets = startOffsets;
+	this.startImpacts = startImpacts;
+	this.endPrices = endPrices;
+	this.ranOff = ranOff;
+    }
+
+    // first checkpoint whose walk covered a price changed in the book.
+    private int firstInvalid() {
+	if(!orders.isTouched())
+	    return size;
+	final Orders orders = this.orders;
+	final int touchedPrice = orders.getTouchedPrice();
+	orders.clearTouched();
+	for(int k = 0; k < size; k++) {
+	    if(ranOff[k] || !orders.exceedsLimit(touchedPrice, endPrices[k]))
+		return k;
+	}
+	return size;
+    }
+
+    public int get(final Map<String,MarketOrder> activeMarketOrders) {
+	final int invalid = firstInvalid();
+
+	boolean cached = true;
+	Limit l = null;
+	long offset = 0;
+	int impact = 0;
+	int k = 0;
+
+	for(final MarketOrder mo : activeMarketOrders.values()) {
+	    final OrderInfo o = mo.getOrder();
+	    final long orderVolume = o.getVolume();
+
+	    if(cached) {
+		if(k < invalid && mos[k] == mo && volumes[k] == orderVolume) {
+		    k++;
+		    continue;
+		}
+		// resume the walk from here.
+		cached = false;
+		if(k == 0) {
+		    l = orders.getBest();
+		} else if(k < size) {
+		    l = startLevels[k];
+		    offset = startOffsets[k];
+		    impact = startImpacts[k];
+		} else {
+		    l = endLevel;
+		    offset = endOffset;
+		    impact = endImpact;
+		}
+	    }
+
+	    ensureCapacity(k + 1);
+	    mos[k] = mo;
+	    volumes[k] = orderVolume;
+	    startLevels[k] = l;
+	    startOffsets[k] = offset;
+	    startImpacts[k] = impact;
+
+	    // same walk as Orders.getMarketImpact(Map).
+	    final int priceLimit = o.getLimitPrice();
+	    long volSum = offset;
+	    Limit last = null;
+	    while(l != null) {
+		impact = l.getPrice();
+		if(orders.exceedsLimit(impact, priceLimit)) {
+		    if(last != null) {
+			impact = last.getPrice();
+		    }
+		    break;
+		}
+		final long levelVolume = l.getVolume();
+		volSum += levelVolume;
+		if(volSum >= orderVolume) {
+		    offset = (volSum - orderVolume) - levelVolume;
+		    break;
+		}
+		last = l;
+		l = l.getRightSibling();
+	    }
+
+	    ranOff[k] = (l == null);
+	    endPrices[k] = (l == null ? 0 : l.getPrice());
+	    k++;
+	}
+
+	if(cached) {
+	    // every market order matched a checkpoint (some may have been
+	    // removed from the end).
+	    if(k == size) {
+		return endImpact;
+	    }
+	    if(k == 0) {
+		l = null;
+		offset = 0;
+		impact = 0;
+	    } else {
+		l = startLevels[k];
+		offset = startOffsets[k];
+		impact = startImpacts[k];
+	    }
+	}
+
+	for(int i = k; i < size; i++) {
+	    mos[i] = null;
+	    startLevels[i] = null;
+	}
+	size = k;
+	endLevel = l;
+	endOffset = offset;
+	endImpact = impact;
+	return impact;
+    }
+}
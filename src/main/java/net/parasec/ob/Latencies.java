@@ -0,0 +1,91 @@
+package net.parasec.ob;
+
+// per event type and per code path processing latencies (nanoseconds).
+// the order book records every event into the histogram for its type
+// (add/mod/del) and into the histogram for the path it took through the
+// book. derived indicator recomputation is recorded separately.
+//
+// not thread safe: record and interval() must be called from the thread
+// driving the order book.
+public final class Latencies {
+
+    // event types.
+    public final static int ADD = 0;
+    public final static int MOD = 1;
+    public final static int DEL = 2;
+
+    // code paths.
+    public final static int DISCARD = 3; // stale/duplicate/unknown, no change.
+    public final static int CROSSED_MO = 4; // market order added/modified/filled.
+    public final static int LIMIT_INSERT = 5; // limit order inserted into book.
+    public final static int TRADE = 6; // trade inferred from a resting order.
+    public final static int CANCEL = 7; // resting order cancelled.
+
+    // derived indicators (percentiles, impacts).
+    public final static int INDICATORS = 8;
+
+    private final static String[] NAMES = new String[] {
+	"add", "mod", "del", "discard", "crossed_mo", "limit_insert", "trade", "cancel", "indicators"
+    };
+
+    private final LatencyHistogram[] current = new LatencyHistogram[NAMES.length];
+    private final LatencyHistogram[] interval = new LatencyHistogram[NAMES.length];
+
+    private long intervalStart = System.currentTimeMillis();
+    private long intervalEnd = intervalStart;
+
+    public Latencies() {
+	for(int i = 0, len = NAMES.length; i < len; i++) {
+	    current[i] = new LatencyHistogram();
+	    interval[i] = new LatencyHistogram();
+	}
+    }
+
+    public void record(final int type, final long nanos) {
+	current[type].record(nanos);
+    }
+
+    // record an event latency against both its type and its path.
+    public void record(final int type, final int path, final long nanos) {
+	current[type].record(nanos);
+	current[path].record(nanos);
+    }
+
+    public LatencyHistogram get(final int type) {
+	return current[type];
+    }
+
+    public static String getName(final int type) {
+	return NAMES[type];
+    }
+
+    // take an interval snapshot: the latencies recorded since the previous
+    // call are moved into the (preallocated) interval histograms, which are
+    // returned. the live histograms start again from empty.
+    public LatencyHistogram[] interval() {
+	for(int i = 0, len = current.length; i < len; i++) {
+	    current[i].copyInto(interval[i]);
+	    current[i].reset();
+	}
+	intervalStart = intervalEnd;
+	intervalEnd = System.currentTimeMillis();
+	return interval;
+    }
+
+    // interval snapshot as csv, one line per histogram:
+    // latency,name,interval_start,interval_end,count,min,mean,p50,p90,p99,p99.9,p99.99,max
+    public String intervalToCsv() {
+	final String dl = ",";
+	final LatencyHistogram[] h = interval();
+	final StringBuilder sb = new StringBuilder();
+	for(int i = 0, len = h.length; i < len; i++) {
+	    sb.append("latency,").append(NAMES[i]).append(dl)
+		.append(intervalStart).append(dl)
+		.append(intervalEnd).append(dl)
+		.append(h[i].toCsv(dl));
+	    if(i < len - 1)
+		sb.append("\n");
+	}
+	return sb.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package net.parasec.ob;
+
+// log-linear (hdr style) histogram of nanosecond latencies.
+// values below 2^SUB_BUCKET_BITS are counted exactly, above that each power
+// of 2 is split into SUB_BUCKET_HALF linear sub-buckets, giving a relative
+// error of < 1%. all counts are held in a single preallocated array, so
+// recording is allocation free.
+public final class LatencyHistogram {
+
+    private final static int SUB_BUCKET_BITS = 8;
+    private final static int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);
+
+    // values > 2^40 ns (~18 minutes) are clamped to the highest bucket.
+    private final static int MAX_VALUE_BITS = 40;
+    private final static long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    private final long[] counts
+	= new long[(MAX_VALUE_BITS - SUB_BUCKET_BITS + 2) * SUB_BUCKET_HALF];
+
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    private static int indexOf(final long value) {
+	final int bits = 64 - Long.numberOfLeadingZeros(value);
+	if(bits <= SUB_BUCKET_BITS)
+	    return (int) value;
+	final int shift = bits - SUB_BUCKET_BITS;
+	final int sub = (int) (value >>> shift);
+	return (shift + 1) * SUB_BUCKET_HALF + (sub - SUB_BUCKET_HALF);
+    }
+
+    // highest value that maps to the same bucket as idx.
+    private static long valueOf(final int idx) {
+	if(idx < 2 * SUB_BUCKET_HALF)
+	    return idx;
+	final int shift = (idx / SUB_BUCKET_HALF) - 1;
+	final long sub = idx - (shift + 1) * SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+	return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(final long nanos) {
+	final long v = nanos < 0 ? 0 : (nanos > MAX_VALUE ? MAX_VALUE : nanos);
+	counts[indexOf(v)]++;
+	count++;
+	sum += v;
+	if(v < min)
+	    min = v;
+	if(v > max)
+	    max = v;
+    }
+
+    public long getCount() {
+	return count;
+    }
+
+    public long getMin() {
+	return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+	return max;
+    }
+
+    public double getMean() {
+	return count == 0 ? 0 : sum / (double) count;
+    }
+
+    // percentile in range 0-100.
+    public long getValueAtPercentile(final double percentile) {
+	if(count == 0)
+	    return 0;
+	final double p = percentile < 0 ? 0 : (percentile > 100 ? 100 : percentile);
+	long target = (long) Math.ceil((p / 100) * count);
+	if(target < 1)
+	    target = 1;
+	final long[] counts = this.counts;
+	long cum = 0;
+	for(int i = 0, len = counts.length; i < len; i++) {
+	    cum += counts[i];
+	    if(cum >= target) {
+		final long v = valueOf(i);
+		return v > max ? max : v;
+	    }
+	}
+	return max;
+    }
+
+    public void reset() {
+	final long[] counts = this.counts;
+	for(int i = 0, len = counts.length; i < len; i++)
+	    counts[i] = 0;
+	count = 0;
+	sum = 0;
+	min = Long.MAX_VALUE;
+	max = 0;
+    }
+
+    // copy this histogram into dst (same layout, no allocation).
+    public void copyInto(final LatencyHistogram dst) {
+	System.arraycopy(counts, 0, dst.counts, 0, counts.length);
+	dst.count = count;
+	dst.sum = sum;
+	dst.min = min;
+	dst.max = max;
+    }
+
+    // merge other into this histogram.
+    public void add(final LatencyHistogram other) {
+	final long[] counts = this.counts;
+	final long[] otherCounts = other.counts;
+	for(int i = 0, len = counts.length; i < len; i++)
+	    counts[i] += otherCounts[i];
+	count += other.count;
+	sum += other.sum;
+	if(other.min < min)
+	    min = other.min;
+	if(other.max > max)
+	    max = other.max;
+    }
+
+    public StringBuilder toCsv(final String dl) {
+	return (new StringBuilder().append(count).append(dl)
+		.append(getMin()).append(dl)
+		.append(Math.round(getMean())).append(dl)
+		.append(getValueAtPercentile(50)).append(dl)
+		.append(getValueAtPercentile(90)).append(dl)
+		.append(getValueAtPercentile(99)).append(dl)
+		.append(getValueAtPercentile(99.9)).append(dl)
+		.append(getValueAtPercentile(99.99)).append(dl)
+		.append(max)
+	);
+    }
+}
@@ -0,0 +1,7 @@
+package net.parasec.ob;
+
+// receives price level volume changes (order added, modified or removed).
+// delta is the change in volume at the level, in satoshi.
+public interface LevelListener {
+    void onLevelChanged(final int price, final long delta);
+}
@@ -5,10 +5,14 @@ import net.parasec.trading.ticker.core.wire.OrderInfo;
 import net.parasec.trading.ticker.core.wire.Direction;
 import net.parasec.trading.ticker.core.wire.Trade;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.LinkedHashMap;
-import java.util.Iterator;
-import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashSet;
 
 
@@ -17,16 +21,39 @@ public final class LinkedOrderBook implements OrderBook {
   private long firstNewOrderTs = 4102444800L; // Fri Jan  1 00:00:00 UTC 2100
 
     private final State state = new State();
-    private final ArrayDeque<MarketOrder> lastOrders = new ArrayDeque<MarketOrder>(100);
-    
+
+    // time source for state.ts and trade timestamps.
+    private final Clock clock;
+
+    // processing latencies. path is the code path taken by the current event.
+    private final Latencies latencies = new Latencies();
+    private int path = Latencies.DISCARD;
+
+    // engine counters (jmx).
+    private final BookMetrics metrics = new BookMetrics(this);
+
+    // pluggable indicators, updated only on the changes they depend on.
+    private final IndicatorSet indicators = new IndicatorSet(this);
+
+    // trade, cancel and market order histories kept (at least LAST, rounded
+    // up to a power of 2), -Dob.history overrides. the last 100 state
+    // counters cover the newest LAST of each.
+    public final static int HISTORY = 1024;
+    private final static int LAST = 100;
+    private final static int history = Math.max(LAST, Integer.getInteger("ob.history", HISTORY));
+
+    // completed market orders (filled volume).
+    private final FillRing fills = new FillRing(history);
 
     private final int depth = 45;
     //private final int depth = 114;
-    // last 100 t&s (trades) derived from order book.
-    private final ArrayDeque<Trade> t_and_s = new ArrayDeque<Trade>(100);
+    // t&s (trades) derived from order book.
+    private final TradeRing trades = new TradeRing(history);
+    private final TradeRing.View lastTrade = trades.view();
 
-    // last 100 cancels (with vol >0)
-    private final ArrayDeque<Cancel> lastCancels = new ArrayDeque<Cancel>(100);
+    // cancels (with vol >0)
+    private final CancelRing cancels = new CancelRing(history);
+    private final CancelRing.View lastCancel = cancels.view();
    
 
     // market orders (emulated: an order is a market order if it crosses the book)
@@ -36,45 +63,65 @@ public final class LinkedOrderBook implements OrderBook {
     private final LinkedHashMap<String,MarketOrder> buyMarketOrders = new LinkedHashMap<String,MarketOrder>();
     private final LinkedHashMap<String,MarketOrder> sellMarketOrders = new LinkedHashMap<String,MarketOrder>();
 
-    // in the event that an mo has not been cleared after 1 minute.
-    // this can happen if data is omitted from the feed. 
+    // in the event that an mo has not been cleared after 1 minute (moExpiry).
+    // this can happen if data is omitted from the feed. mos are scheduled in
+    // an expiry wheel keyed by exchange ts, so a purge only visits expired mos.
+    private final ExpiryWheel buyMoExpiry;
+    private final ExpiryWheel sellMoExpiry;
+    private boolean purged = false;
+
     private void purgeStaleBuyMos(long exchangeTs) {
-      boolean purged=false;
-      for(Iterator<Map.Entry<String,MarketOrder>> it
-          = buyMarketOrders.entrySet().iterator(); it.hasNext(); ) {
-        OrderInfo oi=it.next().getValue().getOrder();
-        if(exchangeTs-oi.getExchangeTimestamp() > 60000) {
-          state.moActiveBuys--;
-          state.moOutstandingBuyVolume-=oi.getVolume();  
-          it.remove();  
-          purged=true;
-        }
-      }
+      purged=false;
+      buyMoExpiry.expire(exchangeTs);
       if(purged)
-        state.moBuyTip = asks.getMarketImpact(buyMarketOrders);
+        state.moBuyTip = buyTip.get(buyMarketOrders);
     }
 
     private void purgeStaleSellMos(long exchangeTs) {
-      boolean purged=false;
-      for(Iterator<Map.Entry<String,MarketOrder>> it
-          = sellMarketOrders.entrySet().iterator(); it.hasNext(); ) {
-        OrderInfo oi=it.next().getValue().getOrder();
-        if(exchangeTs-oi.getExchangeTimestamp() > 60000) {
-          state.moActiveSells--;
-          state.moOutstandingSellVolume-=oi.getVolume();
-          it.remove();
-          purged=true;
-        }
-      }
+      purged=false;
+      sellMoExpiry.expire(exchangeTs);
       if(purged)
-        state.moSellTip = bids.getMarketImpact(sellMarketOrders);
+        state.moSellTip = sellTip.get(sellMarketOrders);
     }
 
-    private String getFirstKey(final LinkedHashMap<String,MarketOrder> marketOrders) {
-	if(marketOrders.isEmpty())
-	    return null; 
-	final Map.Entry<String, MarketOrder> me = marketOrders.entrySet().iterator().next();
-	return me.getKey();
+    private MarketOrder addBuyMo(final OrderInfo o) {
+	final MarketOrder mo = new MarketOrder(o, Direction.BUY);
+	buyMarketOrders.put(o.getexchangeOrderId(), mo);
+	buyMoQueue.add(mo);
+	buyMoIndex.add(mo);
+	buyMoExpiry.schedule(mo);
+	return mo;
+    }
+
+    private MarketOrder addSellMo(final OrderInfo o) {
+	final MarketOrder mo = new MarketOrder(o, Direction.SELL);
+	sellMarketOrders.put(o.getexchangeOrderId(), mo);
+	sellMoQueue.add(mo);
+	sellMoIndex.add(mo);
+	sellMoExpiry.schedule(mo);
+	return mo;
+    }
+
+    private MarketOrder removeBuyMo(final String id) {
+	final MarketOrder mo = buyMarketOrders.remove(id);
+	buyMoQueue.remove(mo);
+	buyMoIndex.remove(mo);
+	buyMoExpiry.remove(mo);
+	return mo;
+    }
+
+    private MarketOrder removeSellMo(final String id) {
+	final MarketOrder mo = sellMarketOrders.remove(id);
+	sellMoQueue.remove(mo);
+	sellMoIndex.remove(mo);
+	sellMoExpiry.remove(mo);
+	return mo;
+    }
+
+    // id of the oldest outstanding market order (the taker), if any.
+    private static String oldestId(final MarketOrderQueue queue) {
+	final MarketOrder mo = queue.getOldest();
+	return mo != null ? mo.getOrder().getexchangeOrderId() : null;
     }
     
     private boolean pruneBuyMo(final MarketOrder mo) {
@@ -118,6 +165,61 @@ public final class LinkedOrderBook implements OrderBook {
     }
 
 
+    // market orders by limit price, so that a best bid/ask change only visits
+    // the market orders it uncrossed. uncrossed is reused unless a prune
+    // triggers another prune on the same side.
+    private final MarketOrderIndex buyMoIndex = new MarketOrderIndex();
+    private final MarketOrderIndex sellMoIndex = new MarketOrderIndex();
+    // and in arrival order (the map's), for the taker of a fill.
+    private final MarketOrderQueue buyMoQueue = new MarketOrderQueue();
+    private final MarketOrderQueue sellMoQueue = new MarketOrderQueue();
+    private final ArrayList<MarketOrder> uncrossedBuyMos = new ArrayList<MarketOrder>();
+    private final ArrayList<MarketOrder> uncrossedSellMos = new ArrayList<MarketOrder>();
+    private boolean pruningBuyMos = false;
+    private boolean pruningSellMos = false;
+
+    private void pruneBuyMos() {
+	final int bestAskPrice = state.bestAsk != null ? state.bestAsk.getPrice() : Integer.MAX_VALUE;
+	if(!buyMoIndex.hasBelow(bestAskPrice))
+	    return;
+	final boolean nested = pruningBuyMos;
+	final ArrayList<MarketOrder> uncrossed = nested ? new ArrayList<MarketOrder>() : uncrossedBuyMos;
+	pruningBuyMos = true;
+	buyMoIndex.below(bestAskPrice, uncrossed);
+	for(int i = 0, len = uncrossed.size(); i < len; i++) {
+	    final MarketOrder mo = uncrossed.get(i);
+	    final String id = mo.getOrder().getexchangeOrderId();
+	    if(buyMarketOrders.get(id) != mo)
+		continue; // already removed by a nested prune.
+	    if(pruneBuyMo(mo)) {
+		removeBuyMo(id);
+	    }
+	}
+	uncrossed.clear();
+	pruningBuyMos = nested;
+    }
+
+    private void pruneSellMos() {
+	final int bestBidPrice = state.bestBid != null ? state.bestBid.getPrice() : 0;
+	if(!sellMoIndex.hasAbove(bestBidPrice))
+	    return;
+	final boolean nested = pruningSellMos;
+	final ArrayList<MarketOrder> uncrossed = nested ? new ArrayList<MarketOrder>() : uncrossedSellMos;
+	pruningSellMos = true;
+	sellMoIndex.above(bestBidPrice, uncrossed);
+	for(int i = 0, len = uncrossed.size(); i < len; i++) {
+	    final MarketOrder mo = uncrossed.get(i);
+	    final String id = mo.getOrder().getexchangeOrderId();
+	    if(sellMarketOrders.get(id) != mo)
+		continue;
+	    if(pruneSellMo(mo)) {
+		removeSellMo(id);
+	    }
+	}
+	uncrossed.clear();
+	pruningSellMos = nested;
+    }
+
     // limit buy/sell orders. orders that do not cross the book are inserted 
     // immediately. otherwise, they are market orders, in which case they are
     // stored in the buy/sellMarketOrders set until the best bid/ask on the
@@ -129,38 +231,33 @@ public final class LinkedOrderBook implements OrderBook {
     private final Orders asks = new Orders(Direction.SELL, new DepthListener() {
 	    public void onBestChanged(final Limit l) {
 		state.bestAsk = l;
-		// best ask has changed. iterate through current market orders,
-		// if market order target price < best ask, hand market order over
-		// to order book as a limit order.
-		for(final Iterator<Map.Entry<String,MarketOrder>> it 
-			= buyMarketOrders.entrySet().iterator(); it.hasNext(); ) {
-		    final MarketOrder mo = it.next().getValue();
-		    if(pruneBuyMo(mo)) {
-			it.remove();
-		    }
-		}	
+		indicators.onBestChange(Direction.SELL);
+		// best ask has changed. visit the market orders which are no
+		// longer crossed (target price < best ask), hand them over to
+		// order book as limit orders.
+		pruneBuyMos();
 	    }
 	});
     private final Orders bids = new Orders(Direction.BUY, new DepthListener() {
 	    public void onBestChanged(final Limit l) {
 		state.bestBid = l;
+		indicators.onBestChange(Direction.BUY);
 		// best bid has changed. same logic as ask.
-		for(final Iterator<Map.Entry<String,MarketOrder>> it 
-			= sellMarketOrders.entrySet().iterator(); it.hasNext(); ) {
-		    final MarketOrder mo = it.next().getValue();
-		    if(pruneSellMo(mo)) {
-			it.remove();
-		    }
-		}
+		pruneSellMos();
 	    } 
 	});
 
-    private long getMaxFill(final Direction type) {	
+    // knife tips of the outstanding market orders, recomputed incrementally.
+    private final KnifeTip buyTip = new KnifeTip(asks);
+    private final KnifeTip sellTip = new KnifeTip(bids);
+
+    // max over the newest n entries on one side.
+    private long getMaxFill(final boolean buy, final int n) {
 	long max = 0;
-	for(final MarketOrder mo : lastOrders) {
-	    if(!type.equals(mo.getDirection()))
+	for(int i = 0; i < n; i++) {
+	    if(fills.isBuy(i) != buy)
 		continue;
-	    final long volume = mo.getFilledVolume();
+	    final long volume = fills.getFilledVolume(i);
 	    if(volume > max) {
 		max = volume;
 	    }
@@ -168,12 +265,12 @@ public final class LinkedOrderBook implements OrderBook {
 	return max;
     }
 
-    private long getMaxTrade(final Direction type) {
+    private long getMaxTrade(final boolean buy, final int n) {
 	long max = 0;
-	for(final Trade s : t_and_s) {
-	    if(!type.equals(s.getDirection()))
+	for(int i = 0; i < n; i++) {
+	    if(trades.isBuy(i) != buy)
 		continue;
-	    final long volume = s.getVolume();
+	    final long volume = trades.getVolume(i);
 	    if(volume > max) {
 		max = volume;
 	    }
@@ -181,12 +278,12 @@ public final class LinkedOrderBook implements OrderBook {
 	return max;
     }
 
-    private long getMaxCancel(final Direction type) {
+    private long getMaxCancel(final boolean buy, final int n) {
 	long max = 0;
-	for(final Cancel c : lastCancels) {
-	    if(!type.equals(c.getType()))
+	for(int i = 0; i < n; i++) {
+	    if(cancels.isBuy(i) != buy)
 		continue;
-	    final long volume = c.getAmount();
+	    final long volume = cancels.getAmount(i);
 	    if(volume > max) {
 		max = volume;
 	    }
@@ -196,19 +293,19 @@ public final class LinkedOrderBook implements OrderBook {
 
     private void addFilledMo(final MarketOrder mo) {
 	final long filledVolume = mo.getFilledVolume();
-	if(lastOrders.size() == 100) {
-	    final MarketOrder first = lastOrders.removeFirst();
-	    final long firstFilledVolume = first.getFilledVolume();
-	    if(first.getDirection().equals(Direction.BUY)) {
+	if(fills.size() >= LAST) {
+	    // the oldest of the last 100 drops out.
+	    final long firstFilledVolume = fills.getFilledVolume(LAST - 1);
+	    if(fills.isBuy(LAST - 1)) {
 		state.moLast100BuyVol -= firstFilledVolume;
 		if(firstFilledVolume == state.moLast100BuyMax) {
-		    state.moLast100BuyMax = getMaxFill(Direction.BUY);
+		    state.moLast100BuyMax = getMaxFill(true, LAST - 1);
 		}
 		state.moLast100Buy--;
 	    } else {
 		state.moLast100SellVol -= firstFilledVolume;
 		if(firstFilledVolume == state.moLast100SellMax) {
-		    state.moLast100SellMax = getMaxFill(Direction.SELL);
+		    state.moLast100SellMax = getMaxFill(false, LAST - 1);
 		}
 	    }
 	}
@@ -221,7 +318,7 @@ public final class LinkedOrderBook implements OrderBook {
 	    if(state.moActiveBuys == 0) {
 		state.moBuyTip = 0;
 	    } else {
-		state.moBuyTip = asks.getMarketImpact(buyMarketOrders);
+		state.moBuyTip = buyTip.get(buyMarketOrders);
 	    }
 
 	    state.totalMoBuyVol += filledVolume;
@@ -235,19 +332,39 @@ public final class LinkedOrderBook implements OrderBook {
 	    if(state.moActiveSells == 0) {
 		state.moSellTip = 0;
 	    } else {
-		state.moSellTip = bids.getMarketImpact(sellMarketOrders);
+		state.moSellTip = sellTip.get(sellMarketOrders);
 	    }
 	    	    
 	    state.totalMoSellVol += filledVolume;
 	    state.totalMoSells++;
 
 	}
-	lastOrders.addLast(mo);
+	final OrderInfo o = mo.getOrder();
+	fills.add(mo.getDirection(), o.getLimitPrice(), mo.getInitialVolume(), filledVolume,
+		  o.getExchangeTimestamp(), parseId(o.getexchangeOrderId()));
     }
 	
+    // addSale as it took a Trade, kept for existing callers.
+    @Deprecated
     public void addSale(final Trade s) {
-	final long volumeRemoved = s.getVolume();
-	final int price = s.getPrice();
+	addSale(s.getDirection(), s.getPrice(), s.getVolume(), s.getMakerTimestamp(),
+		s.getMakerIdentifier(), s.getTakerIdentifier());
+    }
+
+    // numeric id for the rings, counting those which are not.
+    private long parseId(final String id) {
+	final long v = Util.parseId(id);
+	if(v == Util.UNPARSED_ID)
+	    metrics.unparsedIds++;
+	return v;
+    }
+
+    // record a trade: type is the taker's side, maker the filled order's
+    // exchange timestamp (and id).
+    private void addSale(final Direction type, final int price, final long volumeRemoved,
+			 final long makerTs, final String makerId, final String takerId) {
+	path = Latencies.TRADE;
+	final boolean buy = type.equals(Direction.BUY);
 
 	if(price > state.highestPrice) {
 	    state.highestPrice = price;
@@ -255,47 +372,52 @@ public final class LinkedOrderBook implements OrderBook {
 	    state.lowestPrice = price;
 	}
 	
-	if(t_and_s.size() == 100) {
-	    final Trade first = t_and_s.removeFirst();
-	    final long firstVol = first.getVolume();
-	    if(first.getDirection().equals(Direction.BUY)) {
+	if(trades.size() >= LAST) {
+	    final long firstVol = trades.getVolume(LAST - 1);
+	    if(trades.isBuy(LAST - 1)) {
 		if(firstVol == state.moLast100BuyTradeMax) {
-		    state.moLast100BuyTradeMax = getMaxTrade(Direction.BUY);
+		    state.moLast100BuyTradeMax = getMaxTrade(true, LAST - 1);
 		}
 		state.moLast100BuyTrades--;
 		state.moLast100BuyTradeVol -= firstVol;
 	    } else {
 		if(firstVol == state.moLast100SellTradeMax) {
-		    state.moLast100SellTradeMax = getMaxTrade(Direction.SELL);
+		    state.moLast100SellTradeMax = getMaxTrade(false, LAST - 1);
 		}
 		state.moLast100SellTradeVol -= firstVol;
 	    }
 	}
 
-	if(s.getDirection().equals(Direction.BUY)) {
+	if(buy) {
 	    if(volumeRemoved > state.moLast100BuyTradeMax) {
 		state.moLast100BuyTradeMax = volumeRemoved;
 	    }
 	    state.moLast100BuyTrades++;
 	    state.moLast100BuyTradeVol += volumeRemoved;	        
 	    state.totalAskVol -= volumeRemoved;    
-	    prune(s, asks);
-	    state.askPercentile = getPercentileVwap(state.bestAsk, Percentile.PERCENTILE_STEP_SIZE, Percentile.PERCENTILE_STEPS);
-	    state.buyImpact = asks.getMarketImpact(State.impactPoints);
+	    prune(buy, price, makerTs, asks);
+	    updateAskIndicators();
 	} else {
 	    if(volumeRemoved > state.moLast100SellTradeMax) {
 		state.moLast100SellTradeMax = volumeRemoved;
 	    }
 	    state.moLast100SellTradeVol += volumeRemoved;
 	    state.totalBidVol -= volumeRemoved;
-	    prune(s, bids);
-	    state.bidPercentile = getPercentileVwap(state.bestBid, Percentile.PERCENTILE_STEP_SIZE, Percentile.PERCENTILE_STEPS);
-	    state.sellImpact = bids.getMarketImpact(State.impactPoints);
+	    prune(buy, price, makerTs, bids);
+	    updateBidIndicators();
 	}
 	state.event++;
-	state.ts = System.currentTimeMillis();
-	state.lastTrade = s;
-	t_and_s.addLast(s);
+	state.ts = clock.currentTimeMillis();
+	final long taker = parseId(takerId);
+	final long maker = parseId(makerId);
+	state.lastTradeSeq = trades.add(type, price, volumeRemoved, state.ts, makerTs, taker, maker) + 1;
+	state.lastTradeTs = state.ts;
+	state.lastTradePrice = price;
+	state.lastTradeVolume = volumeRemoved;
+	state.lastTradeDirection = buy ? 1 : -1;
+	state.lastTradeTaker = taker;
+	state.lastTradeMaker = maker;
+	indicators.onTrade(lastTrade.at(0));
     }
     
 
@@ -310,25 +432,25 @@ public final class LinkedOrderBook implements OrderBook {
 		final String id = o.getexchangeOrderId();
 		orphanedVolume += orders.remOrder(id);
 		orders.getDeadPool().add(id);
+		metrics.orphanedOrders++;
 	    }
 	    lo = next;
 	}
 	return orphanedVolume;
     }
 
-    private void prune(final Trade s, Orders orders) {
+    private void prune(final boolean buy, final int price, final long hitTimestamp, Orders orders) {
 	final Limit best = orders.getBest();
 	if(best!=null) {
-            final long hitTimestamp = s.getMakerTimestamp();
 	    final int existingOrders = best.getOrders();
-	    if(s.getDirection().equals(Direction.BUY)) {
-		if(s.getPrice() > best.getPrice()) {
+	    if(buy) {
+		if(price > best.getPrice()) {
 		    // ask side.
 		    state.totalAskVol -= removeOrphanedOrders(best, orders, hitTimestamp);
 		    state.totalAsks -= existingOrders - best.getOrders();
 		}
 	    } else {
-		if(s.getPrice() < best.getPrice()) {
+		if(price < best.getPrice()) {
 		    // bid side.
 		    state.totalBidVol -= removeOrphanedOrders(best, orders, hitTimestamp);
 		    state.totalBids -= existingOrders - best.getOrders();
@@ -337,18 +459,17 @@ public final class LinkedOrderBook implements OrderBook {
 	}
     }
 
-    private void addCancel(final Cancel c) {
-	final long volumeCancelled = c.getAmount();
+    private void addCancel(final String id, final Direction type, final int price, final long volumeCancelled) {
+	path = Latencies.CANCEL;
 	
-	if(lastCancels.size() == 100) {
+	if(cancels.size() >= LAST) {
 	    
-	    final Cancel first = lastCancels.removeFirst();
-	    final long firstVol = first.getAmount();
+	    final long firstVol = cancels.getAmount(LAST - 1);
 	    
-	    if(first.getType().equals(Direction.BUY)) {
+	    if(cancels.isBuy(LAST - 1)) {
 	
 		if(firstVol == state.bidLast100CancelMax) {
-		    state.bidLast100CancelMax = getMaxCancel(Direction.BUY);
+		    state.bidLast100CancelMax = getMaxCancel(true, LAST - 1);
 		}
 
 		state.bidLast100Cancel--;
@@ -357,23 +478,21 @@ public final class LinkedOrderBook implements OrderBook {
 	    } else {
 		
 		if(firstVol == state.askLast100CancelMax) {
-		    state.askLast100CancelMax = getMaxCancel(Direction.SELL);
+		    state.askLast100CancelMax = getMaxCancel(false, LAST - 1);
 		}
 
 		state.askLast100CancelVolume -= firstVol;
 	    }
 	}
 
-	if(c.getType().equals(Direction.BUY)) {
+	if(type.equals(Direction.BUY)) {
 
 	    if(volumeCancelled > state.bidLast100CancelMax) {
 		state.bidLast100CancelMax = volumeCancelled;
 	    }
 
 	    state.totalBidVol -= volumeCancelled;
-	    //state.bidPercentile = getPercentileVwap(state.bestBid, 0.05);
-	    state.bidPercentile = getPercentileVwap(state.bestBid, Percentile.PERCENTILE_STEP_SIZE, Percentile.PERCENTILE_STEPS);
-	    state.sellImpact = bids.getMarketImpact(State.impactPoints);
+	    updateBidIndicators();
 
 	    state.bidLast100Cancel++;
 	    state.bidLast100CancelVolume += volumeCancelled;	        
@@ -384,18 +503,39 @@ public final class LinkedOrderBook implements OrderBook {
 	    }
 
 	    state.totalAskVol -= volumeCancelled;
-	    //state.askPercentile = getPercentileVwap(state.bestAsk, 0.05);
-	    state.askPercentile = getPercentileVwap(state.bestAsk, Percentile.PERCENTILE_STEP_SIZE, Percentile.PERCENTILE_STEPS);
-	    state.buyImpact = asks.getMarketImpact(State.impactPoints);
+	    updateAskIndicators();
 
 	    state.askLast100CancelVolume += volumeCancelled;
 	}
 
 	state.event++;
-	state.ts = System.currentTimeMillis();
-	lastCancels.addLast(c);
+	state.ts = clock.currentTimeMillis();
+	cancels.add(type, price, volumeCancelled, state.ts, parseId(id));
+	indicators.onCancel(lastCancel.at(0));
     }  
 	
+    private void updateBidIndicators() {
+	if(batching) {
+	    bidsChanged = true;
+	    return;
+	}
+	final long t0 = System.nanoTime();
+	state.bidPercentile = getPercentileVwap(state.bestBid, Percentile.PERCENTILE_STEP_SIZE, Percentile.PERCENTILE_STEPS);
+	state.sellImpact = bids.getMarketImpact(State.impactPoints);
+	latencies.record(Latencies.INDICATORS, System.nanoTime() - t0);
+    }
+
+    private void updateAskIndicators() {
+	if(batching) {
+	    asksChanged = true;
+	    return;
+	}
+	final long t0 = System.nanoTime();
+	state.askPercentile = getPercentileVwap(state.bestAsk, Percentile.PERCENTILE_STEP_SIZE, Percentile.PERCENTILE_STEPS);
+	state.buyImpact = asks.getMarketImpact(State.impactPoints);
+	latencies.record(Latencies.INDICATORS, System.nanoTime() - t0);
+    }
+
     private Percentile[] getPercentileVwap(final Limit best, final double stepSize, final int steps) {
 	final Percentile[] p = new Percentile[steps];
 
@@ -447,9 +587,98 @@ public final class LinkedOrderBook implements OrderBook {
 	return p;
     }
 
-  public void addOrder(final OrderEvent oe) {
-        final OrderInfo o = oe.getOrderInfo();    
+    // during a batch, the derived state of each side (percentiles and
+    // market impact) is recomputed once at the end, if the side changed,
+    // rather than after every event. everything else (trades, cancels, mo
+    // tips, indicators, metrics) is still per event.
+    private boolean batching = false;
+    private boolean bidsChanged = false;
+    private boolean asksChanged = false;
+    private final BookFeedHandler batchHandler = new BookFeedHandler(this);
+
+    private void endBatch() {
+	batching = false;
+	if(bidsChanged) {
+	    bidsChanged = false;
+	    updateBidIndicators();
+	}
+	if(asksChanged) {
+	    asksChanged = false;
+	    updateAskIndicators();
+	}
+    }
+
+    public void applyBatch(final OrderEvent[] events, final int offset, final int length) {
+	batching = true;
+	try {
+	    for(int i = offset, end = offset + length; i < end; i++) {
+		final OrderEvent oe = events[i];
+		switch(oe.getState()) {
+		case CREATED:
+		    addOrder(oe);
+		    break;
+		case UPDATED:
+		    modOrder(oe);
+		    break;
+		case DELETED:
+		    delOrder(oe);
+		    break;
+		}
+	    }
+	} finally {
+	    endBatch();
+	}
+    }
+
+    public void applyBatch(final OrderBatch batch) {
+	batching = true;
+	try {
+	    batch.replay(batchHandler);
+	} finally {
+	    endBatch();
+	}
+    }
+
+    public void addOrder(final OrderEvent oe) {
+	addOrder(oe.getDirection(), oe.getOrderInfo());
+    }
+
+    public void modOrder(final OrderEvent oe) {
+	modOrder(oe.getDirection(), oe.getOrderInfo());
+    }
+
+    public void delOrder(final OrderEvent oe) {
+	delOrder(oe.getDirection(), oe.getOrderInfo());
+    }
+
+    public void addOrder(final Direction type, final OrderInfo o) {
+	final long t0 = System.nanoTime();
+	metrics.adds++;
+	path = Latencies.DISCARD;
+	clock.advance(o.getExchangeTimestamp());
+	add(type, o);
+	latencies.record(Latencies.ADD, path, System.nanoTime() - t0);
+    }
+
+    public void modOrder(final Direction type, final OrderInfo o) {
+	final long t0 = System.nanoTime();
+	metrics.mods++;
+	path = Latencies.DISCARD;
+	clock.advance(o.getExchangeTimestamp());
+	mod(type, o);
+	latencies.record(Latencies.MOD, path, System.nanoTime() - t0);
+    }
 
+    public void delOrder(final Direction type, final OrderInfo o) {
+	final long t0 = System.nanoTime();
+	metrics.dels++;
+	path = Latencies.DISCARD;
+	clock.advance(o.getExchangeTimestamp());
+	del(type, o);
+	latencies.record(Latencies.DEL, path, System.nanoTime() - t0);
+    }
+
+    private void add(final Direction type, final OrderInfo o) {
         long exchangeTs = o.getExchangeTimestamp();
         if(firstNewOrderTs == 4102444800L)
             firstNewOrderTs = exchangeTs; 
@@ -459,7 +688,6 @@ public final class LinkedOrderBook implements OrderBook {
         purgeStaleBuyMos(exchangeTs);
         purgeStaleSellMos(exchangeTs);
 
-        final Direction type = oe.getDirection();
 	final int priceIdx = o.getLimitPrice(); 
 	final long volSatoshi = o.getVolume();
 
@@ -467,30 +695,34 @@ public final class LinkedOrderBook implements OrderBook {
 	
 	if(type.equals(Direction.BUY)) {
 
-	    if(bids.getDeadPool().contains(id))
+	    if(bids.getDeadPool().contains(id)) {
+		metrics.deadPoolHits++;
 		return; // discard stale information.
+	    }
 
 	    final Limit best = asks.getBest();
 	    if(best != null && best.getPrice() <= priceIdx) {
 		// book crossed: put in bid market order map.
 		if(!buyMarketOrders.containsKey(id)) {
-		    buyMarketOrders.put(id, new MarketOrder(o, Direction.BUY));
+		    addBuyMo(o);
+		    metrics.crossedInsertions++;
 		    state.event++;
-		    state.ts = System.currentTimeMillis();
+		    state.ts = clock.currentTimeMillis();
 		    state.moActiveBuys++;
+		    path = Latencies.CROSSED_MO;
 		    state.moOutstandingBuyVolume+=volSatoshi;
-		    state.moBuyTip = asks.getMarketImpact(buyMarketOrders);
+		    state.moBuyTip = buyTip.get(buyMarketOrders);
 		} 
 		// else inserted before from modOrder(), discard stale information.
 	    } else {
 		// put in buy side of limit order book.
 		bids.addOrder(o);	
 		state.event++;
-		state.ts = System.currentTimeMillis();
+		state.ts = clock.currentTimeMillis();
 		state.totalBids++;
 		state.totalBidVol += volSatoshi;
-		state.bidPercentile = getPercentileVwap(state.bestBid, Percentile.PERCENTILE_STEP_SIZE, Percentile.PERCENTILE_STEPS);
-		state.sellImpact = bids.getMarketImpact(State.impactPoints);
+		path = Latencies.LIMIT_INSERT;
+		updateBidIndicators();
 	    }
 	}else{
 	    if(priceIdx >= 1000000) {
@@ -498,41 +730,42 @@ public final class LinkedOrderBook implements OrderBook {
 		return;
 	    }
 
-	    if(asks.getDeadPool().contains(id))
+	    if(asks.getDeadPool().contains(id)) {
+		metrics.deadPoolHits++;
 		return;
+	    }
 
 	    final Limit best = bids.getBest();
 	    if(best != null && best.getPrice() >= priceIdx) {
 
 		// book crossed: put in ask market order map.
 		if(!sellMarketOrders.containsKey(id)) {
-		    sellMarketOrders.put(id, new MarketOrder(o, Direction.SELL));
+		    addSellMo(o);
+		    metrics.crossedInsertions++;
 		    state.event++;
-		    state.ts = System.currentTimeMillis();
+		    state.ts = clock.currentTimeMillis();
 		    state.moActiveSells++;
+		    path = Latencies.CROSSED_MO;
 		    state.moOutstandingSellVolume+=volSatoshi;
-		    state.moSellTip = bids.getMarketImpact(sellMarketOrders);
+		    state.moSellTip = sellTip.get(sellMarketOrders);
 		}
 	    } else {
 		// put in ask side of limit order book.
 		asks.addOrder(o);
 		state.event++;
-		state.ts = System.currentTimeMillis();
+		state.ts = clock.currentTimeMillis();
 		state.totalAsks++;
 		state.totalAskVol += volSatoshi;
-		state.askPercentile = getPercentileVwap(state.bestAsk, Percentile.PERCENTILE_STEP_SIZE, Percentile.PERCENTILE_STEPS);
-		state.buyImpact = asks.getMarketImpact(State.impactPoints);
+		path = Latencies.LIMIT_INSERT;
+		updateAskIndicators();
 	    }
 	}
     }
 
-    public void modOrder(final OrderEvent oe) {
-        final OrderInfo o = oe.getOrderInfo();
-
+    private void mod(final Direction type, final OrderInfo o) {
         if(o.getExchangeTimestamp() < firstNewOrderTs)
             return;
 
-        final Direction type = oe.getDirection();
 	final int priceIdx = o.getLimitPrice();
         final long volSatoshi = o.getVolume();
 
@@ -540,8 +773,10 @@ public final class LinkedOrderBook implements OrderBook {
 
 	if(type.equals(Direction.BUY)) {
 	    
-	    if(bids.getDeadPool().contains(id))
+	    if(bids.getDeadPool().contains(id)) {
+		metrics.deadPoolHits++;
 		return;
+	    }
 
 	    final LimitOrder existingOrder = bids.getOrder(id);
 	    if(existingOrder!=null && existingOrder.getOrder().getLimitPrice() != priceIdx) {
@@ -552,11 +787,10 @@ public final class LinkedOrderBook implements OrderBook {
 		// update state
 		state.totalBids--;
 		state.totalBidVol -= volumeRemoved;
-		state.bidPercentile = getPercentileVwap(state.bestBid, Percentile.PERCENTILE_STEP_SIZE, Percentile.PERCENTILE_STEPS);
-		state.sellImpact = bids.getMarketImpact(State.impactPoints);
+		updateBidIndicators();
 
 		// add back as a new order.
-		addOrder(oe);	
+		add(type, o);	
 	
 		return;
 	    }
@@ -570,10 +804,11 @@ public final class LinkedOrderBook implements OrderBook {
 		    bmo.setVolume(volSatoshi);
 		    final long delta = bmoVol - volSatoshi;
 		    state.moOutstandingBuyVolume -= delta;
+		    path = Latencies.CROSSED_MO;
 		    state.event++;
-		    state.ts = System.currentTimeMillis();
+		    state.ts = clock.currentTimeMillis();
 		    if(pruneBuyMo(mo)) {
-			buyMarketOrders.remove(id);
+			removeBuyMo(id);
 		    }
 		}
 	    } else {
@@ -581,12 +816,14 @@ public final class LinkedOrderBook implements OrderBook {
 		// (should have seen new order first) -add it to market orders map.
 		final Limit best = asks.getBest();
 		if(best != null && best.getPrice() <= priceIdx) {
-		    buyMarketOrders.put(id, new MarketOrder(o, Direction.BUY));
+		    addBuyMo(o);
+		    metrics.crossedInsertions++;
 		    state.event++;
-		    state.ts = System.currentTimeMillis();
+		    state.ts = clock.currentTimeMillis();
 		    state.moActiveBuys++;
+		    path = Latencies.CROSSED_MO;
 		    state.moOutstandingBuyVolume+=volSatoshi;
-		    state.moBuyTip = asks.getMarketImpact(buyMarketOrders);
+		    state.moBuyTip = buyTip.get(buyMarketOrders);
 		} else {
 		    // send it to limit order book.
 		    final long volRemoved = bids.modOrder(o);
@@ -594,26 +831,26 @@ public final class LinkedOrderBook implements OrderBook {
 		    if(volRemoved == 0) {
 			// was inserted as a new (bid) order.
 			state.event++;
-			state.ts = System.currentTimeMillis();
+			state.ts = clock.currentTimeMillis();
 			state.totalBids++;
 			state.totalBidVol += volSatoshi;
-			//state.bidPercentile = getPercentileVwap(state.bestBid, 0.05);
-			state.bidPercentile = getPercentileVwap(state.bestBid, Percentile.PERCENTILE_STEP_SIZE, Percentile.PERCENTILE_STEPS);
-			state.sellImpact = bids.getMarketImpact(State.impactPoints);
+			path = Latencies.LIMIT_INSERT;
+			updateBidIndicators();
 		    } else if(volRemoved > 0) {
 			// a modified buy order, if in the order book, is a partial fill from some
 			// sell market order: liquidity is being removed. log a sale in t&s (will
 			// be the tip of the knife so to speak).
-			final String takerId = getFirstKey(sellMarketOrders);
+			final String takerId = oldestId(sellMoQueue);
 			final String makerId = o.getexchangeOrderId();
-			final Trade s = new Trade(Direction.SELL, priceIdx, volRemoved, System.currentTimeMillis(), o.getExchangeTimestamp(), null, makerId, takerId); 
-			addSale(s);
+			addSale(Direction.SELL, priceIdx, volRemoved, o.getExchangeTimestamp(), makerId, takerId);
 		    }
 		}
 	    }
 	} else {
-	    if(asks.getDeadPool().contains(id))
+	    if(asks.getDeadPool().contains(id)) {
+		metrics.deadPoolHits++;
 		return;
+	    }
 
 	    final LimitOrder existingOrder = asks.getOrder(id);
 	    if(existingOrder!=null && existingOrder.getOrder().getLimitPrice() != priceIdx) {
@@ -623,11 +860,10 @@ public final class LinkedOrderBook implements OrderBook {
 		// update state
 		state.totalAsks--;
 		state.totalAskVol -= volumeRemoved;
-		state.askPercentile = getPercentileVwap(state.bestAsk, Percentile.PERCENTILE_STEP_SIZE, Percentile.PERCENTILE_STEPS);
-		state.buyImpact = asks.getMarketImpact(State.impactPoints);
+		updateAskIndicators();
 
 		// add back as a new order.
-		addOrder(oe);
+		add(type, o);
 		
 		return;
 	    }
@@ -640,66 +876,66 @@ public final class LinkedOrderBook implements OrderBook {
 		    smo.setVolume(volSatoshi);
 		    final long delta = smoVol - volSatoshi;
 		    state.moOutstandingSellVolume -= delta;
+		    path = Latencies.CROSSED_MO;
 		    state.event++;
-		    state.ts = System.currentTimeMillis();
+		    state.ts = clock.currentTimeMillis();
 		    if(pruneSellMo(mo)) {
-			sellMarketOrders.remove(id);
+			removeSellMo(id);
 		    }
 		}
 	    } else {
 		final Limit best = bids.getBest();
 		if(best != null && best.getPrice() >= priceIdx) {
-		    sellMarketOrders.put(id, new MarketOrder(o, Direction.SELL));
+		    addSellMo(o);
+		    metrics.crossedInsertions++;
 		    state.event++;
-		    state.ts = System.currentTimeMillis();
+		    state.ts = clock.currentTimeMillis();
 		    state.moActiveSells++;
+		    path = Latencies.CROSSED_MO;
 		    state.moOutstandingSellVolume+=volSatoshi;
-		    state.moSellTip = bids.getMarketImpact(sellMarketOrders);
+		    state.moSellTip = sellTip.get(sellMarketOrders);
 	        } else {
 		    final long volRemoved = asks.modOrder(o);
 
 		    if(volRemoved == 0) {
 			// was inserted as a new (ask) order.
 			state.event++;
-			state.ts = System.currentTimeMillis();
+			state.ts = clock.currentTimeMillis();
 			state.totalAsks++;
 			state.totalAskVol += volSatoshi;
-			state.askPercentile = getPercentileVwap(state.bestAsk, Percentile.PERCENTILE_STEP_SIZE, Percentile.PERCENTILE_STEPS);
-			state.buyImpact = asks.getMarketImpact(State.impactPoints);
+			path = Latencies.LIMIT_INSERT;
+			updateAskIndicators();
 		    } else if(volRemoved > 0) {
-			final String takerId = getFirstKey(buyMarketOrders);
+			final String takerId = oldestId(buyMoQueue);
 			final String makerId = o.getexchangeOrderId();
-		        final Trade s = new Trade(Direction.BUY, priceIdx, volRemoved, System.currentTimeMillis(), o.getExchangeTimestamp(), null, makerId, takerId);
-			addSale(s);
+		        addSale(Direction.BUY, priceIdx, volRemoved, o.getExchangeTimestamp(), makerId, takerId);
 		    }
 		}
 	    }
 	}
     }
 
-    public void delOrder(final OrderEvent oe) {
-        final OrderInfo o = oe.getOrderInfo();
-
+    private void del(final Direction type, final OrderInfo o) {
         if(o.getExchangeTimestamp() < firstNewOrderTs)
             return;
 
         final String id = o.getexchangeOrderId();
-        final Direction type = oe.getDirection();
         final int priceIdx = o.getLimitPrice();
         final long volSatoshi = o.getVolume();
 
 	final boolean completeFill = (volSatoshi == 0);
 
-	state.ts = System.currentTimeMillis();
+	state.ts = clock.currentTimeMillis();
 	  
 	if(type.equals(Direction.BUY)) {
 	    bids.getDeadPool().add(id);
 	    if(buyMarketOrders.containsKey(id)) {
-		final MarketOrder mo = buyMarketOrders.remove(id);
+		final MarketOrder mo = removeBuyMo(id);
 		final OrderInfo moOrderInfo = mo.getOrder();
 		final long unFilledVolume = (completeFill ? 0 : moOrderInfo.getVolume());
 		final long filledVolume = mo.getInitialVolume() - unFilledVolume;
 		mo.setFilledVolume(filledVolume);
+		path = Latencies.CROSSED_MO;
 		state.moActiveBuys--;
 		state.moOutstandingBuyVolume -= (completeFill ? moOrderInfo.getVolume() : unFilledVolume);
 		addFilledMo(mo);
@@ -707,13 +943,12 @@ public final class LinkedOrderBook implements OrderBook {
 		final long volRemoved = bids.remOrder(id);
 		if(volRemoved > 0) { // -1 = unknown id.
 		    if(completeFill) {
-			final String takerId = getFirstKey(sellMarketOrders);
+			final String takerId = oldestId(sellMoQueue);
 			final String makerId = id;
-		        final Trade s = new Trade(Direction.SELL, priceIdx, volRemoved, System.currentTimeMillis(), o.getExchangeTimestamp(), null, makerId, takerId);
-			addSale(s);
+		        addSale(Direction.SELL, priceIdx, volRemoved, o.getExchangeTimestamp(), makerId, takerId);
 		    } else {
 			// trader removed after a partial fill or cancelled before any fill
-			addCancel(new Cancel(id, Direction.BUY, volRemoved));
+			addCancel(id, Direction.BUY, priceIdx, volRemoved);
 		    }
 		    state.totalBids--;
 		}
@@ -721,11 +956,12 @@ public final class LinkedOrderBook implements OrderBook {
 	} else {
 	    asks.getDeadPool().add(id);
 	    if(sellMarketOrders.containsKey(id)) {
-		final MarketOrder mo = sellMarketOrders.remove(id);
+		final MarketOrder mo = removeSellMo(id);
 		final OrderInfo moOrderInfo = mo.getOrder();
 		final long unFilledVolume = (completeFill ? 0 : moOrderInfo.getVolume());
 		final long filledVolume = mo.getInitialVolume() - unFilledVolume;
 		mo.setFilledVolume(filledVolume);
+		path = Latencies.CROSSED_MO;
 		state.moActiveSells--;
 		state.moOutstandingSellVolume -= (completeFill ? moOrderInfo.getVolume() : unFilledVolume);
 		addFilledMo(mo);
@@ -733,12 +969,11 @@ public final class LinkedOrderBook implements OrderBook {
 		final long volRemoved = asks.remOrder(id);
 		if(volRemoved > 0) {
 		    if(completeFill){
-			final String takerId = getFirstKey(buyMarketOrders);
+			final String takerId = oldestId(buyMoQueue);
 			final String makerId = id;
-			final Trade s = new Trade(Direction.BUY, priceIdx, volRemoved, System.currentTimeMillis(), o.getExchangeTimestamp(), null, makerId, takerId);
-			addSale(s);
+			addSale(Direction.BUY, priceIdx, volRemoved, o.getExchangeTimestamp(), makerId, takerId);
 		    } else {
-			addCancel(new Cancel(id, Direction.SELL, volRemoved));
+			addCancel(id, Direction.SELL, priceIdx, volRemoved);
 		    }
 		    state.totalAsks--;
 		}
@@ -746,10 +981,249 @@ public final class LinkedOrderBook implements OrderBook {
 	}
     }
 
+    private long volume(final Orders orders) {
+	long volume = 0;
+	for(Limit l = orders.getBest(); l != null; l = l.getRightSibling())
+	    volume += l.getVolume();
+	return volume;
+    }
+
+    // apply the differences between one side of the book and the snapshot.
+    private int reconcile(final Orders orders, final Map<String, OrderInfo> snapshot) {
+	int changed = 0;
+	// live orders missing from the snapshot, or which have moved or grown
+	// (modOrder only takes volume away), are removed.
+	final ArrayList<String> remove = new ArrayList<String>();
+	for(Limit l = orders.getBest(); l != null; l = l.getRightSibling()) {
+	    for(LimitOrder lo = l.getHead(); lo != null; lo = lo.getRightSibling()) {
+		final OrderInfo o = lo.getOrder();
+		final OrderInfo s = snapshot.get(o.getexchangeOrderId());
+		if(s == null || s.getLimitPrice() != o.getLimitPrice() || s.getVolume() > o.getVolume()) {
+		    remove.add(o.getexchangeOrderId());
+		} else if(s.getVolume() < o.getVolume()) {
+		    orders.modOrder(s);
+		    changed++;
+		}
+	    }
+	}
+	for(int i = 0, len = remove.size(); i < len; i++) {
+	    final String id = remove.get(i);
+	    orders.remOrder(id);
+	    if(!snapshot.containsKey(id)) {
+		orders.getDeadPool().add(id);
+		changed++;
+	    }
+	}
+	// then (re)add what the book is missing, even if it was thought dead.
+	for(final OrderInfo s : snapshot.values()) {
+	    final String id = s.getexchangeOrderId();
+	    if(orders.getOrder(id) == null) {
+		orders.getDeadPool().remove(id);
+		orders.addOrder(Util.newOrderInfo(id, s.getLimitPrice(), s.getVolume(), s.getExchangeTimestamp()));
+		changed++;
+	    }
+	}
+	return changed;
+    }
+
+    // bring the book in line with a full snapshot of the exchange's book,
+    // taken at the current point of the stream, without rebuilding it: only
+    // the differences are applied. resting orders missing from the snapshot
+    // are removed (and dead pooled), missing ones are added and price or
+    // volume differences fixed. outstanding market orders are in flight, so
+    // they are dropped: the snapshot has them either resting (added back) or
+    // gone. no trades or cancels are inferred from the differences. returns
+    // the number of orders changed.
+    public int reconcile(final BookSnapshot snapshot) {
+	int changed = buyMarketOrders.size() + sellMarketOrders.size();
+	for(final String id : new ArrayList<String>(buyMarketOrders.keySet()))
+	    removeBuyMo(id);
+	for(final String id : new ArrayList<String>(sellMarketOrders.keySet()))
+	    removeSellMo(id);
+	changed += reconcile(bids, snapshot.getBids());
+	changed += reconcile(asks, snapshot.getAsks());
+
+	// the book now holds every live order: mods and dels of orders from
+	// before the first add are no longer unknown.
+	firstNewOrderTs = 0;
+
+	// counters from the book rather than patched.
+	state.totalBids = bids.getOrders();
+	state.totalAsks = asks.getOrders();
+	state.totalBidVol = volume(bids);
+	state.totalAskVol = volume(asks);
+	state.moActiveBuys = 0;
+	state.moActiveSells = 0;
+	state.moOutstandingBuyVolume = 0;
+	state.moOutstandingSellVolume = 0;
+	state.moBuyTip = buyTip.get(buyMarketOrders);
+	state.moSellTip = sellTip.get(sellMarketOrders);
+	updateBidIndicators();
+	updateAskIndicators();
+	state.event++;
+	state.ts = clock.currentTimeMillis();
+	metrics.reconciliations++;
+	metrics.reconciledOrders += changed;
+	return changed;
+    }
+
+    public final static int CHECKPOINT_VERSION = 1;
+
+    private static void writeMarketOrders(final DataOutput out, final LinkedHashMap<String,MarketOrder> marketOrders,
+					  final ExpiryWheel expiry) throws IOException {
+	out.writeLong(expiry.getCurrentTick());
+	out.writeInt(marketOrders.size());
+	for(final MarketOrder mo : marketOrders.values()) {
+	    final OrderInfo o = mo.getOrder();
+	    out.writeUTF(o.getexchangeOrderId());
+	    out.writeInt(o.getLimitPrice());
+	    out.writeLong(mo.getInitialVolume());
+	    out.writeLong(o.getVolume());
+	    out.writeLong(o.getExchangeTimestamp());
+	    out.writeLong(mo.getFilledVolume());
+	    out.writeInt(mo.getSlot());
+	}
+    }
+
+    private static void readMarketOrders(final DataInput in, final Direction type,
+					 final LinkedHashMap<String,MarketOrder> marketOrders, final MarketOrderQueue queue,
+					 final MarketOrderIndex index, final ExpiryWheel expiry) throws IOException {
+	expiry.restore(in.readLong());
+	for(int i = 0, n = in.readInt(); i < n; i++) {
+	    final String id = in.readUTF();
+	    final int price = in.readInt();
+	    final long initialVolume = in.readLong();
+	    final long volume = in.readLong();
+	    final OrderInfo o = Util.newOrderInfo(id, price, initialVolume, in.readLong());
+	    final MarketOrder mo = new MarketOrder(o, type);
+	    o.setVolume(volume);
+	    mo.setFilledVolume(in.readLong());
+	    marketOrders.put(id, mo);
+	    queue.add(mo);
+	    index.add(mo);
+	    expiry.restore(mo, in.readInt());
+	}
+    }
+
+    // the engine state at this point of the event stream (resting orders
+    // in queue order, dead pools, outstanding market orders and their
+    // expiry slots, trade/cancel/fill history, state counters and the
+    // clock), such that a new book restored from it (readCheckpoint) and
+    // fed the events which followed gives the same states as this one.
+    // indicators, metrics and latencies are not included: they start
+    // afresh in the restored book. see CheckpointWriter.
+    public void writeCheckpoint(final DataOutput out) throws IOException {
+	out.writeInt(CHECKPOINT_VERSION);
+	out.writeLong(buyMoExpiry.getHorizon());
+	out.writeLong(clock.currentTimeMillis());
+	out.writeLong(firstNewOrderTs);
+	state.writeTo(out);
+	bids.writeTo(out);
+	asks.writeTo(out);
+	writeMarketOrders(out, buyMarketOrders, buyMoExpiry);
+	writeMarketOrders(out, sellMarketOrders, sellMoExpiry);
+	trades.writeTo(out);
+	cancels.writeTo(out);
+	fills.writeTo(out);
+    }
+
+    // restore a checkpoint into a new book (same market order expiry).
+    public void readCheckpoint(final DataInput in) throws IOException {
+	if(state.event != 0 || bids.getOrders() != 0 || asks.getOrders() != 0)
+	    throw new IllegalStateException("book not empty");
+	final int version = in.readInt();
+	if(version != CHECKPOINT_VERSION)
+	    throw new IOException("unsupported checkpoint version " + version);
+	final long moExpiry = in.readLong();
+	if(moExpiry != buyMoExpiry.getHorizon())
+	    throw new IOException("checkpoint market order expiry " + moExpiry + " ms, book " + buyMoExpiry.getHorizon() + " ms");
+	clock.advance(in.readLong());
+	firstNewOrderTs = in.readLong();
+	state.readFrom(in);
+	// sets best bid/ask (no market orders to prune yet).
+	bids.readFrom(in);
+	asks.readFrom(in);
+	readMarketOrders(in, Direction.BUY, buyMarketOrders, buyMoQueue, buyMoIndex, buyMoExpiry);
+	readMarketOrders(in, Direction.SELL, sellMarketOrders, sellMoQueue, sellMoIndex, sellMoExpiry);
+	trades.readFrom(in);
+	cancels.readFrom(in);
+	fills.readFrom(in);
+    }
+
+    // default market order expiry (ms), -Dob.mo.expiry overrides.
+    public final static long MO_EXPIRY = 60000;
+
+    public LinkedOrderBook() {
+	this(new WallClock());
+    }
+
+    public LinkedOrderBook(final Clock clock) {
+	this(clock, Long.getLong("ob.mo.expiry", MO_EXPIRY));
+    }
+
+    public LinkedOrderBook(final Clock clock, final long moExpiry) {
+	this.clock = clock;
+	asks.setLevelListener(new LevelListener() {
+		public void onLevelChanged(final int price, final long delta) {
+		    indicators.onLevelDelta(Direction.SELL, price, delta);
+		}
+	    });
+	bids.setLevelListener(new LevelListener() {
+		public void onLevelChanged(final int price, final long delta) {
+		    indicators.onLevelDelta(Direction.BUY, price, delta);
+		}
+	    });
+	this.buyMoExpiry = new ExpiryWheel(moExpiry, new ExpiryWheel.Expired() {
+		public void onExpired(final MarketOrder mo) {
+		    final OrderInfo oi = mo.getOrder();
+		    state.moActiveBuys--;
+		    state.moOutstandingBuyVolume -= oi.getVolume();
+		    buyMarketOrders.remove(oi.getexchangeOrderId());
+		    buyMoQueue.remove(mo);
+		    buyMoIndex.remove(mo);
+		    purged = true;
+		    metrics.staleMoPurges++;
+		}
+	    });
+	this.sellMoExpiry = new ExpiryWheel(moExpiry, new ExpiryWheel.Expired() {
+		public void onExpired(final MarketOrder mo) {
+		    final OrderInfo oi = mo.getOrder();
+		    state.moActiveSells--;
+		    state.moOutstandingSellVolume -= oi.getVolume();
+		    sellMarketOrders.remove(oi.getexchangeOrderId());
+		    sellMoQueue.remove(mo);
+		    sellMoIndex.remove(mo);
+		    purged = true;
+		    metrics.staleMoPurges++;
+		}
+	    });
+    }
+
     public State getState() {
 	return state;
     }
 
+    public Latencies getLatencies() {
+	return latencies;
+    }
+
+    public BookMetrics getMetrics() {
+	return metrics;
+    }
+
+    public IndicatorSet getIndicators() {
+	return indicators;
+    }
+
+    // outstanding (crossed) market orders, in arrival order.
+    public Collection<MarketOrder> getBuyMarketOrders() {
+	return Collections.unmodifiableCollection(buyMarketOrders.values());
+    }
+
+    public Collection<MarketOrder> getSellMarketOrders() {
+	return Collections.unmodifiableCollection(sellMarketOrders.values());
+    }
+
     public Orders getBids() {
 	return bids;
     }
@@ -758,8 +1232,32 @@ public final class LinkedOrderBook implements OrderBook {
 	return asks;
     }
 
+    // the last trade, or null if none yet, as a new Trade: kept for existing
+    // callers, getTrades() (or the state's lastTrade fields) reads it without
+    // allocating.
+    @Deprecated
     public Trade getLastTrade() {
-	return t_and_s.getLast();
+	if(trades.size() == 0)
+	    return null;
+	final TradeRing.View t = trades.view().at(0);
+	return new Trade(t.getDirection(), t.getPrice(), t.getVolume(), t.getTimestamp(),
+			 t.getExchangeTimestamp(), null, id(t.getMaker()), id(t.getTaker()));
+    }
+
+    private static String id(final long id) {
+	return id != -1 ? Long.toString(id) : null;
+    }
+
+    public TradeRing getTrades() {
+	return trades;
+    }
+
+    public CancelRing getCancels() {
+	return cancels;
+    }
+
+    public FillRing getFills() {
+	return fills;
     }
 
     private String formatAskLevel(final double per, final long volSum, final Limit askLevel) {
@@ -791,7 +1289,8 @@ public final class LinkedOrderBook implements OrderBook {
 	final Limit[] asks = this.asks.getLevels(depth);
 	final Limit bestAsk = this.asks.getBest();
 	long bidVolSum = 0, askVolSum = 0;
-	final Iterator<Trade> t_and_s_it = t_and_s.descendingIterator();
+	final TradeRing.View sale = trades.view();
+	final int sales = trades.size();
 	for(int i = 0; i < depth; i++) {
 	    final Limit bid = bids[i];
 	    final Limit ask = asks[i];
@@ -818,8 +1317,8 @@ public final class LinkedOrderBook implements OrderBook {
 	    sb.append(formatBidLevel(bidPer, bidVolSum, bid))
 		.append(" | ")
 		.append(formatAskLevel(askPer, askVolSum, ask));
-	    if(t_and_s_it.hasNext()) {
-		final Trade sale = t_and_s_it.next();
+	    if(i < sales) {
+		sale.at(i);
 		//sb.append(" ").append(Util.tradeToString(sale));
                 sb.append(" ").append(sale.getDirection().equals(Direction.BUY) ? "+" : "-").append(Util.asBTC(sale.getVolume())).append(" @ ").append(Util.asUSD(sale.getPrice()));
 	    }
@@ -0,0 +1,84 @@
+package net.parasec.ob;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+// publishes the top of book (see TopOfBook) into a memory mapped file after
+// every update, for readers in other processes (MappedBookReader). no
+// syscalls, no allocation and no locking on the book thread.
+//
+// file layout, in native byte order:
+//
+//   0    int magic, int version, int depth, byte order (1 = little endian)
+//   64   long sequence (own cache line)
+//   128  TopOfBook record
+//
+// the record is guarded by a seqlock: the sequence is made odd before the
+// record is written and even after, a reader retries if it saw an odd
+// sequence or the sequence changed while it was copying. java 6 has no
+// fences, the stores are ordered with a volatile write in between (a full
+// fence on hotspot).
+public final class MappedBookPublisher implements OrderBookStream.Evt {
+
+    public final static int MAGIC = 0x4f425431;
+    public final static int VERSION = 1;
+
+    final static int DEPTH_OFFSET = 8;
+    final static int ORDER_OFFSET = 12;
+    final static int SEQUENCE_OFFSET = 64;
+    final static int RECORD_OFFSET = 128;
+
+    private final MappedByteBuffer buf;
+    private final TopOfBook tob;
+    private long sequence = 0;
+
+    private volatile int fence = 0;
+
+    public MappedBookPublisher(final File file, final int depth) throws IOException {
+	this.tob = new TopOfBook(depth);
+	final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	try {
+	    // the mapping stays valid after the channel is closed.
+	    buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, RECORD_OFFSET + TopOfBook.length(depth));
+	} finally {
+	    raf.close();
+	}
+	buf.order(ByteOrder.nativeOrder());
+	buf.putLong(SEQUENCE_OFFSET, 0);
+	tob.writeTo(buf, RECORD_OFFSET);
+	buf.put(ORDER_OFFSET, (byte) (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0));
+	buf.putInt(DEPTH_OFFSET, depth);
+	buf.putInt(4, VERSION);
+	fence = 0;
+	// magic last: a reader never sees a partial header.
+	buf.putInt(0, MAGIC);
+    }
+
+    public int getDepth() {
+	return tob.depth;
+    }
+
+    // number of records published (the sequence is twice this).
+    public long getPublished() {
+	return sequence >>> 1;
+    }
+
+    // only one thread may publish.
+    public void publish(final TopOfBook t) {
+	buf.putLong(SEQUENCE_OFFSET, ++sequence);
+	fence = 0;
+	t.writeTo(buf, RECORD_OFFSET);
+	fence = 0;
+	buf.putLong(SEQUENCE_OFFSET, ++sequence);
+    }
+
+    public void onUpdate(final OrderBook ob) {
+	// walk the book first, keeps the write window short.
+	publish(tob.fill(ob));
+    }
+}
@@ -0,0 +1,116 @@
+package net.parasec.ob;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+// reads the top of book published by a MappedBookPublisher (possibly in
+// another process) straight from the mapped file: polling is a few memory
+// reads, no syscalls. see MappedBookPublisher for the layout and seqlock.
+public final class MappedBookReader {
+
+    private final static int MAX_SPINS = 100;
+
+    private final MappedByteBuffer buf;
+    private final int depth;
+
+    // last sequence copied.
+    private long sequence = 0;
+    private long retries = 0;
+
+    private volatile int fence = 0;
+
+    public MappedBookReader(final File file) throws IOException {
+	final RandomAccessFile raf = new RandomAccessFile(file, "r");
+	try {
+	    final FileChannel ch = raf.getChannel();
+	    if(ch.size() < MappedBookPublisher.RECORD_OFFSET)
+		throw new IOException(file + ": not a top of book file");
+	    buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+	} finally {
+	    raf.close();
+	}
+	buf.order(buf.get(MappedBookPublisher.ORDER_OFFSET) == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+	if(buf.getInt(0) != MappedBookPublisher.MAGIC)
+	    throw new IOException(file + ": not a top of book file");
+	if(buf.getInt(4) != MappedBookPublisher.VERSION)
+	    throw new IOException(file + ": unsupported version " + buf.getInt(4));
+	depth = buf.getInt(MappedBookPublisher.DEPTH_OFFSET);
+	if(buf.capacity() < MappedBookPublisher.RECORD_OFFSET + TopOfBook.length(depth))
+	    throw new IOException(file + ": truncated");
+    }
+
+    public int getDepth() {
+	return depth;
+    }
+
+    // a record to read into.
+    public TopOfBook newTopOfBook() {
+	return new TopOfBook(depth);
+    }
+
+    // sequence of the last record copied (even, 0 before the first).
+    public long getSequence() {
+	return sequence;
+    }
+
+    // copies that were torn by a concurrent write and retried.
+    public long getRetries() {
+	return retries;
+    }
+
+    // true if the publisher has written since the last copy.
+    public boolean isUpdated() {
+	return buf.getLong(MappedBookPublisher.SEQUENCE_OFFSET) != sequence;
+    }
+
+    // copy the latest consistent record into t (of this reader's depth),
+    // spinning while a write is in progress. false if nothing has been
+    // published yet.
+    public boolean read(final TopOfBook t) {
+	int spins = 0;
+	while(true) {
+	    final long s1 = buf.getLong(MappedBookPublisher.SEQUENCE_OFFSET);
+	    if((s1 & 1) == 0) {
+		fence = 0;
+		t.readFrom(buf, MappedBookPublisher.RECORD_OFFSET);
+		fence = 0;
+		if(buf.getLong(MappedBookPublisher.SEQUENCE_OFFSET) == s1) {
+		    sequence = s1;
+		    return s1 != 0;
+		}
+	    }
+	    retries++;
+	    // the publisher may have been descheduled mid write, let it run.
+	    if(++spins > MAX_SPINS)
+		Thread.yield();
+	}
+    }
+
+    // copy into t only if there is a new record, false otherwise.
+    public boolean poll(final TopOfBook t) {
+	return isUpdated() && read(t);
+    }
+
+    // print the book whenever it changes.
+    public static void main(final String[] args) throws Exception {
+	if(args.length < 1) {
+	    System.err.println("usage: MappedBookReader <file> [<poll interval ms>]");
+	    System.exit(2);
+	}
+	final long interval = args.length > 1 ? Long.parseLong(args[1]) : 100;
+	final MappedBookReader r = new MappedBookReader(new File(args[0]));
+	final TopOfBook t = r.newTopOfBook();
+	while(true) {
+	    if(r.poll(t)) {
+		System.out.print("\u001b[2J\u001b[H");
+		System.out.println(t);
+	    }
+	    Thread.sleep(interval);
+	}
+    }
+}
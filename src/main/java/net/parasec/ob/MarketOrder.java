@@ -10,6 +10,19 @@ public final class MarketOrder {
     private long filledVolume = 0;
     private final Direction direction;    
 
+    // arrival sequence (see MarketOrderIndex).
+    private long seq;
+
+    // expiry wheel slot and links (see ExpiryWheel).
+    private long deadline;
+    private int slot = -1;
+    private MarketOrder leftSibling;
+    private MarketOrder rightSibling;
+
+    // arrival order links (see MarketOrderQueue).
+    private MarketOrder older;
+    private MarketOrder newer;
+
     public MarketOrder(final OrderInfo order, final Direction direction) {
 	this.order = order;
 	this.initialVolume = order.getVolume();
@@ -35,5 +48,68 @@ public final class MarketOrder {
     public Direction getDirection() {
 	return direction;
     }
+
+    public MarketOrder setSeq(final long seq) {
+	this.seq = seq;
+	return this;
+    }
+
+    public long getSeq() {
+	return seq;
+    }
+
+    public MarketOrder setDeadline(final long deadline) {
+	this.deadline = deadline;
+	return this;
+    }
+
+    public MarketOrder setSlot(final int slot) {
+	this.slot = slot;
+	return this;
+    }
+
+    public MarketOrder setLeftSibling(final MarketOrder leftSibling) {
+	this.leftSibling = leftSibling;
+	return this;
+    }
+
+    public MarketOrder setRightSibling(final MarketOrder rightSibling) {
+	this.rightSibling = rightSibling;
+	return this;
+    }
+
+    public long getDeadline() {
+	return deadline;
+    }
+
+    public int getSlot() {
+	return slot;
+    }
+
+    public MarketOrder getLeftSibling() {
+	return leftSibling;
+    }
+
+    public MarketOrder getRightSibling() {
+	return rightSibling;
+    }
+
+    public MarketOrder setOlder(final MarketOrder older) {
+	this.older = older;
+	return this;
+    }
+
+    public MarketOrder setNewer(final MarketOrder newer) {
+	this.newer = newer;
+	return this;
+    }
+
+    public MarketOrder getOlder() {
+	return older;
+    }
+
+    public MarketOrder getNewer() {
+	return newer;
+    }
 }
 
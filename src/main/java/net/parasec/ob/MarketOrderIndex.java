@@ -0,0 +1,118 @@
+package net.parasec.ob;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+// active market orders (one side) indexed by limit price, arrival order
+// within a price. when the best price on the other side of the book
+// changes, only the market orders which are no longer crossed need to be
+// visited: buy mos with limit < best ask, sell mos with limit > best bid.
+//
+// kept as one array sorted by price, then arrival, with the prices in a
+// parallel int array: there are only a handful of active market orders, so
+// shifting on add/remove is cheap and nothing is boxed or allocated (the
+// arrays only grow).
+public final class MarketOrderIndex {
+
+    private int[] prices = new int[16];
+    private MarketOrder[] orders = new MarketOrder[16];
+
+    private long seq = 0;
+    private int size = 0;
+
+    public int size() {
+	return size;
+    }
+
+    public void add(final MarketOrder mo) {
+	final int price = mo.getOrder().getLimitPrice();
+	if(size == orders.length) {
+	    prices = Arrays.copyOf(prices, size * 2);
+	    orders = Arrays.copyOf(orders, size * 2);
+	}
+	// the newest, so after every order at its price.
+	final int i = after(price);
+	System.arraycopy(prices, i, prices, i + 1, size - i);
+	System.arraycopy(orders, i, orders, i + 1, size - i);
+	prices[i] = price;
+	orders[i] = mo.setSeq(seq++);
+	size++;
+    }
+
+    public void remove(final MarketOrder mo) {
+	final int price = mo.getOrder().getLimitPrice();
+	int i = before(price);
+	while(i < size && prices[i] == price && orders[i] != mo)
+	    i++;
+	if(i == size || orders[i] != mo)
+	    return;
+	System.arraycopy(prices, i + 1, prices, i, size - i - 1);
+	System.arraycopy(orders, i + 1, orders, i, size - i - 1);
+	orders[--size] = null;
+    }
+
+    // true if there is a market order with limit price < price.
+    public boolean hasBelow(final int price) {
+	return size > 0 && prices[0] < price;
+    }
+
+    // true if there is a market order with limit price > price.
+    public boolean hasAbove(final int price) {
+	return size > 0 && prices[size - 1] > price;
+    }
+
+    // collect market orders with limit price < price, in arrival order.
+    public void below(final int price, final List<MarketOrder> out) {
+	collect(0, before(price), out);
+    }
+
+    // collect market orders with limit price > price, in arrival order.
+    public void above(final int price, final List<MarketOrder> out) {
+	collect(after(price), size, out);
+    }
+
+    // index of the first order with limit price >= price.
+    private int before(final int price) {
+	int lo = 0, hi = size;
+	while(lo < hi) {
+	    final int mid = (lo + hi) >>> 1;
+	    if(prices[mid] < price)
+		lo = mid + 1;
+	    else
+		hi = mid;
+	}
+	return lo;
+    }
+
+    // index of the first order with limit price > price.
+    private int after(final int price) {
+	int lo = 0, hi = size;
+	while(lo < hi) {
+	    final int mid = (lo + hi) >>> 1;
+	    if(prices[mid] <= price)
+		lo = mid + 1;
+	    else
+		hi = mid;
+	}
+	return lo;
+    }
+
+    private void collect(final int from, final int to, final List<MarketOrder> out) {
+	final int start = out.size();
+	for(int i = from; i < to; i++)
+	    out.add(orders[i]);
+	// insertion sort by arrival (each price is already in arrival order and
+	// there are only a handful of active market orders).
+	for(int i = start + 1, len = out.size(); i < len; i++) {
+	    final MarketOrder mo = out.get(i);
+	    final long seq = mo.getSeq();
+	    int j = i - 1;
+	    while(j >= start && out.get(j).getSeq() > seq) {
+		out.set(j + 1, out.get(j));
+		j--;
+	    }
+	    out.set(j + 1, mo);
+	}
+    }
+}
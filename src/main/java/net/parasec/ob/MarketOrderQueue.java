@@ -0,0 +1,41 @@
+package net.parasec.ob;
+
+// outstanding market orders (one side) in arrival order, the order of the
+// market order map. orders are linked through themselves (older/newer, see
+// MarketOrder; the sibling links belong to ExpiryWheel), so the oldest, the
+// taker of the next fill, is found without an iterator, and add and remove
+// are O(1).
+public final class MarketOrderQueue {
+
+    private MarketOrder oldest = null;
+    private MarketOrder newest = null;
+
+    public MarketOrder getOldest() {
+	return oldest;
+    }
+
+    public void add(final MarketOrder mo) {
+	mo.setOlder(newest).setNewer(null);
+	if(newest != null)
+	    newest.setNewer(mo);
+	else
+	    oldest = mo;
+	newest = mo;
+    }
+
+    public void remove(final MarketOrder mo) {
+	final MarketOrder older = mo.getOlder();
+	final MarketOrder newer = mo.getNewer();
+	if(older != null)
+	    older.setNewer(newer);
+	else if(oldest == mo)
+	    oldest = newer;
+	else
+	    return; // not queued.
+	if(newer != null)
+	    newer.setOlder(older);
+	else
+	    newest = older;
+	mo.setOlder(null).setNewer(null);
+    }
+}
@@ -0,0 +1,44 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+
+
+// volume weighted mid price of the best bid and ask:
+// (bid * ask volume + ask * bid volume) / (bid volume + ask volume), in cents.
+// leans towards the side with less volume (the price more likely to move).
+// 0 if either side of the book is empty.
+public final class MicroPrice extends AbstractIndicator {
+
+    private double value = 0;
+
+    public MicroPrice() {
+	super("microprice", BEST_CHANGE | LEVEL_DELTA, 0);
+    }
+
+    private void update(final OrderBook ob) {
+	final Limit bid = ob.getBids().getBest();
+	final Limit ask = ob.getAsks().getBest();
+	if(bid == null || ask == null) {
+	    value = 0;
+	    return;
+	}
+	final long bidVolume = bid.getVolume();
+	final long askVolume = ask.getVolume();
+	final long volume = bidVolume + askVolume;
+	value = volume > 0
+	    ? ((double) bid.getPrice() * askVolume + (double) ask.getPrice() * bidVolume) / volume
+	    : (bid.getPrice() + ask.getPrice()) / 2.0;
+    }
+
+    public void onBestChange(final OrderBook ob, final Direction side) {
+	update(ob);
+    }
+
+    public void onLevelDelta(final OrderBook ob, final Direction side, final int price, final long delta) {
+	update(ob);
+    }
+
+    public double getValue() {
+	return value;
+    }
+}
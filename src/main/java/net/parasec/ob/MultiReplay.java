@@ -0,0 +1,215 @@
+package net.parasec.ob;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+
+// replays many order streams (logs or archives) at once, each through its
+// own book, and reports aggregate throughput.
+//
+// every feed is a blocking task on its own thread: a virtual thread when
+// the runtime has them (java 21+, looked up reflectively as the source
+// level predates them), otherwise a pool of platform threads. at most
+// concurrency feeds are open and replaying at any time.
+public final class MultiReplay {
+
+    // per feed callback, e.g. a strategy under test. called on the feed's
+    // thread, so it need not be thread safe unless it is shared.
+    public interface Factory {
+	OrderBookStream.Evt create(File feed);
+    }
+
+    public final static class Result {
+	public final File feed;
+	public long events = 0;
+	public long bytes = 0;
+	// time spent replaying (after a concurrency slot was free).
+	public long nanos = 0;
+	public Throwable error = null;
+
+	private Result(final File feed) {
+	    this.feed = feed;
+	}
+
+	public double getEventsPerSecond() {
+	    return nanos > 0 ? events * 1e9 / nanos : 0;
+	}
+    }
+
+    private final static OrderBookStream.Evt NONE = new OrderBookStream.Evt() {
+	    public void onUpdate(final OrderBook ob) {
+	    }
+	};
+
+    private final int concurrency;
+    private final boolean virtual;
+    private final Factory factory;
+
+    private long wallNanos = 0;
+    private boolean usingVirtual = false;
+    private List<Result> results = Collections.emptyList();
+
+    // factory may be null (books only). virtual = false forces platform threads.
+    public MultiReplay(final int concurrency, final boolean virtual, final Factory factory) {
+	this.concurrency = concurrency;
+	this.virtual = virtual;
+	this.factory = factory;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor(), or null if unavailable.
+    private static ExecutorService newVirtualExecutor() {
+	try {
+	    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+	} catch(final Exception e) {
+	    return null;
+	}
+    }
+
+    private void replay(final Result r) {
+	final long start = System.nanoTime();
+	try {
+	    final Replay replay = new Replay();
+	    replay.run(r.feed, factory != null ? factory.create(r.feed) : NONE);
+	    r.events = replay.getEvents();
+	    r.bytes = r.feed.length();
+	} catch(final Throwable t) {
+	    r.error = t;
+	}
+	r.nanos = System.nanoTime() - start;
+    }
+
+    // replay all feeds, blocks until done.
+    public List<Result> run(final List<File> feeds) throws InterruptedException {
+	ExecutorService executor = virtual ? newVirtualExecutor() : null;
+	final boolean usingVirtual = executor != null;
+	if(executor == null)
+	    executor = Executors.newFixedThreadPool(concurrency);
+
+	final List<Result> results = new ArrayList<Result>(feeds.size());
+	final Semaphore slots = new Semaphore(concurrency);
+	final CountDownLatch done = new CountDownLatch(feeds.size());
+	final long start = System.nanoTime();
+	try {
+	    for(final File f : feeds) {
+		final Result r = new Result(f);
+		results.add(r);
+		executor.execute(new Runnable() {
+			public void run() {
+			    try {
+				slots.acquire();
+				try {
+				    replay(r);
+				} finally {
+				    slots.release();
+				}
+			    } catch(final InterruptedException e) {
+				r.error = e;
+			    } finally {
+				done.countDown();
+			    }
+			}
+		    });
+	    }
+	    done.await();
+	} finally {
+	    executor.shutdown();
+	    executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
+	wallNanos = System.nanoTime() - start;
+	this.results = results;
+	this.usingVirtual = usingVirtual;
+	return results;
+    }
+
+    // whether the last run was on virtual threads.
+    public boolean isVirtual() {
+	return usingVirtual;
+    }
+
+    public long getWallNanos() {
+	return wallNanos;
+    }
+
+    // aggregate stats of the last run.
+    public String getSummary() {
+	long events = 0, bytes = 0, failed = 0;
+	final double[] rates = new double[results.size()];
+	int n = 0;
+	for(final Result r : results) {
+	    if(r.error != null) {
+		failed++;
+		continue;
+	    }
+	    events += r.events;
+	    bytes += r.bytes;
+	    rates[n++] = r.getEventsPerSecond();
+	}
+	Arrays.sort(rates, 0, n);
+	final double secs = wallNanos / 1e9;
+	final StringBuilder sb = new StringBuilder()
+	    .append("feeds ").append(results.size()).append(usingVirtual ? " virtual" : " platform")
+	    .append(" threads concurrency ").append(concurrency)
+	    .append(" failed ").append(failed)
+	    .append(" events ").append(events)
+	    .append(" wall ").append(String.format("%.3f", secs)).append("s")
+	    .append(" throughput ").append(String.format("%.0f", secs > 0 ? events / secs : 0)).append(" events/s")
+	    .append(" ").append(String.format("%.1f", secs > 0 ? bytes / secs / (1 << 20) : 0)).append(" MB/s");
+	if(n > 0) {
+	    sb.append("\nper feed events/s min ").append(String.format("%.0f", rates[0]))
+		.append(" median ").append(String.format("%.0f", rates[n / 2]))
+		.append(" max ").append(String.format("%.0f", rates[n - 1]));
+	}
+	return sb.toString();
+    }
+
+    private static void usage() {
+	System.err.println("usage: MultiReplay [-concurrency <n>] [-platform] <orders.log | archive | dir>...");
+	System.exit(2);
+    }
+
+    // replay the given feeds (directories expand to the files in them) and
+    // print per feed results and the aggregate stats.
+    public static void main(final String[] args) throws Exception {
+	int concurrency = Runtime.getRuntime().availableProcessors() * 4;
+	boolean virtual = true;
+	final List<File> feeds = new ArrayList<File>();
+	for(int i = 0; i < args.length; i++) {
+	    if(args[i].equals("-concurrency") && i + 1 < args.length) {
+		concurrency = Integer.parseInt(args[++i]);
+	    } else if(args[i].equals("-platform")) {
+		virtual = false;
+	    } else {
+		final File f = new File(args[i]);
+		if(f.isDirectory()) {
+		    final File[] files = f.listFiles();
+		    Arrays.sort(files);
+		    for(final File ff : files) {
+			if(ff.isFile())
+			    feeds.add(ff);
+		    }
+		} else {
+		    feeds.add(f);
+		}
+	    }
+	}
+	if(feeds.isEmpty() || concurrency < 1)
+	    usage();
+
+	final MultiReplay mr = new MultiReplay(concurrency, virtual, null);
+	for(final Result r : mr.run(feeds)) {
+	    if(r.error != null)
+		System.out.println(r.feed + " failed: " + r.error);
+	    else
+		System.out.println(r.feed + " events " + r.events + " " + String.format("%.0f", r.getEventsPerSecond()) + " events/s");
+	}
+	System.out.println(mr.getSummary());
+    }
+}
@@ -0,0 +1,69 @@
+package net.parasec.ob;
+
+
+// a batch of order events in primitive columns (fields as FeedHandler), to
+// apply to a book at once (OrderBook.applyBatch). a feed adapter can decode
+// straight into it. reused: clear() after applying.
+public final class OrderBatch implements FeedHandler {
+
+    private final int[] action;
+    private final int[] side;
+    private final long[] id;
+    private final long[] price;
+    private final long[] amount;
+    private final long[] ts;
+    private int size = 0;
+
+    public OrderBatch(final int capacity) {
+	action = new int[capacity];
+	side = new int[capacity];
+	id = new long[capacity];
+	price = new long[capacity];
+	amount = new long[capacity];
+	ts = new long[capacity];
+    }
+
+    public void onOrder(final int action, final int side, final long id,
+			final long price, final long amount, final long ts) {
+	if(size == this.action.length)
+	    throw new IllegalStateException("batch full (" + size + " events)");
+	this.action[size] = action;
+	this.side[size] = side;
+	this.id[size] = id;
+	this.price[size] = price;
+	this.amount[size] = amount;
+	this.ts[size] = ts;
+	size++;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public int capacity() {
+	return action.length;
+    }
+
+    public boolean isFull() {
+	return size == action.length;
+    }
+
+    public boolean isEmpty() {
+	return size == 0;
+    }
+
+    public void clear() {
+	size = 0;
+    }
+
+    // pass the events, in order, to a handler.
+    public void replay(final FeedHandler handler) {
+	for(int i = 0; i < size; i++)
+	    handler.onOrder(action[i], side[i], id[i], price[i], amount[i], ts[i]);
+    }
+
+    // pass event i to a handler.
+    public void replay(final int i, final FeedHandler handler) {
+	handler.onOrder(action[i], side[i], id[i], price[i], amount[i], ts[i]);
+    }
+}
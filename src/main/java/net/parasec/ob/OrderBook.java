@@ -1,6 +1,8 @@
 package net.parasec.ob;
 
 import net.parasec.trading.ticker.core.wire.OrderEvent;
+import net.parasec.trading.ticker.core.wire.OrderInfo;
+import net.parasec.trading.ticker.core.wire.Direction;
 
 
 public interface OrderBook {
@@ -8,10 +10,29 @@ public interface OrderBook {
   State getState();
   Orders getBids();
   Orders getAsks();
+  Latencies getLatencies();
+  BookMetrics getMetrics();
+  IndicatorSet getIndicators();
+
+  // time and sales, cancels and completed market orders, newest first
+  // (read on the book thread).
+  TradeRing getTrades();
+  CancelRing getCancels();
+  FillRing getFills();
 
   void addOrder(OrderEvent oe);
   void modOrder(OrderEvent oe);
   void delOrder(OrderEvent oe);
 
+  void addOrder(Direction type, OrderInfo o);
+  void modOrder(Direction type, OrderInfo o);
+  void delOrder(Direction type, OrderInfo o);
+
+  // apply a run of events, recomputing derived state once at the end.
+  void applyBatch(OrderEvent[] events, int offset, int length);
+  void applyBatch(OrderBatch batch);
+
+  int reconcile(BookSnapshot snapshot);
+
 }
 
@@ -6,25 +6,36 @@ import net.parasec.trading.ticker.core.wire.OrderEvent;
 import net.parasec.trading.ticker.core.Ticker;
 import net.parasec.trading.ticker.bitstamp.BitstampTicker;
 
+import java.io.File;
+
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Logger;
 import org.apache.log4j.Level;
 
 
-public final class OrderBookStream implements EventListener<OrderEvent> { 
+public final class OrderBookStream implements EventListener<OrderEvent>, ReorderBuffer.BatchListener { 
 
   public interface Evt {
     void onUpdate(OrderBook ob);
   };
 
-  private final OrderBook ob = new LinkedOrderBook();
+  private final OrderBook ob;
   private final Evt evt;
 
     
   public OrderBookStream(final Evt evt) {
+    this(evt, new WallClock());
+  }
+
+  public OrderBookStream(final Evt evt, final Clock clock) {
+    this.ob = new LinkedOrderBook(clock);
     this.evt = evt;
   }
 
+  public OrderBook getOrderBook() {
+    return ob;
+  }
+
   public void onEvent(final OrderEvent oe) {
     switch(oe.getState()) {
       case CREATED: 
@@ -40,18 +51,102 @@ public final class OrderBookStream implements EventListener<OrderEvent> {
     evt.onUpdate(ob);
   }
 
+  // a burst of events (e.g. released together by a ReorderBuffer): applied
+  // as a batch, with one update.
+  public void onEvents(final OrderEvent[] events, final int offset, final int length) {
+    if(length == 1) {
+      onEvent(events[offset]);
+      return;
+    }
+    ob.applyBatch(events, offset, length);
+    evt.onUpdate(ob);
+  }
+
   public static void main(final String[] args) throws Exception {
     BasicConfigurator.configure();
     Logger.getRootLogger().setLevel(Level.ERROR);
 
+    // -Dob.latency.interval=<seconds> logs processing latency percentiles
+    // (latency,...) along with the state csv.
+    final long latencyInterval = Long.getLong("ob.latency.interval", 0) * 1000;
+
+    // -Dob.sample.interval=<ms> logs one (sample,...) row per time bucket
+    // instead of a state row per event.
+    final long sampleInterval = Long.getLong("ob.sample.interval", 0);
+    final StateSampler sampler = sampleInterval > 0 ? new StateSampler(sampleInterval, new StateSampler.Sink() {
+      public void onSample(final StateSampler s) {
+        System.err.println(s.toCsv());
+      }
+    }) : null;
+
+    // -Dob.shm=<file> publishes the top -Dob.shm.depth levels (default 10)
+    // to a memory mapped file for MappedBookReader.
+    final String shm = System.getProperty("ob.shm");
+    final MappedBookPublisher publisher = shm != null
+      ? new MappedBookPublisher(new File(shm), Integer.getInteger("ob.shm.depth", 10)) : null;
+
+    // the display and the state csv are consumers of a ring
+    // (-Dob.ring.size=<n>, default 1024) on their own threads. the display
+    // is lossy, it never holds up the book: when it falls a ring behind it
+    // skips ahead. the csv gets every state, the book waits for it when it
+    // is a ring behind, unless -Dob.csv.lossy=true (jmx gauges
+    // ring.<consumer> for the lag, ring.<consumer>.dropped, and a
+    // ring,<consumer>,<dropped> row at exit).
+    // -Dob.render.fps=<n> caps the book display (default 10, 0 = every
+    // update).
+    final BookRenderer renderer = new BookRenderer(System.out);
+    final StateRing ring = new StateRing(Integer.getInteger("ob.ring.size", 1024), renderer.getDepth());
+    ring.addConsumer("render", renderer, false);
+    if(sampler == null) {
+      ring.addConsumer("csv", new StateRing.Handler() {
+        public void onFrame(final BookFrame f, final long sequence) {
+          System.err.println(f.state.toCsv());
+        }
+      }, !Boolean.getBoolean("ob.csv.lossy"));
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread("ring-dropped") {
+      public void run() {
+        for(final StateRing.Consumer c : ring.getConsumers())
+          System.err.println("ring," + c.getName() + "," + c.getDropped());
+      }
+    });
+
     final Ticker t = new BitstampTicker();
-    t.watchOrders(new EventQueue(new OrderBookStream(new OrderBookStream.Evt() {
+    final OrderBookStream obs = new OrderBookStream(new OrderBookStream.Evt() {
+      private long lastLatencyReport = System.currentTimeMillis();
       public void onUpdate(final OrderBook ob) {
-        System.out.print("\u001b[2J\u001b[H");
-        System.out.println(ob);
-        System.err.println(ob.getState().toCsv());
+        ring.publish(ob);
+        if(publisher != null)
+          publisher.onUpdate(ob);
+        if(sampler != null)
+          sampler.onUpdate(ob);
+        if(latencyInterval > 0) {
+          final long now = System.currentTimeMillis();
+          if(now - lastLatencyReport >= latencyInterval) {
+            System.err.println(ob.getLatencies().intervalToCsv());
+            lastLatencyReport = now;
+          }
+        }
       }
-    })));
+    }, sampler != null ? sampler.wrap(new WallClock()) : new WallClock());
+    obs.getOrderBook().getMetrics().register("bitstamp");
+    ring.addGauges(obs.getOrderBook().getMetrics());
+    ring.start();
+
+    // -Dob.reorder.window=<ms> and/or -Dob.reorder.events=<n> put events back
+    // in order before they reach the book (see ReorderBuffer), handed over
+    // through a queue of -Dob.reorder.queue=<n> events (default 65536).
+    final long reorderWindow = Long.getLong("ob.reorder.window", 0);
+    final int reorderEvents = Integer.getInteger("ob.reorder.events", 0);
+    if(reorderWindow > 0 || reorderEvents > 0) {
+      final ReorderBuffer reorder = new ReorderBuffer(obs, reorderWindow, reorderEvents, new WallClock());
+      reorder.addGauges(obs.getOrderBook().getMetrics());
+      // the book is then updated on the buffer's thread only, which also
+      // releases held events when the feed goes quiet.
+      t.watchOrders(new EventQueue(new ReorderBuffer.Feed(reorder, Integer.getInteger("ob.reorder.queue", 1 << 16)).start()));
+    } else {
+      t.watchOrders(new EventQueue(obs));
+    }
   }
 }
 
@@ -0,0 +1,69 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+
+
+// order flow imbalance (cont, kukanov, stoikov: the price impact of order
+// book events). each change at the best bid/ask contributes
+//
+//   e = q_bid  * [P_bid >= P_bid']  - q_bid' * [P_bid <= P_bid']
+//     - q_ask  * [P_ask <= P_ask']  + q_ask' * [P_ask >= P_ask']
+//
+// where ' is the previous best. the value is the cumulative sum (satoshi)
+// since the book started: take differences between two reads for the ofi
+// over an interval. an empty bid side counts as price 0, an empty ask side
+// as an infinitely high price, both with no volume.
+public final class OrderFlowImbalance extends AbstractIndicator {
+
+    private int bidPrice = 0;
+    private long bidVolume = 0;
+    private int askPrice = Integer.MAX_VALUE;
+    private long askVolume = 0;
+
+    private long ofi = 0;
+
+    public OrderFlowImbalance() {
+	super("ofi", BEST_CHANGE | LEVEL_DELTA, 0);
+    }
+
+    private void update(final OrderBook ob) {
+	final Limit bid = ob.getBids().getBest();
+	final Limit ask = ob.getAsks().getBest();
+	final int bp = bid != null ? bid.getPrice() : 0;
+	final long bv = bid != null ? bid.getVolume() : 0;
+	final int ap = ask != null ? ask.getPrice() : Integer.MAX_VALUE;
+	final long av = ask != null ? ask.getVolume() : 0;
+
+	long e = 0;
+	if(bp >= bidPrice)
+	    e += bv;
+	if(bp <= bidPrice)
+	    e -= bidVolume;
+	if(ap <= askPrice)
+	    e -= av;
+	if(ap >= askPrice)
+	    e += askVolume;
+	ofi += e;
+
+	bidPrice = bp;
+	bidVolume = bv;
+	askPrice = ap;
+	askVolume = av;
+    }
+
+    public void onBestChange(final OrderBook ob, final Direction side) {
+	update(ob);
+    }
+
+    public void onLevelDelta(final OrderBook ob, final Direction side, final int price, final long delta) {
+	update(ob);
+    }
+
+    public long getOfi() {
+	return ofi;
+    }
+
+    public double getValue() {
+	return ofi;
+    }
+}
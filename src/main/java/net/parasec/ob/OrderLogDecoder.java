@@ -0,0 +1,211 @@
+package net.parasec.ob;
+
+import java.nio.ByteBuffer;
+
+
+// streaming decoder for raw bitstamp order log lines (orders.log):
+//
+// order_created {"price": "814.14", "amount": "0.16100000", "datetime": "1390827243", "id": 114150, "order_type": 1}
+//
+// parses a line straight from a byte buffer into primitives: price in cents,
+// amount in satoshi, datetime in ms. decimals are parsed as fixed point (no
+// doubles, rounding half up beyond the scale) and nothing is allocated, so a
+// single decoder is reused for every line. not thread safe.
+public final class OrderLogDecoder {
+
+    // decode results.
+    public final static int UNDERFLOW = -1; // no complete line in the buffer.
+    public final static int CREATED = 0;
+    public final static int CHANGED = 1;
+    public final static int DELETED = 2;
+    public final static int OTHER = 3; // line consumed, not an order event.
+
+    // order_type values.
+    public final static int BUY = 0;
+    public final static int SELL = 1;
+
+    private final static byte[] ORDER_ = ascii("order_");
+    private final static byte[] CREATED_ = ascii("created");
+    private final static byte[] CHANGED_ = ascii("changed");
+    private final static byte[] DELETED_ = ascii("deleted");
+
+    private final static byte[] PRICE = ascii("price");
+    private final static byte[] AMOUNT = ascii("amount");
+    private final static byte[] DATETIME = ascii("datetime");
+    private final static byte[] ID = ascii("id");
+    private final static byte[] ORDER_TYPE = ascii("order_type");
+
+    // decoded fields of the last order event.
+    private int action;
+    private long price;
+    private long amount;
+    private long timestamp;
+    private long id;
+    private int orderType;
+
+    // parse cursor (absolute buffer index).
+    private int pos;
+
+    private static byte[] ascii(final String s) {
+	final byte[] b = new byte[s.length()];
+	for(int i = 0; i < b.length; i++)
+	    b[i] = (byte) s.charAt(i);
+	return b;
+    }
+
+    public int getAction() {
+	return action;
+    }
+
+    // limit price in cents.
+    public long getPrice() {
+	return price;
+    }
+
+    // amount in satoshi.
+    public long getAmount() {
+	return amount;
+    }
+
+    // exchange timestamp in ms.
+    public long getTimestamp() {
+	return timestamp;
+    }
+
+    public long getId() {
+	return id;
+    }
+
+    public int getOrderType() {
+	return orderType;
+    }
+
+    // decode the next line from buf (position to limit). on success the
+    // position is moved past the line terminator and the action is returned.
+    // if the buffer holds no complete line, UNDERFLOW is returned and the
+    // position is left untouched, unless endOfInput is set, in which case
+    // the remaining bytes are taken as the last line.
+    public int decode(final ByteBuffer buf, final boolean endOfInput) {
+	final int start = buf.position();
+	final int limit = buf.limit();
+	if(start == limit)
+	    return UNDERFLOW;
+
+	int end = start;
+	while(end < limit && buf.get(end) != '\n')
+	    end++;
+	if(end == limit && !endOfInput)
+	    return UNDERFLOW;
+	buf.position(end < limit ? end + 1 : end);
+
+	// ignore trailing \r.
+	if(end > start && buf.get(end - 1) == '\r')
+	    end--;
+
+	pos = start;
+	if(!match(buf, end, ORDER_))
+	    return OTHER;
+	final int action;
+	if(match(buf, end, CREATED_))
+	    action = CREATED;
+	else if(match(buf, end, CHANGED_))
+	    action = CHANGED;
+	else if(match(buf, end, DELETED_))
+	    action = DELETED;
+	else
+	    return OTHER;
+
+	// "key": value pairs, in any order. values may be quoted.
+	int seen = 0;
+	while(true) {
+	    while(pos < end && buf.get(pos) != '"')
+		pos++;
+	    if(pos == end)
+		break;
+	    final int keyStart = ++pos;
+	    while(pos < end && buf.get(pos) != '"')
+		pos++;
+	    final int keyEnd = pos++;
+	    while(pos < end && (buf.get(pos) == ':' || buf.get(pos) == ' ' || buf.get(pos) == '"'))
+		pos++;
+
+	    if(equals(buf, keyStart, keyEnd, PRICE)) {
+		price = fixed(buf, end, 2);
+		seen |= 1;
+	    } else if(equals(buf, keyStart, keyEnd, AMOUNT)) {
+		amount = fixed(buf, end, 8);
+		seen |= 2;
+	    } else if(equals(buf, keyStart, keyEnd, DATETIME)) {
+		timestamp = fixed(buf, end, 3);
+		seen |= 4;
+	    } else if(equals(buf, keyStart, keyEnd, ID)) {
+		id = fixed(buf, end, 0);
+		seen |= 8;
+	    } else if(equals(buf, keyStart, keyEnd, ORDER_TYPE)) {
+		orderType = (int) fixed(buf, end, 0);
+		seen |= 16;
+	    }
+	    // skip the rest of the value.
+	    while(pos < end && buf.get(pos) != ',' && buf.get(pos) != '}')
+		pos++;
+	}
+	if(seen != 31)
+	    throw new IllegalArgumentException("incomplete order event at " + start);
+	this.action = action;
+	return action;
+    }
+
+    // match bytes at the cursor, moving it past them on success.
+    private boolean match(final ByteBuffer buf, final int end, final byte[] b) {
+	if(end - pos < b.length)
+	    return false;
+	for(int i = 0; i < b.length; i++) {
+	    if(buf.get(pos + i) != b[i])
+		return false;
+	}
+	pos += b.length;
+	return true;
+    }
+
+    private static boolean equals(final ByteBuffer buf, final int start, final int end, final byte[] b) {
+	if(end - start != b.length)
+	    return false;
+	for(int i = 0; i < b.length; i++) {
+	    if(buf.get(start + i) != b[i])
+		return false;
+	}
+	return true;
+    }
+
+    // unsigned decimal at the cursor, scaled by 10^scale. digits beyond the
+    // scale round half up.
+    private long fixed(final ByteBuffer buf, final int end, final int scale) {
+	long v = 0;
+	int decimals = -1;
+	boolean roundUp = false;
+	boolean digits = false;
+	for(; pos < end; pos++) {
+	    final byte c = buf.get(pos);
+	    if(c >= '0' && c <= '9') {
+		digits = true;
+		if(decimals < scale) {
+		    v = v*10 + (c - '0');
+		    if(decimals >= 0)
+			decimals++;
+		} else if(decimals == scale) {
+		    roundUp = c >= '5';
+		    decimals++;
+		}
+	    } else if(c == '.' && decimals < 0) {
+		decimals = 0;
+	    } else {
+		break;
+	    }
+	}
+	if(!digits)
+	    throw new IllegalArgumentException("expected number at " + pos);
+	for(int d = Math.max(decimals, 0); d < scale; d++)
+	    v *= 10;
+	return roundUp ? v + 1 : v;
+    }
+}
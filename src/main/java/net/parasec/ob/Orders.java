@@ -3,6 +3,10 @@ package net.parasec.ob;
 import net.parasec.trading.ticker.core.wire.OrderInfo;
 import net.parasec.trading.ticker.core.wire.Direction;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.HashMap;
@@ -30,6 +34,14 @@ public final class Orders {
     // the current best bid or ask.
     private Limit best = null;
 
+    // number of active price levels.
+    private int levels = 0;
+
+    // most aggressive price at which a level has been created, removed, or
+    // had its volume changed since the last clearTouched() (see KnifeTip).
+    private boolean touched = false;
+    private int touchedPrice = 0;
+
     // when searching for next best ask or bid from price level, search down (-1)
     // for asks, and up (1) for bids.
     private final int direction;
@@ -37,6 +49,9 @@ public final class Orders {
     // to receive best bid/ask changes
     private final DepthListener depthListener;
 
+    // to receive price level volume changes (optional, any number).
+    private LevelListener[] levelListeners = new LevelListener[0];
+
     // market impact comparitor
     private interface Mic {
 	boolean exceedsLimit(int levelPrice, int priceLimit);
@@ -117,6 +132,7 @@ public final class Orders {
 	    p = linkNextBest(priceIdx);
 	}
 	sparseLevels[priceIdx] = p;
+	levels++;
 	return p;
     }
 
@@ -187,6 +203,8 @@ public final class Orders {
 
 	// increase number of orders and volume at this price level.
 	p.setOrders(p.getOrders() + 1).setVolume(p.getVolume() + order.getVolume());
+	touch(priceIdx);
+	levelChanged(priceIdx, order.getVolume());
 
 	// add the new order (id) to the active order pool.
 	orderPool.put(order.getexchangeOrderId(), o);
@@ -219,6 +237,8 @@ public final class Orders {
 	final long delta = curVolume - modVolume;
 	final Limit parent = o.getParent();
 	parent.setVolume(parent.getVolume() - delta);
+	touch(parent.getPrice());
+	levelChanged(parent.getPrice(), -delta);
 
 	assert delta > 0 : "error: "+o.getOrder().getexchangeOrderId();
 
@@ -234,6 +254,7 @@ public final class Orders {
 	final long volRemoved = o.getOrder().getVolume();
 	
 	final Limit parent = o.getParent();
+	touch(parent.getPrice());
 	final LimitOrder leftSibling = o.getLeftSibling();
 	final LimitOrder rightSibling = o.getRightSibling();
 
@@ -253,6 +274,7 @@ public final class Orders {
 		    depthListener.onBestChanged(rightLimit);
 		}
 		sparseLevels[parent.getPrice()] = null;
+		levels--;
 	    } else { 
 		// left = null, right != null: remove from front of order queue,
 		// update overall price level volume and # of orders.
@@ -272,6 +294,7 @@ public final class Orders {
 	    parent.setVolume(parent.getVolume() - volRemoved)
 		.setOrders(parent.getOrders() - 1);   
 	}
+	levelChanged(parent.getPrice(), -volRemoved);
 	return volRemoved;
     }
 
@@ -283,6 +306,119 @@ public final class Orders {
 	return orderPool.size();
     }
 
+    // resting orders (by level, in queue order) and the dead pool, for a
+    // checkpoint (see LinkedOrderBook.writeCheckpoint). dead ids are
+    // written as sorted varint deltas if they are all numeric.
+    public void writeTo(final DataOutput out) throws IOException {
+	out.writeInt(orderPool.size());
+	for(Limit l = best; l != null; l = l.getRightSibling()) {
+	    for(LimitOrder lo = l.getHead(); lo != null; lo = lo.getRightSibling()) {
+		final OrderInfo o = lo.getOrder();
+		out.writeUTF(o.getexchangeOrderId());
+		out.writeInt(o.getLimitPrice());
+		out.writeLong(o.getVolume());
+		out.writeLong(o.getExchangeTimestamp());
+	    }
+	}
+	final long[] ids = new long[deadPool.size()];
+	boolean numeric = true;
+	int n = 0;
+	for(final String id : deadPool) {
+	    final long v = Util.parseId(id);
+	    if(v < 0 || !Long.toString(v).equals(id)) {
+		numeric = false;
+		break;
+	    }
+	    ids[n++] = v;
+	}
+	out.writeInt(deadPool.size());
+	out.writeBoolean(numeric);
+	if(numeric) {
+	    Arrays.sort(ids);
+	    long last = 0;
+	    for(int i = 0; i < ids.length; i++) {
+		Util.writeVarint(out, ids[i] - last);
+		last = ids[i];
+	    }
+	} else {
+	    for(final String id : deadPool)
+		out.writeUTF(id);
+	}
+    }
+
+    // restore into an empty side.
+    public void readFrom(final DataInput in) throws IOException {
+	if(!orderPool.isEmpty() || !deadPool.isEmpty())
+	    throw new IllegalStateException("not empty");
+	for(int i = 0, n = in.readInt(); i < n; i++) {
+	    final String id = in.readUTF();
+	    final int price = in.readInt();
+	    final long volume = in.readLong();
+	    addNewOrder(Util.newOrderInfo(id, price, volume, in.readLong()));
+	}
+	final int dead = in.readInt();
+	if(in.readBoolean()) {
+	    long id = 0;
+	    for(int i = 0; i < dead; i++) {
+		id += Util.readVarint(in);
+		deadPool.add(Long.toString(id));
+	    }
+	} else {
+	    for(int i = 0; i < dead; i++)
+		deadPool.add(in.readUTF());
+	}
+    }
+
+    private void levelChanged(final int price, final long delta) {
+	final LevelListener[] l = levelListeners;
+	for(int i = 0; i < l.length; i++)
+	    l[i].onLevelChanged(price, delta);
+    }
+
+    // replaces any listeners (null: none).
+    public Orders setLevelListener(final LevelListener levelListener) {
+	this.levelListeners = levelListener != null ? new LevelListener[] { levelListener } : new LevelListener[0];
+	return this;
+    }
+
+    // in addition to any listeners already set.
+    public Orders addLevelListener(final LevelListener levelListener) {
+	final LevelListener[] l = new LevelListener[levelListeners.length + 1];
+	System.arraycopy(levelListeners, 0, l, 0, levelListeners.length);
+	l[levelListeners.length] = levelListener;
+	this.levelListeners = l;
+	return this;
+    }
+
+    private void touch(final int price) {
+	if(!touched || direction*(price - touchedPrice) > 0) {
+	    touchedPrice = price;
+	    touched = true;
+	}
+    }
+
+    public boolean isTouched() {
+	return touched;
+    }
+
+    public int getTouchedPrice() {
+	return touchedPrice;
+    }
+
+    public void clearTouched() {
+	touched = false;
+    }
+
+    // true if levelPrice is beyond priceLimit, searching away from the best
+    // bid/ask (market order limit reached).
+    public boolean exceedsLimit(final int levelPrice, final int priceLimit) {
+	return mic.exceedsLimit(levelPrice, priceLimit);
+    }
+
+    public int getLevelCount() {
+	return levels;
+    }
+
     public Limit getBest() {
 	return best;
     }
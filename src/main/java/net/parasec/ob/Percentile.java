@@ -63,8 +63,13 @@ public final class Percentile {
     }
 
     public static String statusString(final Percentile[] percentiles) {
+	return appendStatus(new StringBuilder(), percentiles).toString();
+    }
+
+    // statusString, appended without String.format.
+    public static StringBuilder appendStatus(final StringBuilder sb, final Percentile[] percentiles) {
 	if(percentiles==null || percentiles.length < 2)
-	    return "-";
+	    return sb.append("-");
 	final Percentile p1 = percentiles[0];
 	final Percentile p2 = percentiles[1];
 
@@ -87,7 +92,8 @@ public final class Percentile {
 	
 	final long totVol = p1volume+p2volume;		
 	final int vwapCombo = totVol > 0 ? (int)Math.round(((p1vwap*p1volume)+(p2vwap*p2volume))/(double)(totVol)) : 0;
-	return Util.asUSD(vwapCombo) + "|" + (p1orders+p2orders) + "|" + (p1levels+p2levels) + "|" + Util.asBTC(totVol); 
+	Util.appendUSD(sb, vwapCombo).append("|").append(p1orders+p2orders).append("|").append(p1levels+p2levels).append("|");
+	return Util.appendBTC(sb, totVol);
 					
     }
 
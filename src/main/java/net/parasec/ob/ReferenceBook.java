@@ -0,0 +1,702 @@
+package net.parasec.ob;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+// a deliberately simple model of LinkedOrderBook, to check it against (see
+// BookFuzzer). the rules are the book's, transcribed: crossed orders are
+// held as market orders until uncrossed or expired, stale and duplicate
+// events are discarded, dead ids are ignored, orphans are pruned when a
+// trade goes through the best price, and the State counters and derived
+// state are updated on the same events, quirks included. the structures
+// are the plainest there are: levels in a sorted map, each queue a list,
+// market orders in a map scanned in full, and the last 100 trades,
+// cancels and fills in lists summed from scratch. none of the book's
+// indexes, caches or incremental counters (sparse levels, linked queues,
+// market order index, expiry wheel, knife tip, rings) are used, so when
+// the two differ, one of those is wrong. slow on purpose.
+public final class ReferenceBook implements FeedHandler {
+
+    private final static int LAST = 100;
+    private final static long NO_ADDS = 4102444800L; // as LinkedOrderBook.
+
+    // a resting order, or a market order.
+    final static class Order {
+	final String id;
+	final int price;
+	long volume;
+	final long ts;
+	// market orders.
+	final long initialVolume;
+	long filledVolume = 0;
+
+	Order(final String id, final int price, final long volume, final long ts) {
+	    this.id = id;
+	    this.price = price;
+	    this.volume = volume;
+	    this.ts = ts;
+	    this.initialVolume = volume;
+	}
+
+	public String toString() {
+	    return id + " " + price + " " + volume + " " + ts;
+	}
+    }
+
+    // one side of the book.
+    final class Side {
+	final boolean buy;
+	// best first.
+	final TreeMap<Integer, ArrayList<Order>> levels;
+	final HashMap<String, Order> orders = new HashMap<String, Order>();
+	final HashSet<String> dead = new HashSet<String>();
+
+	private Side(final boolean buy) {
+	    this.buy = buy;
+	    this.levels = buy ? new TreeMap<Integer, ArrayList<Order>>(Collections.<Integer>reverseOrder())
+		: new TreeMap<Integer, ArrayList<Order>>();
+	}
+
+	boolean isEmpty() {
+	    return levels.isEmpty();
+	}
+
+	int best() {
+	    return levels.firstKey();
+	}
+
+	// best price, or none if the side is empty.
+	int best(final int none) {
+	    return levels.isEmpty() ? none : levels.firstKey();
+	}
+
+	// ignored if the id is resting.
+	void add(final Order o) {
+	    if(!orders.containsKey(o.id))
+		insert(o);
+	}
+
+	// behind every order at the level with the same or an earlier ts.
+	private void insert(final Order o) {
+	    final int before = best(-1);
+	    ArrayList<Order> queue = levels.get(o.price);
+	    if(queue == null) {
+		queue = new ArrayList<Order>();
+		levels.put(o.price, queue);
+	    }
+	    int i = queue.size();
+	    while(i > 0 && queue.get(i - 1).ts > o.ts)
+		i--;
+	    queue.add(i, o);
+	    orders.put(o.id, o);
+	    if(best(-1) != before)
+		bestChanged(this);
+	}
+
+	// volume taken off a resting order (at its own price), 0 if it was
+	// not resting (added), -1 if the change is stale or a duplicate.
+	long mod(final Order o) {
+	    final Order cur = orders.get(o.id);
+	    if(cur == null) {
+		insert(o);
+		return 0;
+	    }
+	    if(cur.volume <= o.volume)
+		return -1;
+	    final long delta = cur.volume - o.volume;
+	    cur.volume = o.volume;
+	    return delta;
+	}
+
+	// volume removed, -1 if not resting.
+	long remove(final String id) {
+	    final Order o = orders.remove(id);
+	    if(o == null)
+		return -1;
+	    final int before = best(-1);
+	    final ArrayList<Order> queue = levels.get(o.price);
+	    queue.remove(o);
+	    if(queue.isEmpty())
+		levels.remove(o.price);
+	    if(best(-1) != before)
+		bestChanged(this);
+	    return o.volume;
+	}
+
+	// prices and volumes of the levels, best first.
+	private int[] prices() {
+	    final int[] p = new int[levels.size()];
+	    int i = 0;
+	    for(final Integer price : levels.keySet())
+		p[i++] = price;
+	    return p;
+	}
+
+	private long[] volumes() {
+	    final long[] v = new long[levels.size()];
+	    int i = 0;
+	    for(final ArrayList<Order> queue : levels.values())
+		v[i++] = volume(queue);
+	    return v;
+	}
+
+	// as Orders.exceedsLimit.
+	boolean exceedsLimit(final int levelPrice, final int priceLimit) {
+	    return buy ? levelPrice < priceLimit : levelPrice > priceLimit;
+	}
+    }
+
+    private static long volume(final ArrayList<Order> queue) {
+	long volume = 0;
+	for(int i = 0, len = queue.size(); i < len; i++)
+	    volume += queue.get(i).volume;
+	return volume;
+    }
+
+    // a trade, cancel or fill, for the last 100 counters.
+    private final static class Entry {
+	final boolean buy;
+	final long volume;
+
+	Entry(final boolean buy, final long volume) {
+	    this.buy = buy;
+	    this.volume = volume;
+	}
+    }
+
+    private final State state = new State();
+    private final long moExpiry;
+    private long now = 0;
+    private long firstNewOrderTs = NO_ADDS;
+
+    private final Side bids = new Side(true);
+    private final Side asks = new Side(false);
+
+    // arrival order.
+    private final LinkedHashMap<String, Order> buyMos = new LinkedHashMap<String, Order>();
+    private final LinkedHashMap<String, Order> sellMos = new LinkedHashMap<String, Order>();
+
+    // newest last, at most LAST.
+    private final ArrayList<Entry> trades = new ArrayList<Entry>();
+    private final ArrayList<Entry> cancels = new ArrayList<Entry>();
+    private final ArrayList<Entry> fills = new ArrayList<Entry>();
+    private long tradeCount = 0;
+
+    public ReferenceBook(final long moExpiry) {
+	this.moExpiry = moExpiry;
+    }
+
+    public State getState() {
+	return state;
+    }
+
+    Side getBids() {
+	return bids;
+    }
+
+    Side getAsks() {
+	return asks;
+    }
+
+    Collection<Order> getBuyMarketOrders() {
+	return buyMos.values();
+    }
+
+    Collection<Order> getSellMarketOrders() {
+	return sellMos.values();
+    }
+
+    public void onOrder(final int action, final int side, final long id,
+			final long price, final long amount, final long ts) {
+	if(ts > now)
+	    now = ts;
+	final boolean buy = side == OrderLogDecoder.BUY;
+	final Order o = new Order(Long.toString(id), (int) price, amount, ts);
+	switch(action) {
+	case OrderLogDecoder.CREATED:
+	    add(buy, o);
+	    break;
+	case OrderLogDecoder.CHANGED:
+	    mod(buy, o);
+	    break;
+	default:
+	    del(buy, o);
+	    break;
+	}
+	state.bestBid = best(bids);
+	state.bestAsk = best(asks);
+    }
+
+    private static Limit best(final Side side) {
+	if(side.isEmpty())
+	    return null;
+	final ArrayList<Order> queue = side.levels.firstEntry().getValue();
+	return new Limit(side.best(), null, null).setVolume(volume(queue)).setOrders(queue.size());
+    }
+
+    private boolean crosses(final boolean buy, final int price) {
+	return buy ? !asks.isEmpty() && asks.best() <= price : !bids.isEmpty() && bids.best() >= price;
+    }
+
+    private boolean uncrossed(final boolean buy, final int price) {
+	return buy ? price < asks.best(Integer.MAX_VALUE) : price > bids.best(0);
+    }
+
+    private void add(final boolean buy, final Order o) {
+	if(firstNewOrderTs == NO_ADDS)
+	    firstNewOrderTs = o.ts;
+	expire(true, o.ts);
+	expire(false, o.ts);
+
+	if(!buy && o.price >= 1000000)
+	    return;
+	final Side side = buy ? bids : asks;
+	if(side.dead.contains(o.id))
+	    return;
+	if(crosses(buy, o.price)) {
+	    if(!(buy ? buyMos : sellMos).containsKey(o.id))
+		addMo(buy, o);
+	} else {
+	    // counted even if the id is already resting (as the book).
+	    side.add(o);
+	    state.event++;
+	    state.ts = now;
+	    if(buy) {
+		state.totalBids++;
+		state.totalBidVol += o.volume;
+	    } else {
+		state.totalAsks++;
+		state.totalAskVol += o.volume;
+	    }
+	    updateIndicators(side);
+	}
+    }
+
+    private void addMo(final boolean buy, final Order o) {
+	(buy ? buyMos : sellMos).put(o.id, o);
+	state.event++;
+	state.ts = now;
+	if(buy) {
+	    state.moActiveBuys++;
+	    state.moOutstandingBuyVolume += o.volume;
+	    state.moBuyTip = knifeTip(true);
+	} else {
+	    state.moActiveSells++;
+	    state.moOutstandingSellVolume += o.volume;
+	    state.moSellTip = knifeTip(false);
+	}
+    }
+
+    private void mod(final boolean buy, final Order o) {
+	if(o.ts < firstNewOrderTs)
+	    return;
+	final Side side = buy ? bids : asks;
+	if(side.dead.contains(o.id))
+	    return;
+
+	final Order existing = side.orders.get(o.id);
+	if(existing != null && existing.price != o.price) {
+	    // moved: removed, then added as a new order.
+	    final long volume = side.remove(o.id);
+	    if(buy) {
+		state.totalBids--;
+		state.totalBidVol -= volume;
+	    } else {
+		state.totalAsks--;
+		state.totalAskVol -= volume;
+	    }
+	    updateIndicators(side);
+	    add(buy, o);
+	    return;
+	}
+
+	final LinkedHashMap<String, Order> mos = buy ? buyMos : sellMos;
+	final Order mo = mos.get(o.id);
+	if(mo != null) {
+	    if(mo.volume > o.volume) {
+		final long delta = mo.volume - o.volume;
+		mo.volume = o.volume;
+		if(buy)
+		    state.moOutstandingBuyVolume -= delta;
+		else
+		    state.moOutstandingSellVolume -= delta;
+		state.event++;
+		state.ts = now;
+		if(pruneMo(buy, mo))
+		    mos.remove(o.id);
+	    }
+	} else if(crosses(buy, o.price)) {
+	    // change before the add.
+	    addMo(buy, o);
+	} else {
+	    final long removed = side.mod(o);
+	    if(removed == 0) {
+		state.event++;
+		state.ts = now;
+		if(buy) {
+		    state.totalBids++;
+		    state.totalBidVol += o.volume;
+		} else {
+		    state.totalAsks++;
+		    state.totalAskVol += o.volume;
+		}
+		updateIndicators(side);
+	    } else if(removed > 0) {
+		// partial fill by a market order on the other side.
+		addSale(!buy, o.price, removed, o.ts, o.id, firstKey(buy ? sellMos : buyMos));
+	    }
+	}
+    }
+
+    private void del(final boolean buy, final Order o) {
+	if(o.ts < firstNewOrderTs)
+	    return;
+	final boolean completeFill = o.volume == 0;
+	state.ts = now;
+
+	final Side side = buy ? bids : asks;
+	side.dead.add(o.id);
+	final LinkedHashMap<String, Order> mos = buy ? buyMos : sellMos;
+	final Order mo = mos.remove(o.id);
+	if(mo != null) {
+	    mo.filledVolume = mo.initialVolume - (completeFill ? 0 : mo.volume);
+	    if(buy) {
+		state.moActiveBuys--;
+		state.moOutstandingBuyVolume -= mo.volume;
+	    } else {
+		state.moActiveSells--;
+		state.moOutstandingSellVolume -= mo.volume;
+	    }
+	    addFilledMo(buy, mo);
+	} else {
+	    final long removed = side.remove(o.id);
+	    if(removed > 0) {
+		if(completeFill)
+		    addSale(!buy, o.price, removed, o.ts, o.id, firstKey(buy ? sellMos : buyMos));
+		else
+		    addCancel(o.id, buy, o.price, removed);
+		if(buy)
+		    state.totalBids--;
+		else
+		    state.totalAsks--;
+	    }
+	}
+    }
+
+    private static String firstKey(final LinkedHashMap<String, Order> mos) {
+	return mos.isEmpty() ? null : mos.keySet().iterator().next();
+    }
+
+    // market orders older than the expiry are dropped (on adds only).
+    private void expire(final boolean buy, final long exchangeTs) {
+	boolean purged = false;
+	for(final Iterator<Order> it = (buy ? buyMos : sellMos).values().iterator(); it.hasNext(); ) {
+	    final Order mo = it.next();
+	    if(mo.ts + moExpiry < exchangeTs) {
+		it.remove();
+		if(buy) {
+		    state.moActiveBuys--;
+		    state.moOutstandingBuyVolume -= mo.volume;
+		} else {
+		    state.moActiveSells--;
+		    state.moOutstandingSellVolume -= mo.volume;
+		}
+		purged = true;
+	    }
+	}
+	if(purged) {
+	    if(buy)
+		state.moBuyTip = knifeTip(true);
+	    else
+		state.moSellTip = knifeTip(false);
+	}
+    }
+
+    // the best price of a side changed: market orders on the other side
+    // which are no longer crossed go into the book, if partly filled.
+    private void bestChanged(final Side side) {
+	final boolean buy = side == asks;
+	final LinkedHashMap<String, Order> mos = buy ? buyMos : sellMos;
+	final ArrayList<Order> uncrossed = new ArrayList<Order>();
+	for(final Order mo : mos.values()) {
+	    if(uncrossed(buy, mo.price))
+		uncrossed.add(mo);
+	}
+	for(int i = 0, len = uncrossed.size(); i < len; i++) {
+	    final Order mo = uncrossed.get(i);
+	    if(mos.get(mo.id) == mo && pruneMo(buy, mo))
+		mos.remove(mo.id);
+	}
+    }
+
+    private boolean pruneMo(final boolean buy, final Order mo) {
+	if(!uncrossed(buy, mo.price))
+	    return false;
+	final long unfilled = mo.volume;
+	final long filled = mo.initialVolume - unfilled;
+	if(filled == 0)
+	    return false;
+	(buy ? bids : asks).mod(new Order(mo.id, mo.price, mo.volume, mo.ts));
+	mo.filledVolume = filled;
+	if(buy) {
+	    state.moActiveBuys--;
+	    state.moOutstandingBuyVolume -= unfilled;
+	    state.totalBids++;
+	    state.totalBidVol += unfilled;
+	} else {
+	    state.moActiveSells--;
+	    state.moOutstandingSellVolume -= unfilled;
+	    state.totalAsks++;
+	    state.totalAskVol += unfilled;
+	}
+	addFilledMo(buy, mo);
+	return true;
+    }
+
+    private static void add(final ArrayList<Entry> last, final boolean buy, final long volume) {
+	if(last.size() == LAST)
+	    last.remove(0);
+	last.add(new Entry(buy, volume));
+    }
+
+    private void addFilledMo(final boolean buy, final Order mo) {
+	add(fills, buy, mo.filledVolume);
+	int buys = 0;
+	long buyVol = 0, buyMax = 0, sellVol = 0, sellMax = 0;
+	for(int i = 0, len = fills.size(); i < len; i++) {
+	    final Entry e = fills.get(i);
+	    if(e.buy) {
+		buys++;
+		buyVol += e.volume;
+		buyMax = Math.max(buyMax, e.volume);
+	    } else {
+		sellVol += e.volume;
+		sellMax = Math.max(sellMax, e.volume);
+	    }
+	}
+	state.moLast100Buy = buys;
+	state.moLast100BuyVol = buyVol;
+	state.moLast100BuyMax = buyMax;
+	state.moLast100SellVol = sellVol;
+	state.moLast100SellMax = sellMax;
+
+	// the tip is taken with the market order still outstanding when it
+	// is pruned (as the book).
+	if(buy) {
+	    state.moBuyTip = state.moActiveBuys == 0 ? 0 : knifeTip(true);
+	    state.totalMoBuyVol += mo.filledVolume;
+	    state.totalMoBuys++;
+	} else {
+	    state.moSellTip = state.moActiveSells == 0 ? 0 : knifeTip(false);
+	    state.totalMoSellVol += mo.filledVolume;
+	    state.totalMoSells++;
+	}
+    }
+
+    // takerBuy: the side of the taker, the trade is on the other side.
+    private void addSale(final boolean takerBuy, final int price, final long volume,
+			 final long makerTs, final String makerId, final String takerId) {
+	// the lowest price only moves if the highest does not (as the book).
+	if(price > state.highestPrice)
+	    state.highestPrice = price;
+	else if(price < state.lowestPrice)
+	    state.lowestPrice = price;
+
+	add(trades, takerBuy, volume);
+	int buys = 0;
+	long buyVol = 0, buyMax = 0, sellVol = 0, sellMax = 0;
+	for(int i = 0, len = trades.size(); i < len; i++) {
+	    final Entry e = trades.get(i);
+	    if(e.buy) {
+		buys++;
+		buyVol += e.volume;
+		buyMax = Math.max(buyMax, e.volume);
+	    } else {
+		sellVol += e.volume;
+		sellMax = Math.max(sellMax, e.volume);
+	    }
+	}
+	state.moLast100BuyTrades = buys;
+	state.moLast100BuyTradeVol = buyVol;
+	state.moLast100BuyTradeMax = buyMax;
+	state.moLast100SellTradeVol = sellVol;
+	state.moLast100SellTradeMax = sellMax;
+
+	final Side side = takerBuy ? asks : bids;
+	if(takerBuy)
+	    state.totalAskVol -= volume;
+	else
+	    state.totalBidVol -= volume;
+	pruneOrphans(side, price, makerTs);
+	updateIndicators(side);
+
+	state.event++;
+	state.ts = now;
+	state.lastTradeSeq = ++tradeCount;
+	state.lastTradeTs = state.ts;
+	state.lastTradePrice = price;
+	state.lastTradeVolume = volume;
+	state.lastTradeDirection = takerBuy ? 1 : -1;
+	state.lastTradeTaker = Util.parseId(takerId);
+	state.lastTradeMaker = Util.parseId(makerId);
+    }
+
+    // a trade behind the best price: orders at the best price from before
+    // the trade were missed (filled or cancelled) and are removed.
+    private void pruneOrphans(final Side side, final int price, final long hitTimestamp) {
+	if(side.isEmpty() || !side.exceedsLimit(price, side.best()))
+	    return;
+	final ArrayList<Order> queue = new ArrayList<Order>(side.levels.firstEntry().getValue());
+	int removed = 0;
+	long volume = 0;
+	for(int i = 0, len = queue.size(); i < len; i++) {
+	    final Order o = queue.get(i);
+	    if(o.ts < hitTimestamp) {
+		volume += side.remove(o.id);
+		side.dead.add(o.id);
+		removed++;
+	    }
+	}
+	// the book does not count the last order of a level it empties.
+	if(removed > 0 && removed == queue.size())
+	    removed--;
+	if(side.buy) {
+	    state.totalBidVol -= volume;
+	    state.totalBids -= removed;
+	} else {
+	    state.totalAskVol -= volume;
+	    state.totalAsks -= removed;
+	}
+    }
+
+    private void addCancel(final String id, final boolean buy, final int price, final long volume) {
+	add(cancels, buy, volume);
+	int bidCancels = 0;
+	long bidVol = 0, bidMax = 0, askVol = 0, askMax = 0;
+	for(int i = 0, len = cancels.size(); i < len; i++) {
+	    final Entry e = cancels.get(i);
+	    if(e.buy) {
+		bidCancels++;
+		bidVol += e.volume;
+		bidMax = Math.max(bidMax, e.volume);
+	    } else {
+		askVol += e.volume;
+		askMax = Math.max(askMax, e.volume);
+	    }
+	}
+	state.bidLast100Cancel = bidCancels;
+	state.bidLast100CancelVolume = bidVol;
+	state.bidLast100CancelMax = bidMax;
+	state.askLast100CancelVolume = askVol;
+	state.askLast100CancelMax = askMax;
+
+	if(buy)
+	    state.totalBidVol -= volume;
+	else
+	    state.totalAskVol -= volume;
+	updateIndicators(buy ? bids : asks);
+	state.event++;
+	state.ts = now;
+    }
+
+    // percentiles and market impact of a side.
+    private void updateIndicators(final Side side) {
+	if(side.buy) {
+	    state.bidPercentile = percentiles(side);
+	    state.sellImpact = impact(side, State.impactPoints);
+	} else {
+	    state.askPercentile = percentiles(side);
+	    state.buyImpact = impact(side, State.impactPoints);
+	}
+    }
+
+    // as LinkedOrderBook.getPercentileVwap: the last (partial) band is not
+    // kept.
+    private static Percentile[] percentiles(final Side side) {
+	final Percentile[] p = new Percentile[Percentile.PERCENTILE_STEPS];
+	if(side.isEmpty())
+	    return p;
+	final int bestPrice = side.best();
+	int orders = 0, priceLevels = 0, i = 0;
+	long vwapSum = 0, volume = 0;
+	for(final Map.Entry<Integer, ArrayList<Order>> e : side.levels.entrySet()) {
+	    final int price = e.getKey();
+	    final double pct = Math.abs((bestPrice - price) / (double) bestPrice);
+	    final int j = ((int) Math.ceil(pct / Percentile.PERCENTILE_STEP_SIZE)) - 1;
+	    if(j > i) {
+		p[i] = new Percentile((int) Math.round(vwapSum / (double) volume), orders, priceLevels, volume);
+		if(j >= Percentile.PERCENTILE_STEPS)
+		    break;
+		orders = priceLevels = 0;
+		vwapSum = volume = 0;
+		i = j;
+	    }
+	    final long levelVolume = volume(e.getValue());
+	    vwapSum += levelVolume * price;
+	    volume += levelVolume;
+	    orders += e.getValue().size();
+	    priceLevels++;
+	}
+	return p;
+    }
+
+    // as Orders.getMarketImpact(long[]).
+    private static int[] impact(final Side side, final long[] points) {
+	final int[] impacts = new int[points.length];
+	if(side.isEmpty())
+	    return impacts;
+	final int[] prices = side.prices();
+	final long[] volumes = side.volumes();
+	int k = 0;
+	int impact = prices[0];
+	long cumVol = volumes[0];
+	for(int i = 0; i < points.length; i++) {
+	    while(cumVol < points[i] && k + 1 < prices.length) {
+		k++;
+		cumVol += volumes[k];
+		impact = prices[k];
+	    }
+	    impacts[i] = impact;
+	}
+	return impacts;
+    }
+
+    // as Orders.getMarketImpact(Map): walks the other side with every
+    // outstanding market order in turn, from where the last one stopped.
+    private int knifeTip(final boolean buy) {
+	final Side side = buy ? asks : bids;
+	final int[] prices = side.prices();
+	final long[] volumes = side.volumes();
+	int impact = 0;
+	long offset = 0;
+	int k = 0;
+	for(final Order mo : (buy ? buyMos : sellMos).values()) {
+	    long volSum = offset;
+	    int last = -1;
+	    while(k < prices.length) {
+		impact = prices[k];
+		if(side.exceedsLimit(impact, mo.price)) {
+		    if(last >= 0)
+			impact = prices[last];
+		    break;
+		}
+		volSum += volumes[k];
+		if(volSum >= mo.volume) {
+		    offset = (volSum - mo.volume) - volumes[k];
+		    break;
+		}
+		last = k;
+		k++;
+	    }
+	}
+	return impact;
+    }
+}
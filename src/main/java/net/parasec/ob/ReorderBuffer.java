@@ -0,0 +1,406 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.dispatch.EventListener;
+import net.parasec.trading.ticker.core.wire.OrderEvent;
+import net.parasec.trading.ticker.core.wire.OrderState;
+
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+// pipeline stage in front of the book (OrderBookStream.onEvent) which holds
+// order events in a small window and releases them in order, so fewer out
+// of order events reach the book (dead pool hits, orphans).
+//
+// events are ordered by exchange timestamp, then by arrival, except that
+// events of the same order are put in lifecycle order: a create which
+// arrives after a modify or delete of the same order, or a modify after its
+// delete, is moved in front of it. arrival order is otherwise kept: within
+// a timestamp (1 s on bitstamp) a market order must come before the fills
+// it causes, whatever their order ids.
+//
+// an event is held for at most window ms after it arrived (per the clock),
+// or until more than maxEvents are held. events arriving older than the
+// last released event cannot be fixed and are passed on at once (late).
+// events and ticks must come from one thread (see Feed, which also releases
+// events when the feed goes quiet), the next stage is called on it. if the
+// next stage takes batches, the events released by one call are handed on
+// together (one book update per burst).
+//
+// entries are pooled and the per order chains are kept in an open
+// addressed table, so holding an event allocates nothing once warm (the
+// queues are array backed).
+public final class ReorderBuffer implements EventListener<OrderEvent> {
+
+    public interface BatchListener {
+	void onEvents(OrderEvent[] events, int offset, int length);
+    }
+
+    private final static class Entry implements Comparable<Entry> {
+	OrderEvent oe;
+	String id;
+	int rank;
+	long arrival;
+	long arrivalSeq;
+	// sort key: exchange ts, seq, rank.
+	long ts;
+	long seq;
+	// next pending event of the same order, in key order.
+	Entry nextSameId;
+	boolean released;
+	// next in the free list.
+	Entry nextFree;
+
+	void set(final OrderEvent oe, final long ts, final long arrival, final long arrivalSeq) {
+	    this.oe = oe;
+	    this.id = oe.getOrderInfo().getexchangeOrderId();
+	    this.rank = rank(oe.getState());
+	    this.arrival = arrival;
+	    this.arrivalSeq = arrivalSeq;
+	    this.ts = ts;
+	    this.seq = arrivalSeq;
+	    this.nextSameId = null;
+	    this.released = false;
+	}
+
+	public int compareTo(final Entry e) {
+	    if(ts != e.ts)
+		return ts < e.ts ? -1 : 1;
+	    if(seq != e.seq)
+		return seq < e.seq ? -1 : 1;
+	    if(rank != e.rank)
+		return rank < e.rank ? -1 : 1;
+	    return arrivalSeq < e.arrivalSeq ? -1 : arrivalSeq == e.arrivalSeq ? 0 : 1;
+	}
+    }
+
+    private static int rank(final OrderState state) {
+	switch(state) {
+	case CREATED:
+	    return 0;
+	case UPDATED:
+	    return 1;
+	default:
+	    return 2;
+	}
+    }
+
+    private final EventListener<OrderEvent> next;
+    // next, if it takes batches, and the events released so far by a call.
+    private final BatchListener batchNext;
+    private OrderEvent[] released = new OrderEvent[16];
+    private int releasedCount = 0;
+    private final long window;
+    private final int maxEvents;
+    private final Clock clock;
+
+    private final PriorityQueue<Entry> pending = new PriorityQueue<Entry>();
+    // the same entries in arrival order (released ones are dropped lazily).
+    private final ArrayDeque<Entry> arrivals = new ArrayDeque<Entry>();
+    // first (lowest key) pending event per order id, open addressed with
+    // linear probing (kept at most half full).
+    private Entry[] firstById = new Entry[64];
+    private int ids = 0;
+    private Entry free = null;
+
+    private long arrivalSeq = 0;
+    private long lastReleasedTs = Long.MIN_VALUE;
+
+    private long reordered = 0;
+    private long late = 0;
+
+    // window <= 0 disables the time limit, maxEvents <= 0 the count limit
+    // (one of them must be set). the clock is advanced with each event's
+    // exchange timestamp (WallClock for live, EventClock for replay).
+    public ReorderBuffer(final EventListener<OrderEvent> next, final long window, final int maxEvents, final Clock clock) {
+	if(window <= 0 && maxEvents <= 0)
+	    throw new IllegalArgumentException("need a time window or max events");
+	this.next = next;
+	this.batchNext = next instanceof BatchListener ? (BatchListener) next : null;
+	this.window = window;
+	this.maxEvents = maxEvents;
+	this.clock = clock;
+    }
+
+    public synchronized int getPending() {
+	return pending.size();
+    }
+
+    // events released in a different order than they arrived.
+    public synchronized long getReordered() {
+	return reordered;
+    }
+
+    // events which arrived older than an already released event.
+    public synchronized long getLate() {
+	return late;
+    }
+
+    public synchronized void onEvent(final OrderEvent oe) {
+	clock.advance(oe.getOrderInfo().getExchangeTimestamp());
+	final long now = clock.currentTimeMillis();
+	final long ts = oe.getOrderInfo().getExchangeTimestamp();
+	if(ts < lastReleasedTs) {
+	    arrivalSeq++;
+	    late++;
+	    if(!pending.isEmpty())
+		reordered++;
+	    release(oe);
+	} else {
+	    Entry e = free;
+	    if(e != null)
+		free = e.nextFree;
+	    else
+		e = new Entry();
+	    e.set(oe, ts, now, arrivalSeq++);
+	    link(e);
+	    pending.add(e);
+	    arrivals.addLast(e);
+	}
+	releaseDue(now);
+	deliver();
+    }
+
+    private void release(final OrderEvent oe) {
+	if(batchNext == null) {
+	    next.onEvent(oe);
+	    return;
+	}
+	if(releasedCount == released.length) {
+	    final OrderEvent[] a = new OrderEvent[released.length * 2];
+	    System.arraycopy(released, 0, a, 0, releasedCount);
+	    released = a;
+	}
+	released[releasedCount++] = oe;
+    }
+
+    private void deliver() {
+	if(releasedCount == 0)
+	    return;
+	final int n = releasedCount;
+	releasedCount = 0;
+	try {
+	    batchNext.onEvents(released, 0, n);
+	} finally {
+	    for(int i = 0; i < n; i++)
+		released[i] = null;
+	}
+    }
+
+    // insert into the order's chain. lifecycle out of order: go right in
+    // front of the order's first pending event of a later state.
+    private void link(final Entry e) {
+	Entry prev = null;
+	Entry cur = first(e.id);
+	while(cur != null && cur.rank <= e.rank && cur.compareTo(e) < 0) {
+	    prev = cur;
+	    cur = cur.nextSameId;
+	}
+	if(cur != null && cur.rank > e.rank && cur.compareTo(e) < 0) {
+	    e.ts = cur.ts;
+	    e.seq = cur.seq;
+	}
+	e.nextSameId = cur;
+	if(prev == null)
+	    setFirst(e.id, e);
+	else
+	    prev.nextSameId = e;
+    }
+
+    // release what is due at time now (ms, same time base as the clock).
+    // call this periodically, on the events' thread, if events can stop
+    // arriving.
+    public synchronized void tick(final long now) {
+	releaseDue(now);
+	deliver();
+    }
+
+    private void releaseDue(final long now) {
+	while(maxEvents > 0 && pending.size() > maxEvents)
+	    releaseFirst();
+	if(window <= 0)
+	    return;
+	// the oldest arrival is due: it and everything ordered before it go.
+	Entry oldest;
+	while((oldest = oldestArrival()) != null && oldest.arrival + window <= now) {
+	    while(!oldest.released)
+		releaseFirst();
+	}
+    }
+
+    private Entry oldestArrival() {
+	while(!arrivals.isEmpty() && arrivals.peekFirst().released) {
+	    // no longer referenced: back to the pool.
+	    final Entry e = arrivals.pollFirst();
+	    e.oe = null;
+	    e.id = null;
+	    e.nextSameId = null;
+	    e.nextFree = free;
+	    free = e;
+	}
+	return arrivals.peekFirst();
+    }
+
+    private int slot(final String id) {
+	final int h = id.hashCode();
+	return (h ^ (h >>> 16)) & (firstById.length - 1);
+    }
+
+    private Entry first(final String id) {
+	final int mask = firstById.length - 1;
+	Entry e;
+	for(int i = slot(id); (e = firstById[i]) != null; i = (i + 1) & mask) {
+	    if(e.id.equals(id))
+		return e;
+	}
+	return null;
+    }
+
+    private void setFirst(final String id, final Entry first) {
+	final int mask = firstById.length - 1;
+	int i = slot(id);
+	Entry e;
+	while((e = firstById[i]) != null) {
+	    if(e.id.equals(id)) {
+		firstById[i] = first;
+		return;
+	    }
+	    i = (i + 1) & mask;
+	}
+	firstById[i] = first;
+	if(++ids * 2 > firstById.length)
+	    rehash();
+    }
+
+    private void removeFirst(final String id) {
+	final int mask = firstById.length - 1;
+	int i = slot(id);
+	while(!firstById[i].id.equals(id))
+	    i = (i + 1) & mask;
+	// shift back the entries after it which probed past the hole.
+	int j = i;
+	while(true) {
+	    j = (j + 1) & mask;
+	    final Entry e = firstById[j];
+	    if(e == null)
+		break;
+	    final int k = slot(e.id);
+	    if(i <= j ? (i < k && k <= j) : (i < k || k <= j))
+		continue;
+	    firstById[i] = e;
+	    i = j;
+	}
+	firstById[i] = null;
+	ids--;
+    }
+
+    private void rehash() {
+	final Entry[] old = firstById;
+	firstById = new Entry[old.length * 2];
+	final int mask = firstById.length - 1;
+	for(int i = 0; i < old.length; i++) {
+	    if(old[i] == null)
+		continue;
+	    int j = slot(old[i].id);
+	    while(firstById[j] != null)
+		j = (j + 1) & mask;
+	    firstById[j] = old[i];
+	}
+    }
+
+    // release everything held.
+    public synchronized void flush() {
+	while(!pending.isEmpty())
+	    releaseFirst();
+	deliver();
+    }
+
+    private void releaseFirst() {
+	final Entry e = pending.poll();
+	// the first in key order is also first in its chain.
+	if(e.nextSameId != null)
+	    setFirst(e.id, e.nextSameId);
+	else
+	    removeFirst(e.id);
+	// ahead of an earlier arrival?
+	if(oldestArrival() != e)
+	    reordered++;
+	e.released = true;
+	if(e.ts > lastReleasedTs)
+	    lastReleasedTs = e.ts;
+	release(e.oe);
+    }
+
+    // runs the buffer on its own thread: events are handed over through a
+    // bounded queue (the feeding thread waits while it is full) and when
+    // none has come for the window (or 1 s, count limit only) the due ones
+    // are released by the wall clock (live, so the buffer's clock is a
+    // WallClock, which only moves with events). the buffer and the stages
+    // after it are only called on this thread.
+    public final static class Feed implements EventListener<OrderEvent>, Runnable {
+
+	private final ReorderBuffer buffer;
+	private final BlockingQueue<OrderEvent> queue;
+	private final long timeout;
+
+	public Feed(final ReorderBuffer buffer, final int capacity) {
+	    this.buffer = buffer;
+	    this.queue = new ArrayBlockingQueue<OrderEvent>(capacity);
+	    this.timeout = buffer.window > 0 ? buffer.window : 1000;
+	}
+
+	public void onEvent(final OrderEvent oe) {
+	    try {
+		queue.put(oe);
+	    } catch(final InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+
+	public void run() {
+	    try {
+		while(!Thread.currentThread().isInterrupted()) {
+		    OrderEvent oe = queue.poll();
+		    if(oe == null)
+			oe = queue.poll(timeout, TimeUnit.MILLISECONDS);
+		    if(oe != null)
+			buffer.onEvent(oe);
+		    else
+			buffer.tick(System.currentTimeMillis());
+		}
+	    } catch(final InterruptedException e) {
+		// stopped.
+	    }
+	}
+
+	// start a (daemon) thread draining the queue.
+	public Feed start() {
+	    final Thread t = new Thread(this, "reorder");
+	    t.setDaemon(true);
+	    t.start();
+	    return this;
+	}
+    }
+
+    // pending, reordered and late counts as jmx gauges (reorder.*).
+    public void addGauges(final BookMetrics metrics) {
+	metrics.addGauge("reorder.pending", new BookMetrics.Gauge() {
+		public long get() {
+		    return getPending();
+		}
+	    });
+	metrics.addGauge("reorder.reordered", new BookMetrics.Gauge() {
+		public long get() {
+		    return getReordered();
+		}
+	    });
+	metrics.addGauge("reorder.late", new BookMetrics.Gauge() {
+		public long get() {
+		    return getLate();
+		}
+	    });
+    }
+}
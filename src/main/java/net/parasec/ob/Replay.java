@@ -0,0 +1,267 @@
+package net.parasec.ob;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.security.MessageDigest;
+
+
+// re-construct an order book from a raw order log (orders.log):
+//
+// order_created {"price": "814.14", "amount": "0.16100000", "datetime": "1390827243", "id": 114150, "order_type": 1}
+// order_deleted {"price": "814.54", "amount": "0.01615447", "datetime": "1390827240", "id": 114148, "order_type": 0}
+// order_changed {"price": "814.14", "amount": "0.14485592", "datetime": "1390827243", "id": 114150, "order_type": 1}
+//
+// lines are decoded straight from a file channel buffer (OrderLogDecoder).
+// a fix tag-value log (TagValueFeedAdapter) can be replayed the same way,
+// and an archive written by ArchiveConverter in place of the log.
+// the book runs on an event clock (exchange time), so the state csv for a
+// given log is always the same. a sha-256 of the csv stream can be recorded
+// to, or verified against, a golden file: any change which alters results
+// (a performance change should not) will fail verification.
+public final class Replay {
+
+    private final OrderBook ob;
+    private final BookFeedHandler book;
+    private final MessageDigest digest;
+    private long events = 0;
+    private IndicatorWriter indicators = null;
+    private StateSampler sampler = null;
+    private OrderBatch batch = null;
+    private BookRenderer renderer = null;
+
+    public Replay() throws Exception {
+	this(new EventClock());
+    }
+
+    public Replay(final Clock clock) throws Exception {
+	ob = new LinkedOrderBook(clock);
+	book = new BookFeedHandler(ob);
+	digest = MessageDigest.getInstance("SHA-256");
+    }
+
+    public OrderBook getOrderBook() {
+	return ob;
+    }
+
+    // also write the state after each event to a columnar indicator store.
+    public Replay setIndicatorWriter(final IndicatorWriter indicators) {
+	this.indicators = indicators;
+	return this;
+    }
+
+    // feed each update to a sampler (whose clock the book should run on,
+    // see StateSampler.wrap).
+    public Replay setSampler(final StateSampler sampler) {
+	this.sampler = sampler;
+	return this;
+    }
+
+    // apply events in batches of up to size (OrderBook.applyBatch), with
+    // evt called after each batch rather than each event. the state after a
+    // batch is not always that after its last event unbatched: percentiles
+    // and impacts are recomputed at the end of the batch for every side it
+    // changed, where unbatched some events leave them as they were, so the
+    // batched ones can be fresher. there are also fewer states, so the
+    // digest is not that of an unbatched replay either.
+    public Replay setBatch(final int size) {
+	this.batch = size > 1 ? new OrderBatch(size) : null;
+	return this;
+    }
+
+    // show the book after each update (at most at the renderer's frame
+    // rate) when emitting.
+    public Replay setRenderer(final BookRenderer renderer) {
+	this.renderer = renderer;
+	return this;
+    }
+
+    public long getEvents() {
+	return events;
+    }
+
+    // apply an order event to the book. action is one of
+    // OrderLogDecoder.CREATED/CHANGED/DELETED, order type BUY/SELL.
+    public void apply(final int action, final int orderType, final long id,
+		      final long price, final long amount, final long ts) {
+	book.onOrder(action, orderType, id, price, amount, ts);
+	events++;
+    }
+
+    private void applyBatch(final OrderBookStream.Evt evt) {
+	ob.applyBatch(batch);
+	events += batch.size();
+	batch.clear();
+	evt.onUpdate(ob);
+    }
+
+    // replay an order log, fix tag-value log (see FeedReader.forFile) or
+    // archive (by its magic) through the book, calling evt after each event
+    // (or batch).
+    public void run(final File log, final OrderBookStream.Evt evt) throws IOException {
+	final OrderBatch batch = this.batch;
+	final FeedHandler handler = batch == null ? new FeedHandler() {
+		public void onOrder(final int action, final int side, final long id,
+				    final long price, final long amount, final long ts) {
+		    apply(action, side, id, price, amount, ts);
+		    evt.onUpdate(ob);
+		}
+	    } : new FeedHandler() {
+		public void onOrder(final int action, final int side, final long id,
+				    final long price, final long amount, final long ts) {
+		    batch.onOrder(action, side, id, price, amount, ts);
+		    if(batch.isFull())
+			applyBatch(evt);
+		}
+	    };
+	if(ArchiveReader.isArchive(log)) {
+	    final ArchiveReader reader = new ArchiveReader(log);
+	    try {
+		while(reader.next()) {
+		    handler.onOrder(reader.getAction(), reader.getOrderType(), reader.getId(),
+				    reader.getPrice(), reader.getAmount(), reader.getTimestamp());
+		}
+	    } finally {
+		reader.close();
+	    }
+	} else {
+	    FeedReader.read(log, FeedReader.forFile(log), handler);
+	}
+	if(batch != null && !batch.isEmpty())
+	    applyBatch(evt);
+    }
+
+    // add the current state csv row to the digest.
+    public String update() throws IOException {
+	final String csv = ob.getState().toCsv().toString();
+	digest.update(csv.getBytes("US-ASCII"));
+	digest.update((byte) '\n');
+	return csv;
+    }
+
+    // digest the state after an event, and optionally show it.
+    private void emit(final long delay, final boolean csv) throws Exception {
+	final String row = update();
+	if(indicators != null)
+	    indicators.write(ob.getState());
+	if(sampler != null)
+	    sampler.onUpdate(ob);
+	if(renderer != null)
+	    renderer.onUpdate(ob);
+	if(csv)
+	    System.err.println(row);
+	if(delay > 0)
+	    Thread.sleep(delay);
+    }
+
+    public String getDigest() {
+	final byte[] d = digest.digest();
+	final StringBuilder sb = new StringBuilder();
+	for(int i = 0; i < d.length; i++)
+	    sb.append(String.format("%02x", d[i] & 0xff));
+	return sb.toString();
+    }
+
+    private static String readGolden(final File f) throws IOException {
+	final BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f), "US-ASCII"));
+	try {
+	    return br.readLine();
+	} finally {
+	    br.close();
+	}
+    }
+
+    private static void usage() {
+	System.err.println("usage: Replay <orders.log | archive> [delay ms] [print order book (true|false)] [-record <golden> | -verify <golden>] [-columns <indicator store>] [-sample <interval ms>] [-batch <events>]");
+	System.exit(2);
+    }
+
+    public static void main(final String[] args) throws Exception {
+	if(args.length < 1)
+	    usage();
+
+	final File log = new File(args[0]);
+	long delay = 0;
+	boolean print = false;
+	File record = null, verify = null, columns = null;
+	long sample = 0;
+	int batch = 0;
+	for(int i = 1; i < args.length; i++) {
+	    if(args[i].equals("-record") && i + 1 < args.length)
+		record = new File(args[++i]);
+	    else if(args[i].equals("-verify") && i + 1 < args.length)
+		verify = new File(args[++i]);
+	    else if(args[i].equals("-columns") && i + 1 < args.length)
+		columns = new File(args[++i]);
+	    else if(args[i].equals("-sample") && i + 1 < args.length)
+		sample = Long.parseLong(args[++i]);
+	    else if(args[i].equals("-batch") && i + 1 < args.length)
+		batch = Integer.parseInt(args[++i]);
+	    else if(i == 1)
+		delay = Long.parseLong(args[i]);
+	    else if(i == 2)
+		print = Boolean.parseBoolean(args[i]);
+	    else
+		usage();
+	}
+	final boolean csv = record == null && verify == null && columns == null && sample <= 0;
+
+	final Replay replay;
+	if(sample > 0) {
+	    // one csv row per time bucket rather than per event.
+	    final StateSampler sampler = new StateSampler(sample, new StateSampler.Sink() {
+		    public void onSample(final StateSampler s) {
+			System.err.println(s.toCsv());
+		    }
+		});
+	    replay = new Replay(sampler.wrap(new EventClock())).setSampler(sampler);
+	} else {
+	    replay = new Replay();
+	}
+	replay.setBatch(batch);
+	if(print)
+	    replay.setRenderer(new BookRenderer(System.out));
+	if(columns != null)
+	    replay.setIndicatorWriter(new IndicatorWriter(columns));
+	final long d = delay;
+	replay.run(log, new OrderBookStream.Evt() {
+		public void onUpdate(final OrderBook ob) {
+		    try {
+			replay.emit(d, csv);
+		    } catch(final Exception e) {
+			throw new IllegalStateException(e);
+		    }
+		}
+	    });
+	// the last update may have fallen inside a frame interval.
+	if(replay.renderer != null)
+	    replay.renderer.render(replay.getOrderBook());
+	if(replay.indicators != null)
+	    replay.indicators.close();
+	if(replay.sampler != null)
+	    replay.sampler.flush();
+
+	final String result = "sha256 " + replay.getDigest() + " events " + replay.getEvents();
+	if(record != null) {
+	    final PrintStream ps = new PrintStream(new FileOutputStream(record), true, "US-ASCII");
+	    try {
+		ps.println(result);
+	    } finally {
+		ps.close();
+	    }
+	    System.out.println(result);
+	} else if(verify != null) {
+	    final String golden = readGolden(verify);
+	    if(result.equals(golden)) {
+		System.out.println("ok " + result);
+	    } else {
+		System.out.println("mismatch: expected " + golden + " got " + result);
+		System.exit(1);
+	    }
+	}
+    }
+}
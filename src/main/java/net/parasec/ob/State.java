@@ -1,7 +1,12 @@
 package net.parasec.ob;
 
+import net.parasec.trading.ticker.core.wire.Direction;
 import net.parasec.trading.ticker.core.wire.Trade;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 
 // updated on every tick
 
@@ -10,13 +15,15 @@ public final class State {
     public long event = 0;
 
     public long ts=0; // current time milliseconds
-    public Trade lastTrade=null;
-  
-    //public long lastTradeTs=0;
-    //public int lastPrice=0;
-    //public long lastVol=0;
-    //public int buyOrSell=0; // last price result of buy +1 or sell -1.
-    // int takerId, int makerId. 
+
+    // last trade (see TradeRing). lastTradeSeq is the trades so far, 0 = none.
+    public long lastTradeSeq=0;
+    public long lastTradeTs=0; // trade time (the book clock)
+    public int lastTradePrice=0;
+    public long lastTradeVolume=0;
+    public int lastTradeDirection=0; // buy +1 or sell -1.
+    public long lastTradeTaker=-1; // taker/maker order ids (Util.parseId), -1 = not known, -2 = not numeric.
+    public long lastTradeMaker=-1;
 
     //////////// liquidity takers/mos
     public int moActiveBuys=0; // number of current active buy mo orders (large order will take some ticks to complete (as orders on other side of book are filled))
@@ -104,6 +111,249 @@ public final class State {
     public int totalMoBuys = 0;
     public int totalMoSells = 0;
 
+    private static Limit copy(final Limit src, final Limit dst) {
+	if(src == null)
+	    return null;
+	final Limit l = (dst != null && dst.getPrice() == src.getPrice()) ? dst : new Limit(src.getPrice(), null, null);
+	return l.setVolume(src.getVolume()).setOrders(src.getOrders());
+    }
+
+    private static Percentile[] copy(final Percentile[] src, final Percentile[] dst) {
+	if(src == null)
+	    return null;
+	final Percentile[] p = (dst != null && dst.length == src.length) ? dst : new Percentile[src.length];
+	System.arraycopy(src, 0, p, 0, src.length);
+	return p;
+    }
+
+    private static int[] copy(final int[] src, final int[] dst) {
+	if(src == null)
+	    return null;
+	final int[] a = (dst != null && dst.length == src.length) ? dst : new int[src.length];
+	System.arraycopy(src, 0, a, 0, src.length);
+	return a;
+    }
+
+    // copy another state into this one, e.g. to hand it to another thread.
+    // arrays and best bid/ask are copied into objects owned by this state
+    // (reused between copies, so a copy normally allocates nothing): the
+    // best bid/ask keep price, volume and number of orders, but are not
+    // linked to the book.
+    public State copyFrom(final State s) {
+	event = s.event;
+	ts = s.ts;
+	lastTradeSeq = s.lastTradeSeq;
+	lastTradeTs = s.lastTradeTs;
+	lastTradePrice = s.lastTradePrice;
+	lastTradeVolume = s.lastTradeVolume;
+	lastTradeDirection = s.lastTradeDirection;
+	lastTradeTaker = s.lastTradeTaker;
+	lastTradeMaker = s.lastTradeMaker;
+	moActiveBuys = s.moActiveBuys;
+	moActiveSells = s.moActiveSells;
+	moOutstandingBuyVolume = s.moOutstandingBuyVolume;
+	moOutstandingSellVolume = s.moOutstandingSellVolume;
+	moBuyTip = s.moBuyTip;
+	moSellTip = s.moSellTip;
+	moLast100Buy = s.moLast100Buy;
+	moLast100BuyVol = s.moLast100BuyVol;
+	moLast100BuyMax = s.moLast100BuyMax;
+	moLast100SellVol = s.moLast100SellVol;
+	moLast100SellMax = s.moLast100SellMax;
+	moLast100BuyTrades = s.moLast100BuyTrades;
+	moLast100BuyTradeVol = s.moLast100BuyTradeVol;
+	moLast100BuyTradeMax = s.moLast100BuyTradeMax;
+	moLast100SellTradeVol = s.moLast100SellTradeVol;
+	moLast100SellTradeMax = s.moLast100SellTradeMax;
+	bestBid = copy(s.bestBid, bestBid);
+	bestAsk = copy(s.bestAsk, bestAsk);
+	bidPercentile = copy(s.bidPercentile, bidPercentile);
+	askPercentile = copy(s.askPercentile, askPercentile);
+	lowestPrice = s.lowestPrice;
+	highestPrice = s.highestPrice;
+	totalBids = s.totalBids;
+	totalAsks = s.totalAsks;
+	totalBidVol = s.totalBidVol;
+	totalAskVol = s.totalAskVol;
+	bidLast100Cancel = s.bidLast100Cancel;
+	bidLast100CancelVolume = s.bidLast100CancelVolume;
+	bidLast100CancelMax = s.bidLast100CancelMax;
+	askLast100CancelVolume = s.askLast100CancelVolume;
+	askLast100CancelMax = s.askLast100CancelMax;
+	buyImpact = copy(s.buyImpact, buyImpact);
+	sellImpact = copy(s.sellImpact, sellImpact);
+	totalMoBuyVol = s.totalMoBuyVol;
+	totalMoSellVol = s.totalMoSellVol;
+	totalMoBuys = s.totalMoBuys;
+	totalMoSells = s.totalMoSells;
+	return this;
+    }
+
+    private static void writePercentiles(final DataOutput out, final Percentile[] p) throws IOException {
+	out.writeInt(p != null ? p.length : -1);
+	for(int i = 0; p != null && i < p.length; i++) {
+	    out.writeBoolean(p[i] != null);
+	    if(p[i] != null) {
+		out.writeInt(p[i].getVwap());
+		out.writeInt(p[i].getOrders());
+		out.writeInt(p[i].getIdPriceLevels());
+		out.writeLong(p[i].getVolume());
+	    }
+	}
+    }
+
+    private static Percentile[] readPercentiles(final DataInput in) throws IOException {
+	final int len = in.readInt();
+	if(len < 0)
+	    return null;
+	final Percentile[] p = new Percentile[len];
+	for(int i = 0; i < len; i++) {
+	    if(in.readBoolean())
+		p[i] = new Percentile(in.readInt(), in.readInt(), in.readInt(), in.readLong());
+	}
+	return p;
+    }
+
+    private static void writeInts(final DataOutput out, final int[] a) throws IOException {
+	out.writeInt(a != null ? a.length : -1);
+	for(int i = 0; a != null && i < a.length; i++)
+	    out.writeInt(a[i]);
+    }
+
+    private static int[] readInts(final DataInput in) throws IOException {
+	final int len = in.readInt();
+	if(len < 0)
+	    return null;
+	final int[] a = new int[len];
+	for(int i = 0; i < len; i++)
+	    a[i] = in.readInt();
+	return a;
+    }
+
+    // the fields as copyFrom, less best bid/ask (which are the book's own
+    // levels), for a checkpoint (see LinkedOrderBook.writeCheckpoint).
+    public void writeTo(final DataOutput out) throws IOException {
+	out.writeLong(event);
+	out.writeLong(ts);
+	out.writeLong(lastTradeSeq);
+	out.writeLong(lastTradeTs);
+	out.writeInt(lastTradePrice);
+	out.writeLong(lastTradeVolume);
+	out.writeInt(lastTradeDirection);
+	out.writeLong(lastTradeTaker);
+	out.writeLong(lastTradeMaker);
+	out.writeInt(moActiveBuys);
+	out.writeInt(moActiveSells);
+	out.writeLong(moOutstandingBuyVolume);
+	out.writeLong(moOutstandingSellVolume);
+	out.writeInt(moBuyTip);
+	out.writeInt(moSellTip);
+	out.writeInt(moLast100Buy);
+	out.writeLong(moLast100BuyVol);
+	out.writeLong(moLast100BuyMax);
+	out.writeLong(moLast100SellVol);
+	out.writeLong(moLast100SellMax);
+	out.writeInt(moLast100BuyTrades);
+	out.writeLong(moLast100BuyTradeVol);
+	out.writeLong(moLast100BuyTradeMax);
+	out.writeLong(moLast100SellTradeVol);
+	out.writeLong(moLast100SellTradeMax);
+	writePercentiles(out, bidPercentile);
+	writePercentiles(out, askPercentile);
+	out.writeInt(lowestPrice);
+	out.writeInt(highestPrice);
+	out.writeInt(totalBids);
+	out.writeInt(totalAsks);
+	out.writeLong(totalBidVol);
+	out.writeLong(totalAskVol);
+	out.writeInt(bidLast100Cancel);
+	out.writeLong(bidLast100CancelVolume);
+	out.writeLong(bidLast100CancelMax);
+	out.writeLong(askLast100CancelVolume);
+	out.writeLong(askLast100CancelMax);
+	writeInts(out, buyImpact);
+	writeInts(out, sellImpact);
+	out.writeLong(totalMoBuyVol);
+	out.writeLong(totalMoSellVol);
+	out.writeInt(totalMoBuys);
+	out.writeInt(totalMoSells);
+    }
+
+    public State readFrom(final DataInput in) throws IOException {
+	event = in.readLong();
+	ts = in.readLong();
+	lastTradeSeq = in.readLong();
+	lastTradeTs = in.readLong();
+	lastTradePrice = in.readInt();
+	lastTradeVolume = in.readLong();
+	lastTradeDirection = in.readInt();
+	lastTradeTaker = in.readLong();
+	lastTradeMaker = in.readLong();
+	moActiveBuys = in.readInt();
+	moActiveSells = in.readInt();
+	moOutstandingBuyVolume = in.readLong();
+	moOutstandingSellVolume = in.readLong();
+	moBuyTip = in.readInt();
+	moSellTip = in.readInt();
+	moLast100Buy = in.readInt();
+	moLast100BuyVol = in.readLong();
+	moLast100BuyMax = in.readLong();
+	moLast100SellVol = in.readLong();
+	moLast100SellMax = in.readLong();
+	moLast100BuyTrades = in.readInt();
+	moLast100BuyTradeVol = in.readLong();
+	moLast100BuyTradeMax = in.readLong();
+	moLast100SellTradeVol = in.readLong();
+	moLast100SellTradeMax = in.readLong();
+	bidPercentile = readPercentiles(in);
+	askPercentile = readPercentiles(in);
+	lowestPrice = in.readInt();
+	highestPrice = in.readInt();
+	totalBids = in.readInt();
+	totalAsks = in.readInt();
+	totalBidVol = in.readLong();
+	totalAskVol = in.readLong();
+	bidLast100Cancel = in.readInt();
+	bidLast100CancelVolume = in.readLong();
+	bidLast100CancelMax = in.readLong();
+	askLast100CancelVolume = in.readLong();
+	askLast100CancelMax = in.readLong();
+	buyImpact = readInts(in);
+	sellImpact = readInts(in);
+	totalMoBuyVol = in.readLong();
+	totalMoSellVol = in.readLong();
+	totalMoBuys = in.readInt();
+	totalMoSells = in.readInt();
+	return this;
+    }
+
+    // "null" when not known, "?" when not numeric (see Util.parseId).
+    private static String id(final long id) {
+	return id >= 0 ? Long.toString(id) : id == Util.UNPARSED_ID ? "?" : "null";
+    }
+
+    // the last trade as a Trade (allocated per call), null if none yet:
+    // for callers of the former lastTrade field. ids which were not numeric
+    // are null, the maker timestamp is not kept (0).
+    @Deprecated
+    public Trade getLastTrade() {
+	if(lastTradeSeq == 0)
+	    return null;
+	return new Trade(lastTradeDirection > 0 ? Direction.BUY : Direction.SELL, lastTradePrice, lastTradeVolume,
+			 lastTradeTs, 0, null, lastTradeMaker >= 0 ? Long.toString(lastTradeMaker) : null,
+			 lastTradeTaker >= 0 ? Long.toString(lastTradeTaker) : null);
+    }
+
+    // same fields as Util.tradeToCsv.
+    private StringBuilder lastTradeToCsv(final String dl) {
+	return new StringBuilder().append(lastTradeTs).append(dl)
+	    .append(Util.asUSD(lastTradePrice)).append(dl)
+	    .append(Util.asBTC(lastTradeVolume)).append(dl)
+	    .append(lastTradeDirection).append(dl)
+	    .append(id(lastTradeTaker)).append(dl)
+	    .append(id(lastTradeMaker));
+    }
+
     // .csv
     public StringBuilder toCsv() {
 	// cat State.java |grep "=" |awk '{print $3}' |sed 's/^/.append(/g' |sed 's/\=0;/\).append(dl)/g'
@@ -112,7 +362,7 @@ public final class State {
 		.append("state,")
 		.append(event).append(dl)
 		.append(ts).append(dl)
-		.append(lastTrade!=null ? Util.tradeToCsv(lastTrade, dl) : ",,,,,")
+		.append(lastTradeSeq!=0 ? lastTradeToCsv(dl) : ",,,,,")
 		.append(dl)
 		.append(moActiveBuys).append(dl)
 		.append(moActiveSells).append(dl)
@@ -165,61 +415,90 @@ public final class State {
 
     
 
-    public String toString() {
-
-	try {
-
-	    final String nl = "\n";
-	    final StringBuilder sb = new StringBuilder().append("event = ").append(event).append(" ts = ").append(ts).append(" ")
-		.append("last trade:");
-	    if(lastTrade==null){
-		sb.append(" none");
-	    } else { 
-		sb.append(" ts = ").append(lastTrade.getExchangeTimestamp()).append(" type = ").append(lastTrade.getDirection().name()).append(" amount = ").append(Util.asBTC(lastTrade.getVolume())).append(" btc").append(" @ $").append(Util.asUSD(lastTrade.getPrice())).append(" taker = ").append(lastTrade.getTakerIdentifier()).append(" maker = ").append(lastTrade.getMakerIdentifier());
-	    }
-	    sb.append(nl);
-
-
-	    sb.append("takers (market orders): ").append("active buys (#|vol|impact) = ").append(moActiveBuys).append("|").append(Util.asBTC(moOutstandingBuyVolume)).append("|").append(Util.asUSD(moBuyTip)).append(" active sells (#|vol|impact) = ").append(moActiveSells).append("|").append(Util.asBTC(moOutstandingSellVolume)).append("|").append(Util.asUSD(moSellTip)).append(nl)
-		.append("takers, last 100 market orders: buys|sells = ").append(moLast100Buy).append("|").append(100-moLast100Buy).append(" filled|max buy vol = ").append(Util.asBTC(moLast100BuyVol)).append("|").append(Util.asBTC(moLast100BuyMax)).append(" filled|max sell vol = ").append(Util.asBTC(moLast100SellVol)).append("|").append(Util.asBTC(moLast100SellMax)).append(nl)
-		.append("takers, last 100 trades: ").append(" buys|sells = ").append(moLast100BuyTrades).append("|").append(100-moLast100BuyTrades).append(" total|max buy vol = ").append(Util.asBTC(moLast100BuyTradeVol)).append("|").append(Util.asBTC(moLast100BuyTradeMax)).append(" total|max sell vol = ").append(Util.asBTC(moLast100SellTradeVol)).append("|").append(Util.asBTC(moLast100SellTradeMax)).append(nl)
-		.append("makers, best bid|ask = ");
-	
-	    sb.append((bestBid==null?"na":Util.asUSD(bestBid.getPrice())));
-	    sb.append("|").append((bestAsk==null?"na":Util.asUSD(bestAsk.getPrice())));
-
-
-	    sb.append(" bid percentile vwap|orders|price_levels|volume = ");
-
-
-	    sb.append(Percentile.statusString(bidPercentile)).append(" ask = ").append(Percentile.statusString(askPercentile));
-
-       
-	    sb.append(nl)
-		.append("makers, visibility: lowest|highest price = ").append(Util.asUSD(lowestPrice)).append("|").append(Util.asUSD(highestPrice)).append(nl)
-		.append("makers, total bids|asks = ").append(totalBids).append("|").append(totalAsks).append(" total bid|ask vol = ").append(Util.asBTC(totalBidVol)).append("|").append(Util.asBTC(totalAskVol)).append(nl)
-		.append("makers, last 100 bid|ask cancellations: ").append(bidLast100Cancel).append("|").append(100-bidLast100Cancel).append(" removed bid vol|max = ").append(Util.asBTC(bidLast100CancelVolume)).append("|").append(Util.asBTC(bidLast100CancelMax)).append(" ask vol|max = ").append(Util.asBTC(askLast100CancelVolume)).append("|").append(Util.asBTC(askLast100CancelMax));
-
-	    if(buyImpact!=null) {
-		sb.append("\nbuy impact:  ");
-		for(int i = 0, len = impactPoints.length; i< len;i++) {
-		    sb.append((int)Math.pow(2,i)).append("(").append(Util.asUSD(buyImpact[i])).append(") ");
-		}
+    // the toString text, appended to sb with Util.appendUSD/appendBTC (no
+    // String.format), for display paths which run often (BookRenderer).
+    public StringBuilder appendTo(final StringBuilder sb) {
+	final String nl = "\n";
+	sb.append("event = ").append(event).append(" ts = ").append(ts).append(" ")
+	    .append("last trade:");
+	if(lastTradeSeq==0){
+	    sb.append(" none");
+	} else { 
+	    sb.append(" ts = ").append(lastTradeTs).append(" type = ").append(lastTradeDirection > 0 ? "BUY" : "SELL").append(" amount = ");
+	    Util.appendBTC(sb, lastTradeVolume).append(" btc").append(" @ $");
+	    Util.appendUSD(sb, lastTradePrice).append(" taker = ").append(id(lastTradeTaker)).append(" maker = ").append(id(lastTradeMaker));
+	}
+	sb.append(nl);
+
+	sb.append("takers (market orders): ").append("active buys (#|vol|impact) = ").append(moActiveBuys).append("|");
+	Util.appendBTC(sb, moOutstandingBuyVolume).append("|");
+	Util.appendUSD(sb, moBuyTip).append(" active sells (#|vol|impact) = ").append(moActiveSells).append("|");
+	Util.appendBTC(sb, moOutstandingSellVolume).append("|");
+	Util.appendUSD(sb, moSellTip).append(nl)
+	    .append("takers, last 100 market orders: buys|sells = ").append(moLast100Buy).append("|").append(100-moLast100Buy).append(" filled|max buy vol = ");
+	Util.appendBTC(sb, moLast100BuyVol).append("|");
+	Util.appendBTC(sb, moLast100BuyMax).append(" filled|max sell vol = ");
+	Util.appendBTC(sb, moLast100SellVol).append("|");
+	Util.appendBTC(sb, moLast100SellMax).append(nl)
+	    .append("takers, last 100 trades: ").append(" buys|sells = ").append(moLast100BuyTrades).append("|").append(100-moLast100BuyTrades).append(" total|max buy vol = ");
+	Util.appendBTC(sb, moLast100BuyTradeVol).append("|");
+	Util.appendBTC(sb, moLast100BuyTradeMax).append(" total|max sell vol = ");
+	Util.appendBTC(sb, moLast100SellTradeVol).append("|");
+	Util.appendBTC(sb, moLast100SellTradeMax).append(nl)
+	    .append("makers, best bid|ask = ");
+
+	if(bestBid==null)
+	    sb.append("na");
+	else
+	    Util.appendUSD(sb, bestBid.getPrice());
+	sb.append("|");
+	if(bestAsk==null)
+	    sb.append("na");
+	else
+	    Util.appendUSD(sb, bestAsk.getPrice());
+
+	sb.append(" bid percentile vwap|orders|price_levels|volume = ");
+	Percentile.appendStatus(sb, bidPercentile).append(" ask = ");
+	Percentile.appendStatus(sb, askPercentile);
+
+	sb.append(nl)
+	    .append("makers, visibility: lowest|highest price = ");
+	Util.appendUSD(sb, lowestPrice).append("|");
+	Util.appendUSD(sb, highestPrice).append(nl)
+	    .append("makers, total bids|asks = ").append(totalBids).append("|").append(totalAsks).append(" total bid|ask vol = ");
+	Util.appendBTC(sb, totalBidVol).append("|");
+	Util.appendBTC(sb, totalAskVol).append(nl)
+	    .append("makers, last 100 bid|ask cancellations: ").append(bidLast100Cancel).append("|").append(100-bidLast100Cancel).append(" removed bid vol|max = ");
+	Util.appendBTC(sb, bidLast100CancelVolume).append("|");
+	Util.appendBTC(sb, bidLast100CancelMax).append(" ask vol|max = ");
+	Util.appendBTC(sb, askLast100CancelVolume).append("|");
+	Util.appendBTC(sb, askLast100CancelMax);
+
+	if(buyImpact!=null) {
+	    sb.append("\nbuy impact:  ");
+	    for(int i = 0, len = impactPoints.length; i< len;i++) {
+		sb.append(1 << i).append("(");
+		Util.appendUSD(sb, buyImpact[i]).append(") ");
 	    }
-	    if(sellImpact!=null) {
-		sb.append("\nsell impact: ");
-		for(int i = 0, len = impactPoints.length; i< len;i++) {
-		    sb.append((int)Math.pow(2,i)).append("(").append(Util.asUSD(sellImpact[i])).append(") ");
-		}
+	}
+	if(sellImpact!=null) {
+	    sb.append("\nsell impact: ");
+	    for(int i = 0, len = impactPoints.length; i< len;i++) {
+		sb.append(1 << i).append("(");
+		Util.appendUSD(sb, sellImpact[i]).append(") ");
 	    }
+	}
 	
-	    sb.append("\n")
-		.append("total market buy_vol|buys. sell_vol|sells = ")
-		.append(Util.asBTC(totalMoBuyVol)).append("|").append(totalMoBuys).append(" ")
-		.append(Util.asBTC(totalMoSellVol)).append("|").append(totalMoSells);
-
-	    return sb.toString();
+	sb.append("\n")
+	    .append("total market buy_vol|buys. sell_vol|sells = ");
+	Util.appendBTC(sb, totalMoBuyVol).append("|").append(totalMoBuys).append(" ");
+	Util.appendBTC(sb, totalMoSellVol).append("|").append(totalMoSells);
+	return sb;
+    }
 
+    public String toString() {
+	try {
+	    return appendTo(new StringBuilder()).toString();
 	}catch(Exception e){
 	    
 	    System.err.println(e);
@@ -0,0 +1,248 @@
+package net.parasec.ob;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+// fan-out of order book state to several consumers, each on its own thread.
+//
+// the book thread publishes once per update: the state, top levels and last
+// trades (BookFrame) are copied into the next slot of a pre-allocated ring
+// and the cursor is advanced. every
+// consumer tracks its own sequence and reads slots behind the cursor.
+//
+// a gating consumer sees every update: the publisher waits for it before
+// reusing a slot, so it must keep up (e.g. a strategy). a lossy consumer
+// never holds up the publisher: if it falls a ring behind it skips ahead to
+// the oldest slot still available and counts the drops (e.g. a renderer).
+// lossy consumers copy the slot out while holding a claim on it: the
+// publisher announces the sequence it is about to write, then waits while a
+// lossy consumer holds a claim on that slot; the consumer claims, then skips
+// the slot if a write to it has been announced. both sides write one
+// volatile and then read the other's, so at least one of them sees the
+// other and a slot is never copied while it is being rewritten.
+public final class StateRing implements OrderBookStream.Evt {
+
+    // called on the consumer's thread. the frame must not be kept after the
+    // call returns (it is reused).
+    public interface Handler {
+	void onFrame(BookFrame frame, long sequence);
+    }
+
+    public final class Consumer implements Runnable {
+
+	private final String name;
+	private final Handler handler;
+	private final boolean gating;
+	// last sequence handled.
+	private final AtomicLong sequence = new AtomicLong(-1);
+	private final BookFrame copy = new BookFrame(depth);
+	// sequence of the slot being copied (lossy only), -1 = none.
+	private volatile long reading = -1;
+	private volatile long dropped = 0;
+	private volatile boolean running = true;
+	private Thread thread = null;
+
+	private Consumer(final String name, final Handler handler, final boolean gating) {
+	    this.name = name;
+	    this.handler = handler;
+	    this.gating = gating;
+	}
+
+	public String getName() {
+	    return name;
+	}
+
+	public long getSequence() {
+	    return sequence.get();
+	}
+
+	// updates published but not yet handled.
+	public long getLag() {
+	    return cursor.get() - sequence.get();
+	}
+
+	public long getDropped() {
+	    return dropped;
+	}
+
+	public void run() {
+	    long next = sequence.get() + 1;
+	    int idle = 0;
+	    while(running) {
+		final long available = cursor.get();
+		if(available < next) {
+		    idle = idle(idle);
+		    continue;
+		}
+		idle = 0;
+		while(next <= available) {
+		    if(gating) {
+			handler.onFrame(slots[(int) (next & mask)], next);
+		    } else {
+			final long oldest = cursor.get() - size + 1;
+			if(next < oldest) {
+			    dropped += oldest - next;
+			    next = oldest;
+			}
+			reading = next;
+			if(writing - next >= size) {
+			    // being (or already) rewritten, skip it.
+			    reading = -1;
+			    dropped++;
+			    next++;
+			    continue;
+			}
+			copy.copyFrom(slots[(int) (next & mask)]);
+			reading = -1;
+			handler.onFrame(copy, next);
+		    }
+		    sequence.lazySet(next);
+		    next++;
+		}
+	    }
+	}
+
+	public void halt() {
+	    running = false;
+	    if(thread != null)
+		LockSupport.unpark(thread);
+	}
+    }
+
+    private final int size;
+    private final int mask;
+    private final int depth;
+    private final BookFrame[] slots;
+
+    // last published sequence.
+    private final AtomicLong cursor = new AtomicLong(-1);
+    // sequence being (or last) written.
+    private volatile long writing = -1;
+
+    private final List<Consumer> consumers = new ArrayList<Consumer>();
+    private Consumer[] gating = new Consumer[0];
+    private Consumer[] lossy = new Consumer[0];
+
+    public StateRing(final int size) {
+	this(size, 0);
+    }
+
+    // size is rounded up to a power of 2 (at least 2). each slot carries the
+    // top depth levels per side and the last depth trades.
+    public StateRing(final int size, final int depth) {
+	int s = 2;
+	while(s < size)
+	    s <<= 1;
+	this.size = s;
+	this.mask = s - 1;
+	this.depth = depth;
+	this.slots = new BookFrame[s];
+	for(int i = 0; i < s; i++)
+	    slots[i] = new BookFrame(depth);
+    }
+
+    public int getSize() {
+	return size;
+    }
+
+    public long getCursor() {
+	return cursor.get();
+    }
+
+    // add a consumer. must be called before publishing starts.
+    public synchronized Consumer addConsumer(final String name, final Handler handler, final boolean gating) {
+	final Consumer c = new Consumer(name, handler, gating);
+	c.sequence.set(cursor.get());
+	consumers.add(c);
+	if(gating)
+	    this.gating = append(this.gating, c);
+	else
+	    this.lossy = append(this.lossy, c);
+	return c;
+    }
+
+    private static Consumer[] append(final Consumer[] a, final Consumer c) {
+	final Consumer[] b = new Consumer[a.length + 1];
+	System.arraycopy(a, 0, b, 0, a.length);
+	b[a.length] = c;
+	return b;
+    }
+
+    public synchronized List<Consumer> getConsumers() {
+	return new ArrayList<Consumer>(consumers);
+    }
+
+    // start a (daemon) thread per consumer.
+    public synchronized void start() {
+	for(final Consumer c : consumers) {
+	    if(c.thread != null)
+		continue;
+	    c.thread = new Thread(c, "ring-" + c.name);
+	    c.thread.setDaemon(true);
+	    c.thread.start();
+	}
+    }
+
+    public synchronized void halt() {
+	for(final Consumer c : consumers)
+	    c.halt();
+    }
+
+    // consumer lag and drops as jmx gauges (ring.<consumer>,
+    // ring.<consumer>.dropped).
+    public synchronized void addGauges(final BookMetrics metrics) {
+	for(final Consumer c : consumers) {
+	    metrics.addGauge("ring." + c.name, new BookMetrics.Gauge() {
+		    public long get() {
+			return c.getLag();
+		    }
+		});
+	    metrics.addGauge("ring." + c.name + ".dropped", new BookMetrics.Gauge() {
+		    public long get() {
+			return c.getDropped();
+		    }
+		});
+	}
+    }
+
+    // spin, then yield, then park while there is nothing to do.
+    private static int idle(final int idle) {
+	if(idle < 100) {
+	    return idle + 1;
+	} else if(idle < 200) {
+	    Thread.yield();
+	    return idle + 1;
+	}
+	LockSupport.parkNanos(50000);
+	return idle;
+    }
+
+    // publish a copy of the book. only one thread may publish.
+    public void publish(final OrderBook ob) {
+	final long next = cursor.get() + 1;
+	final long wrap = next - size;
+	final Consumer[] gating = this.gating;
+	int idle = 0;
+	for(int i = 0; i < gating.length; i++) {
+	    while(gating[i].sequence.get() < wrap && gating[i].running)
+		idle = idle(idle);
+	}
+	writing = next;
+	final Consumer[] lossy = this.lossy;
+	for(int i = 0; i < lossy.length; i++) {
+	    // a copy already under way finishes first (it is short).
+	    long r;
+	    while((r = lossy[i].reading) >= 0 && (r & mask) == (next & mask))
+		Thread.yield();
+	}
+	slots[(int) (next & mask)].fill(ob);
+	cursor.set(next);
+    }
+
+    public void onUpdate(final OrderBook ob) {
+	publish(ob);
+    }
+}
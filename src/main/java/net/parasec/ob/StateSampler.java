@@ -0,0 +1,256 @@
+package net.parasec.ob;
+
+
+// time bucketed sampling of the order book: rather than a state row per
+// event, one record per fixed interval with the state at the end of the
+// bucket and aggregates over the bucket: min/max best bid and ask, traded
+// volume by side, event counts and time weighted spread. buckets without
+// events are emitted too, carrying the state forward.
+//
+// the sampler sees every update (Evt), and, if the book runs on a clock
+// wrapped by wrap(), is also told the time of each event before the event
+// is applied, so a bucket is closed with the state as it was at its end.
+// without the wrapped clock, buckets are closed on the first update past
+// their end. works the same live (WallClock) and in replay (EventClock).
+public final class StateSampler implements OrderBookStream.Evt {
+
+    // receives a record per bucket.
+    public interface Sink {
+	void onSample(StateSampler sample);
+    }
+
+    private final long interval;
+    private final Sink sink;
+
+    private OrderBook ob = null;
+    private long now = 0;
+
+    // current bucket.
+    private long start = 0;
+    private long end = 0;
+    private long events = 0;
+    private long adds = 0;
+    private long mods = 0;
+    private long dels = 0;
+    private int minBid = 0;
+    private int maxBid = 0;
+    private int minAsk = 0;
+    private int maxAsk = 0;
+    private long buyVolume = 0;
+    private long sellVolume = 0;
+    private double spreadArea = 0;
+    private long spreadTime = 0;
+
+    // spread (cents) and the time it has held since, -1 if either side empty.
+    private int spread = -1;
+    private long spreadSince = 0;
+
+    // book counters at the previous update.
+    private long seenAdds = 0;
+    private long seenMods = 0;
+    private long seenDels = 0;
+    private long seenTrades = 0;
+
+    public StateSampler(final long interval, final Sink sink) {
+	this.interval = interval;
+	this.sink = sink;
+    }
+
+    // clock for the order book which closes buckets before each event.
+    public Clock wrap(final Clock clock) {
+	return new Clock() {
+	    public void advance(final long exchangeTs) {
+		clock.advance(exchangeTs);
+		StateSampler.this.advance(clock.currentTimeMillis());
+	    }
+
+	    public long currentTimeMillis() {
+		return clock.currentTimeMillis();
+	    }
+	};
+    }
+
+    // close (and emit) the buckets which end at or before now.
+    public void advance(final long now) {
+	if(now > this.now)
+	    this.now = now;
+	if(ob == null)
+	    return;
+	while(this.now >= end) {
+	    accumulateSpread(end);
+	    sink.onSample(this);
+	    open(end);
+	}
+    }
+
+    // emit the current (partial) bucket, e.g. at the end of a replay.
+    public void flush() {
+	if(ob == null)
+	    return;
+	accumulateSpread(Math.max(now, start));
+	sink.onSample(this);
+	open(end);
+    }
+
+    private void open(final long start) {
+	this.start = start;
+	this.end = start + interval;
+	events = adds = mods = dels = 0;
+	buyVolume = sellVolume = 0;
+	spreadArea = 0;
+	spreadTime = 0;
+	spreadSince = start;
+	final State state = ob.getState();
+	minBid = maxBid = state.bestBid != null ? state.bestBid.getPrice() : 0;
+	minAsk = maxAsk = state.bestAsk != null ? state.bestAsk.getPrice() : 0;
+    }
+
+    private void accumulateSpread(final long t) {
+	if(spread >= 0 && t > spreadSince) {
+	    spreadArea += (double) spread * (t - spreadSince);
+	    spreadTime += t - spreadSince;
+	}
+	spreadSince = t;
+    }
+
+    public void onUpdate(final OrderBook ob) {
+	final State state = ob.getState();
+	if(state.ts > now)
+	    now = state.ts;
+	if(this.ob == null) {
+	    this.ob = ob;
+	    open(now - now % interval);
+	} else {
+	    // no wrapped clock: close on the first update past the bucket.
+	    advance(now);
+	}
+
+	final BookMetrics m = ob.getMetrics();
+	adds += m.adds - seenAdds;
+	mods += m.mods - seenMods;
+	dels += m.dels - seenDels;
+	events += (m.adds - seenAdds) + (m.mods - seenMods) + (m.dels - seenDels);
+	seenAdds = m.adds;
+	seenMods = m.mods;
+	seenDels = m.dels;
+
+	final long trades = state.lastTradeSeq - seenTrades;
+	if(trades > 1) {
+	    // several trades in one update (a batch): read them back from t&s.
+	    final TradeRing t = ob.getTrades();
+	    for(int i = 0, n = (int) Math.min(trades, t.size()); i < n; i++) {
+		if(t.isBuy(i))
+		    buyVolume += t.getVolume(i);
+		else
+		    sellVolume += t.getVolume(i);
+	    }
+	} else if(trades != 0) {
+	    if(state.lastTradeDirection > 0)
+		buyVolume += state.lastTradeVolume;
+	    else
+		sellVolume += state.lastTradeVolume;
+	}
+	seenTrades = state.lastTradeSeq;
+
+	if(state.bestBid != null) {
+	    final int bid = state.bestBid.getPrice();
+	    if(bid < minBid || minBid == 0)
+		minBid = bid;
+	    if(bid > maxBid)
+		maxBid = bid;
+	}
+	if(state.bestAsk != null) {
+	    final int ask = state.bestAsk.getPrice();
+	    if(ask < minAsk || minAsk == 0)
+		minAsk = ask;
+	    if(ask > maxAsk)
+		maxAsk = ask;
+	}
+
+	accumulateSpread(now);
+	spread = state.bestBid != null && state.bestAsk != null
+	    ? state.bestAsk.getPrice() - state.bestBid.getPrice() : -1;
+    }
+
+    public OrderBook getOrderBook() {
+	return ob;
+    }
+
+    public long getStart() {
+	return start;
+    }
+
+    public long getEnd() {
+	return end;
+    }
+
+    public long getEvents() {
+	return events;
+    }
+
+    public long getAdds() {
+	return adds;
+    }
+
+    public long getMods() {
+	return mods;
+    }
+
+    public long getDels() {
+	return dels;
+    }
+
+    public int getMinBid() {
+	return minBid;
+    }
+
+    public int getMaxBid() {
+	return maxBid;
+    }
+
+    public int getMinAsk() {
+	return minAsk;
+    }
+
+    public int getMaxAsk() {
+	return maxAsk;
+    }
+
+    public long getBuyVolume() {
+	return buyVolume;
+    }
+
+    public long getSellVolume() {
+	return sellVolume;
+    }
+
+    // time weighted spread in cents over the part of the bucket where both
+    // sides of the book were present (0 if never).
+    public double getTimeWeightedSpread() {
+	return spreadTime > 0 ? spreadArea / spreadTime : 0;
+    }
+
+    // sample,start,end,events,adds,mods,dels,min_bid,max_bid,min_ask,max_ask,
+    // buy_volume,sell_volume,tw_spread, followed by the fields of the
+    // State.toCsv() row at the end of the bucket.
+    public StringBuilder toCsv() {
+	final String dl = ",";
+	final StringBuilder state = ob.getState().toCsv();
+	return new StringBuilder()
+	    .append("sample,")
+	    .append(start).append(dl)
+	    .append(end).append(dl)
+	    .append(events).append(dl)
+	    .append(adds).append(dl)
+	    .append(mods).append(dl)
+	    .append(dels).append(dl)
+	    .append(Util.asUSD(minBid)).append(dl)
+	    .append(Util.asUSD(maxBid)).append(dl)
+	    .append(Util.asUSD(minAsk)).append(dl)
+	    .append(Util.asUSD(maxAsk)).append(dl)
+	    .append(Util.asBTC(buyVolume)).append(dl)
+	    .append(Util.asBTC(sellVolume)).append(dl)
+	    .append(String.format("%.4f", getTimeWeightedSpread() * 0.01)).append(dl)
+	    .append(state, "state,".length(), state.length());
+    }
+}
@@ -0,0 +1,370 @@
+package net.parasec.ob;
+
+import java.nio.ByteBuffer;
+
+
+// fix style tag=value market data (every field is tag=value followed by
+// SOH), decoded straight from the buffer without allocating. order events
+// are market data incremental refresh (35=X) messages, one or more entries
+// per message, each entry starting with 279:
+//
+//   8=FIX.4.4 9=<body length> 35=X 60=<transact time> 268=<entries>
+//   279=<update action> 269=<side> 278=<order id> 270=<price> 271=<size> ...
+//   10=<checksum>
+//
+// update action 0 = new, 1 = change, 2 = delete; side 0 = bid, 1 = offer;
+// transact time (utc) yyyyMMdd-HH:mm:ss[.SSS]; order ids are numeric,
+// prices and sizes decimal (scaled to cents and satoshi, rounding half up).
+// body length and checksum are checked: messages failing them, other
+// message types and malformed entries are skipped. not thread safe.
+public final class TagValueFeedAdapter implements FeedAdapter {
+
+    public final static byte SOH = 1;
+
+    // tags.
+    public final static int BEGIN_STRING = 8;
+    public final static int BODY_LENGTH = 9;
+    public final static int CHECKSUM = 10;
+    public final static int MSG_TYPE = 35;
+    public final static int TRANSACT_TIME = 60;
+    public final static int NO_MD_ENTRIES = 268;
+    public final static int MD_ENTRY_TYPE = 269;
+    public final static int MD_ENTRY_PX = 270;
+    public final static int MD_ENTRY_SIZE = 271;
+    public final static int MD_ENTRY_ID = 278;
+    public final static int MD_UPDATE_ACTION = 279;
+
+    private final static int PRICE_SCALE = 2;
+    private final static int SIZE_SCALE = 8;
+    private final static int MAX_BODY_LENGTH = 1 << 16;
+    // 10=nnn SOH
+    private final static int TRAILER_LENGTH = 7;
+
+    private final static byte[] BEGIN = {'8', '=', 'F', 'I', 'X', '.', '4', '.', '4'};
+
+    // messages or fragments skipped as malformed.
+    private long rejected = 0;
+
+    // encoder scratch.
+    private final ByteBuffer body = ByteBuffer.allocate(512);
+
+    public long getRejected() {
+	return rejected;
+    }
+
+    private static int indexOf(final ByteBuffer buf, final byte b, int i, final int limit) {
+	for(; i < limit; i++) {
+	    if(buf.get(i) == b)
+		return i;
+	}
+	return -1;
+    }
+
+    public int decode(final ByteBuffer buf, final boolean endOfInput, final FeedHandler handler) {
+	int events = 0;
+	while(buf.hasRemaining()) {
+	    final int start = buf.position();
+	    final int limit = buf.limit();
+	    final int beginEnd = indexOf(buf, SOH, start, limit);
+	    if(beginEnd < 0)
+		break;
+	    if(beginEnd - start < 2 || buf.get(start) != '8' || buf.get(start + 1) != '=') {
+		// not at a message start, skip the field.
+		rejected++;
+		buf.position(beginEnd + 1);
+		continue;
+	    }
+	    final int lengthStart = beginEnd + 1;
+	    final int lengthEnd = indexOf(buf, SOH, lengthStart, limit);
+	    if(lengthEnd < 0)
+		break;
+	    int length = -1;
+	    if(lengthEnd - lengthStart > 2 && buf.get(lengthStart) == '9' && buf.get(lengthStart + 1) == '=') {
+		length = 0;
+		for(int i = lengthStart + 2; i < lengthEnd && length >= 0; i++) {
+		    final int d = buf.get(i) - '0';
+		    length = (d < 0 || d > 9 || length > MAX_BODY_LENGTH) ? -1 : length * 10 + d;
+		}
+	    }
+	    if(length < 0 || length > MAX_BODY_LENGTH) {
+		rejected++;
+		buf.position(lengthEnd + 1);
+		continue;
+	    }
+	    final int bodyStart = lengthEnd + 1;
+	    final int bodyEnd = bodyStart + length;
+	    if(bodyEnd + TRAILER_LENGTH > limit)
+		break;
+	    if(!checksum(buf, start, bodyEnd)) {
+		rejected++;
+		buf.position(bodyEnd + TRAILER_LENGTH);
+		continue;
+	    }
+	    events += body(buf, bodyStart, bodyEnd, handler);
+	    buf.position(bodyEnd + TRAILER_LENGTH);
+	}
+	if(endOfInput && buf.hasRemaining()) {
+	    // truncated message.
+	    rejected++;
+	    buf.position(buf.limit());
+	}
+	return events;
+    }
+
+    // trailer at end is 10=<sum of the message bytes mod 256> SOH.
+    private static boolean checksum(final ByteBuffer buf, final int start, final int end) {
+	if(buf.get(end) != '1' || buf.get(end + 1) != '0' || buf.get(end + 2) != '='
+	   || buf.get(end + TRAILER_LENGTH - 1) != SOH)
+	    return false;
+	int sum = 0;
+	for(int i = start; i < end; i++)
+	    sum += buf.get(i);
+	int expected = 0;
+	for(int i = end + 3; i < end + 6; i++) {
+	    final int d = buf.get(i) - '0';
+	    if(d < 0 || d > 9)
+		return false;
+	    expected = expected * 10 + d;
+	}
+	return (sum & 0xff) == expected;
+    }
+
+    private int body(final ByteBuffer buf, int i, final int end, final FeedHandler handler) {
+	int events = 0;
+	boolean refresh = false;
+	long ts = 0;
+	// current entry.
+	boolean entry = false;
+	int action = 0, side = -1;
+	long id = -1, price = -1, size = -1;
+	while(i < end) {
+	    int tag = 0;
+	    byte b;
+	    while(i < end && (b = buf.get(i)) != '=') {
+		if(b < '0' || b > '9') {
+		    rejected++;
+		    return events;
+		}
+		tag = tag * 10 + (b - '0');
+		i++;
+	    }
+	    final int v = ++i;
+	    while(i < end && buf.get(i) != SOH)
+		i++;
+	    final int ve = i++;
+	    switch(tag) {
+	    case MSG_TYPE:
+		refresh = ve - v == 1 && buf.get(v) == 'X';
+		break;
+	    case TRANSACT_TIME:
+		ts = time(buf, v, ve);
+		break;
+	    case MD_UPDATE_ACTION:
+		if(entry)
+		    events += entry(handler, refresh, action, side, id, price, size, ts);
+		entry = true;
+		action = ve - v == 1 ? buf.get(v) - '0' : -1;
+		side = -1;
+		id = price = size = -1;
+		break;
+	    case MD_ENTRY_TYPE:
+		side = ve - v != 1 ? -1 : buf.get(v) == '0' ? OrderLogDecoder.BUY : buf.get(v) == '1' ? OrderLogDecoder.SELL : -1;
+		break;
+	    case MD_ENTRY_ID:
+		id = decimal(buf, v, ve, 0);
+		break;
+	    case MD_ENTRY_PX:
+		price = decimal(buf, v, ve, PRICE_SCALE);
+		break;
+	    case MD_ENTRY_SIZE:
+		size = decimal(buf, v, ve, SIZE_SCALE);
+		break;
+	    }
+	}
+	if(entry)
+	    events += entry(handler, refresh, action, side, id, price, size, ts);
+	return events;
+    }
+
+    private int entry(final FeedHandler handler, final boolean refresh, final int action, final int side,
+		      final long id, final long price, final long size, final long ts) {
+	if(!refresh)
+	    return 0;
+	final int a;
+	switch(action) {
+	case 0:
+	    a = OrderLogDecoder.CREATED;
+	    break;
+	case 1:
+	    a = OrderLogDecoder.CHANGED;
+	    break;
+	case 2:
+	    a = OrderLogDecoder.DELETED;
+	    break;
+	default:
+	    a = -1;
+	    break;
+	}
+	if(a < 0 || side < 0 || id < 0 || price < 0 || size < 0) {
+	    rejected++;
+	    return 0;
+	}
+	handler.onOrder(a, side, id, price, size, ts);
+	return 1;
+    }
+
+    // unsigned decimal scaled by 10^scale, digits beyond the scale round
+    // half up. -1 if malformed.
+    private static long decimal(final ByteBuffer buf, int i, final int end, final int scale) {
+	if(i == end)
+	    return -1;
+	long v = 0;
+	int frac = -1;
+	boolean roundUp = false;
+	for(; i < end; i++) {
+	    final byte b = buf.get(i);
+	    if(b == '.' && frac < 0) {
+		frac = 0;
+		continue;
+	    }
+	    if(b < '0' || b > '9')
+		return -1;
+	    if(frac < scale) {
+		v = v * 10 + (b - '0');
+		if(frac >= 0)
+		    frac++;
+	    } else if(frac == scale) {
+		roundUp = b >= '5';
+		frac++;
+	    }
+	}
+	for(int d = frac < 0 ? 0 : Math.min(frac, scale); d < scale; d++)
+	    v *= 10;
+	return roundUp ? v + 1 : v;
+    }
+
+    private static int digits(final ByteBuffer buf, final int i, final int n) {
+	int v = 0;
+	for(int j = i; j < i + n; j++)
+	    v = v * 10 + (buf.get(j) - '0');
+	return v;
+    }
+
+    // days since 1970-01-01 of a (proleptic gregorian) date.
+    private static long days(final int year, final int month, final int day) {
+	final int y = month <= 2 ? year - 1 : year;
+	final long era = (y >= 0 ? y : y - 399) / 400;
+	final long yoe = y - era * 400;
+	final long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+	final long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+	return era * 146097 + doe - 719468;
+    }
+
+    // yyyyMMdd-HH:mm:ss[.SSS] to ms since the epoch, 0 if malformed.
+    private static long time(final ByteBuffer buf, final int i, final int end) {
+	if(end - i < 17 || buf.get(i + 8) != '-')
+	    return 0;
+	final long day = days(digits(buf, i, 4), digits(buf, i + 4, 2), digits(buf, i + 6, 2));
+	final long seconds = digits(buf, i + 9, 2) * 3600 + digits(buf, i + 12, 2) * 60 + digits(buf, i + 15, 2);
+	final int ms = end - i >= 21 && buf.get(i + 17) == '.' ? digits(buf, i + 18, 3) : 0;
+	return (day * 86400 + seconds) * 1000 + ms;
+    }
+
+    private static void putDigits(final ByteBuffer out, final long v, final int n) {
+	long d = 1;
+	for(int i = 1; i < n; i++)
+	    d *= 10;
+	for(; d > 0; d /= 10)
+	    out.put((byte) ('0' + (v / d) % 10));
+    }
+
+    private static void putLong(final ByteBuffer out, final long v) {
+	int n = 1;
+	for(long d = 10; d <= v && n < 19; d *= 10)
+	    n++;
+	putDigits(out, v, n);
+    }
+
+    private static void putDecimal(final ByteBuffer out, final long v, final int scale) {
+	long unit = 1;
+	for(int i = 0; i < scale; i++)
+	    unit *= 10;
+	putLong(out, v / unit);
+	out.put((byte) '.');
+	putDigits(out, v % unit, scale);
+    }
+
+    private static void putTime(final ByteBuffer out, final long ts) {
+	final long z = ts / 86400000 + 719468;
+	final long msOfDay = ts % 86400000;
+	final long era = z / 146097;
+	final long doe = z - era * 146097;
+	final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+	final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+	final long mp = (5 * doy + 2) / 153;
+	final long day = doy - (153 * mp + 2) / 5 + 1;
+	final long month = mp < 10 ? mp + 3 : mp - 9;
+	final long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+	putDigits(out, year, 4);
+	putDigits(out, month, 2);
+	putDigits(out, day, 2);
+	out.put((byte) '-');
+	putDigits(out, msOfDay / 3600000, 2);
+	out.put((byte) ':');
+	putDigits(out, msOfDay / 60000 % 60, 2);
+	out.put((byte) ':');
+	putDigits(out, msOfDay / 1000 % 60, 2);
+	out.put((byte) '.');
+	putDigits(out, msOfDay % 1000, 3);
+    }
+
+    private static void putTag(final ByteBuffer out, final int tag) {
+	putLong(out, tag);
+	out.put((byte) '=');
+    }
+
+    // encode an order event (fields as FeedHandler, ts >= 0) as a one entry
+    // message, e.g. to record or convert a feed.
+    public void encode(final ByteBuffer out, final int action, final int side, final long id,
+		       final long price, final long amount, final long ts) {
+	final ByteBuffer body = this.body;
+	body.clear();
+	putTag(body, MSG_TYPE);
+	body.put((byte) 'X').put(SOH);
+	putTag(body, TRANSACT_TIME);
+	putTime(body, ts);
+	body.put(SOH);
+	putTag(body, NO_MD_ENTRIES);
+	body.put((byte) '1').put(SOH);
+	putTag(body, MD_UPDATE_ACTION);
+	body.put((byte) (action == OrderLogDecoder.CREATED ? '0' : action == OrderLogDecoder.CHANGED ? '1' : '2')).put(SOH);
+	putTag(body, MD_ENTRY_TYPE);
+	body.put((byte) (side == OrderLogDecoder.BUY ? '0' : '1')).put(SOH);
+	putTag(body, MD_ENTRY_ID);
+	putLong(body, id);
+	body.put(SOH);
+	putTag(body, MD_ENTRY_PX);
+	putDecimal(body, price, PRICE_SCALE);
+	body.put(SOH);
+	putTag(body, MD_ENTRY_SIZE);
+	putDecimal(body, amount, SIZE_SCALE);
+	body.put(SOH);
+	body.flip();
+
+	final int start = out.position();
+	putTag(out, BEGIN_STRING);
+	for(int i = 2; i < BEGIN.length; i++)
+	    out.put(BEGIN[i]);
+	out.put(SOH);
+	putTag(out, BODY_LENGTH);
+	putLong(out, body.remaining());
+	out.put(SOH);
+	out.put(body);
+	int sum = 0;
+	for(int i = start, end = out.position(); i < end; i++)
+	    sum += out.get(i);
+	putTag(out, CHECKSUM);
+	putDigits(out, sum & 0xff, 3);
+	out.put(SOH);
+    }
+}
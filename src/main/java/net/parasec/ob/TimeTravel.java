@@ -0,0 +1,189 @@
+package net.parasec.ob;
+
+import java.io.File;
+import java.io.IOException;
+
+
+// the book at any point of an archive, by time or event number, without
+// replaying it from the start: the last checkpoint before that point
+// (CheckpointReader) is restored and only the events after it are
+// replayed. checkpoints are taken at archive block boundaries, every
+// EVERY_BLOCKS blocks by default, so the archive's block index takes the
+// replay straight to the first event after a checkpoint.
+//
+// the book at time ts is the book once its (event) clock has reached ts:
+// every event up to, not including, the first whose exchange timestamp is
+// later than ts. the state is that of a replay from the start (Replay) at
+// the same point; indicators, metrics and latencies only cover the events
+// replayed after the checkpoint.
+public final class TimeTravel {
+
+    // ~32k events between checkpoints at the default archive block size.
+    public final static int EVERY_BLOCKS = 8;
+
+    private final ArchiveReader archive;
+    private final CheckpointReader checkpoints;
+
+    // last query: checkpoint restored (-1 = none, replayed from the start)
+    // and events replayed after it.
+    private int restored = -1;
+    private long replayed = 0;
+
+    public TimeTravel(final File archive, final File checkpoints) throws IOException {
+	this.archive = new ArchiveReader(archive);
+	try {
+	    this.checkpoints = new CheckpointReader(checkpoints);
+	} catch(final IOException e) {
+	    this.archive.close();
+	    throw e;
+	}
+	if(this.checkpoints.getArchiveEvents() != this.archive.getEvents()
+	   || this.checkpoints.getArchiveLength() != archive.length()) {
+	    close();
+	    throw new IOException("checkpoints " + checkpoints + " were not taken from " + archive);
+	}
+    }
+
+    // replay an archive, checkpointing the book every n blocks. returns the
+    // number of checkpoints written.
+    public static int build(final File archive, final File store, final int everyBlocks) throws IOException {
+	final ArchiveReader reader = new ArchiveReader(archive);
+	try {
+	    final long moExpiry = Long.getLong("ob.mo.expiry", LinkedOrderBook.MO_EXPIRY);
+	    final EventClock clock = new EventClock();
+	    final LinkedOrderBook ob = new LinkedOrderBook(clock, moExpiry);
+	    final BookFeedHandler book = new BookFeedHandler(ob);
+	    final CheckpointWriter writer = new CheckpointWriter(store, reader.getEvents(), archive.length(), moExpiry);
+	    try {
+		final int blocks = reader.getBlocks();
+		int next = everyBlocks;
+		long event = 0;
+		while(reader.next()) {
+		    if(next < blocks && event == reader.getBlockFirstEvent(next)) {
+			writer.write(ob, event, clock.currentTimeMillis());
+			next += everyBlocks;
+		    }
+		    book.onOrder(reader.getAction(), reader.getOrderType(), reader.getId(),
+				 reader.getPrice(), reader.getAmount(), reader.getTimestamp());
+		    event++;
+		}
+	    } finally {
+		writer.close();
+	    }
+	    return writer.getCheckpoints();
+	} finally {
+	    reader.close();
+	}
+    }
+
+    public long getEvents() {
+	return archive.getEvents();
+    }
+
+    public int getRestored() {
+	return restored;
+    }
+
+    public long getReplayed() {
+	return replayed;
+    }
+
+    // restore checkpoint i (-1: an empty book) and position the archive
+    // after it.
+    private LinkedOrderBook restore(final int i) throws IOException {
+	final LinkedOrderBook ob = new LinkedOrderBook(new EventClock(), checkpoints.getMoExpiry());
+	long event = 0;
+	if(i >= 0) {
+	    checkpoints.restore(i, ob);
+	    event = checkpoints.getEvent(i);
+	}
+	long e = archive.seekEvent(event);
+	while(e < event && archive.next())
+	    e++;
+	restored = i;
+	replayed = 0;
+	return ob;
+    }
+
+    private void apply(final BookFeedHandler book) {
+	book.onOrder(archive.getAction(), archive.getOrderType(), archive.getId(),
+		     archive.getPrice(), archive.getAmount(), archive.getTimestamp());
+	replayed++;
+    }
+
+    // the book once the clock has reached ts.
+    public LinkedOrderBook at(final long ts) throws IOException {
+	final LinkedOrderBook ob = restore(checkpoints.findTimestamp(ts));
+	final BookFeedHandler book = new BookFeedHandler(ob);
+	while(archive.next() && archive.getTimestamp() <= ts)
+	    apply(book);
+	return ob;
+    }
+
+    // the book after the first n events.
+    public LinkedOrderBook atEvent(final long n) throws IOException {
+	final int i = checkpoints.findEvent(n);
+	final LinkedOrderBook ob = restore(i);
+	final BookFeedHandler book = new BookFeedHandler(ob);
+	for(long e = i >= 0 ? checkpoints.getEvent(i) : 0; e < n && archive.next(); e++)
+	    apply(book);
+	return ob;
+    }
+
+    public void close() throws IOException {
+	try {
+	    archive.close();
+	} finally {
+	    checkpoints.close();
+	}
+    }
+
+    private static void usage() {
+	System.err.println("usage: TimeTravel <archive> <checkpoints> -build [every n blocks]");
+	System.err.println("       TimeTravel <archive> <checkpoints> <ts ms> | -event <n> [-csv]");
+	System.exit(2);
+    }
+
+    public static void main(final String[] args) throws Exception {
+	if(args.length < 3)
+	    usage();
+	final File archive = new File(args[0]);
+	final File store = new File(args[1]);
+
+	if(args[2].equals("-build")) {
+	    final int every = args.length > 3 ? Integer.parseInt(args[3]) : EVERY_BLOCKS;
+	    final long t0 = System.currentTimeMillis();
+	    final int n = build(archive, store, every);
+	    System.out.println(n + " checkpoints, " + store.length() + " bytes, "
+			       + (System.currentTimeMillis() - t0) + " ms");
+	    return;
+	}
+
+	boolean csv = false;
+	long ts = -1, event = -1;
+	for(int i = 2; i < args.length; i++) {
+	    if(args[i].equals("-event") && i + 1 < args.length)
+		event = Long.parseLong(args[++i]);
+	    else if(args[i].equals("-csv"))
+		csv = true;
+	    else if(ts < 0 && event < 0)
+		ts = Long.parseLong(args[i]);
+	    else
+		usage();
+	}
+	if(ts < 0 && event < 0)
+	    usage();
+
+	final TimeTravel tt = new TimeTravel(archive, store);
+	try {
+	    final long t0 = System.nanoTime();
+	    final LinkedOrderBook ob = event >= 0 ? tt.atEvent(event) : tt.at(ts);
+	    final long nanos = System.nanoTime() - t0;
+	    System.out.println(csv ? ob.getState().toCsv() : ob);
+	    System.err.println("checkpoint " + tt.getRestored() + ", replayed " + tt.getReplayed()
+			       + " events, " + (nanos / 1000000) + " ms");
+	} finally {
+	    tt.close();
+	}
+    }
+}
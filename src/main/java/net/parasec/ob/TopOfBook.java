@@ -0,0 +1,249 @@
+package net.parasec.ob;
+
+import java.nio.ByteBuffer;
+
+
+// top of book and state counters as plain primitives: the record shared
+// through memory by MappedBookPublisher/MappedBookReader. also defines its
+// byte layout (absolute offsets from a base, in the buffer's byte order):
+//
+//   long event, long ts, int bid levels, int ask levels,
+//   int total bids, int total asks, long total bid vol, long total ask vol,
+//   int active buy mos, int active sell mos, long outstanding buy mo vol,
+//   long outstanding sell mo vol, int buy tip, int sell tip,
+//   int lowest price, int highest price, long total mo buy vol,
+//   long total mo sell vol, int total mo buys, int total mo sells,
+//   long last trade ts, int last trade price, int last trade direction,
+//   long last trade volume,
+//   depth bid levels, then depth ask levels: int price, int orders, long volume
+//
+// prices in cents, volumes in satoshi, timestamps in ms. levels beyond the
+// bid/ask level count are 0.
+public final class TopOfBook {
+
+    public final static int HEADER_LENGTH = 160;
+    public final static int LEVEL_LENGTH = 16;
+
+    public final int depth;
+
+    public long event;
+    public long ts;
+    public int bidLevels;
+    public int askLevels;
+    public final int[] bidPrice;
+    public final int[] bidOrders;
+    public final long[] bidVolume;
+    public final int[] askPrice;
+    public final int[] askOrders;
+    public final long[] askVolume;
+
+    public int totalBids;
+    public int totalAsks;
+    public long totalBidVol;
+    public long totalAskVol;
+    public int moActiveBuys;
+    public int moActiveSells;
+    public long moOutstandingBuyVolume;
+    public long moOutstandingSellVolume;
+    public int moBuyTip;
+    public int moSellTip;
+    public int lowestPrice;
+    public int highestPrice;
+    public long totalMoBuyVol;
+    public long totalMoSellVol;
+    public int totalMoBuys;
+    public int totalMoSells;
+
+    // last trade, direction 1 = buy, -1 = sell, 0 = none yet.
+    public long lastTradeTs;
+    public int lastTradePrice;
+    public int lastTradeDirection;
+    public long lastTradeVolume;
+
+    public TopOfBook(final int depth) {
+	this.depth = depth;
+	bidPrice = new int[depth];
+	bidOrders = new int[depth];
+	bidVolume = new long[depth];
+	askPrice = new int[depth];
+	askOrders = new int[depth];
+	askVolume = new long[depth];
+    }
+
+    // bytes needed for a record of the given depth.
+    public static int length(final int depth) {
+	return HEADER_LENGTH + 2 * depth * LEVEL_LENGTH;
+    }
+
+    private static int levels(final Limit best, final int depth, final int[] price,
+			      final int[] orders, final long[] volume) {
+	int n = 0;
+	for(Limit l = best; l != null && n < depth; l = l.getRightSibling(), n++) {
+	    price[n] = l.getPrice();
+	    orders[n] = l.getOrders();
+	    volume[n] = l.getVolume();
+	}
+	for(int i = n; i < depth; i++) {
+	    price[i] = 0;
+	    orders[i] = 0;
+	    volume[i] = 0;
+	}
+	return n;
+    }
+
+    // take the current top of book and counters.
+    public TopOfBook fill(final OrderBook ob) {
+	final State s = ob.getState();
+	event = s.event;
+	ts = s.ts;
+	bidLevels = levels(ob.getBids().getBest(), depth, bidPrice, bidOrders, bidVolume);
+	askLevels = levels(ob.getAsks().getBest(), depth, askPrice, askOrders, askVolume);
+	totalBids = s.totalBids;
+	totalAsks = s.totalAsks;
+	totalBidVol = s.totalBidVol;
+	totalAskVol = s.totalAskVol;
+	moActiveBuys = s.moActiveBuys;
+	moActiveSells = s.moActiveSells;
+	moOutstandingBuyVolume = s.moOutstandingBuyVolume;
+	moOutstandingSellVolume = s.moOutstandingSellVolume;
+	moBuyTip = s.moBuyTip;
+	moSellTip = s.moSellTip;
+	lowestPrice = s.lowestPrice;
+	highestPrice = s.highestPrice;
+	totalMoBuyVol = s.totalMoBuyVol;
+	totalMoSellVol = s.totalMoSellVol;
+	totalMoBuys = s.totalMoBuys;
+	totalMoSells = s.totalMoSells;
+	lastTradeTs = s.lastTradeTs;
+	lastTradePrice = s.lastTradePrice;
+	lastTradeDirection = s.lastTradeDirection;
+	lastTradeVolume = s.lastTradeVolume;
+	return this;
+    }
+
+    public void writeTo(final ByteBuffer b, final int base) {
+	int i = base;
+	b.putLong(i, event); i += 8;
+	b.putLong(i, ts); i += 8;
+	b.putInt(i, bidLevels); i += 4;
+	b.putInt(i, askLevels); i += 4;
+	b.putInt(i, totalBids); i += 4;
+	b.putInt(i, totalAsks); i += 4;
+	b.putLong(i, totalBidVol); i += 8;
+	b.putLong(i, totalAskVol); i += 8;
+	b.putInt(i, moActiveBuys); i += 4;
+	b.putInt(i, moActiveSells); i += 4;
+	b.putLong(i, moOutstandingBuyVolume); i += 8;
+	b.putLong(i, moOutstandingSellVolume); i += 8;
+	b.putInt(i, moBuyTip); i += 4;
+	b.putInt(i, moSellTip); i += 4;
+	b.putInt(i, lowestPrice); i += 4;
+	b.putInt(i, highestPrice); i += 4;
+	b.putLong(i, totalMoBuyVol); i += 8;
+	b.putLong(i, totalMoSellVol); i += 8;
+	b.putInt(i, totalMoBuys); i += 4;
+	b.putInt(i, totalMoSells); i += 4;
+	b.putLong(i, lastTradeTs); i += 8;
+	b.putInt(i, lastTradePrice); i += 4;
+	b.putInt(i, lastTradeDirection); i += 4;
+	b.putLong(i, lastTradeVolume);
+	i = base + HEADER_LENGTH;
+	for(int l = 0; l < depth; l++, i += LEVEL_LENGTH) {
+	    b.putInt(i, bidPrice[l]);
+	    b.putInt(i + 4, bidOrders[l]);
+	    b.putLong(i + 8, bidVolume[l]);
+	}
+	for(int l = 0; l < depth; l++, i += LEVEL_LENGTH) {
+	    b.putInt(i, askPrice[l]);
+	    b.putInt(i + 4, askOrders[l]);
+	    b.putLong(i + 8, askVolume[l]);
+	}
+    }
+
+    public void readFrom(final ByteBuffer b, final int base) {
+	int i = base;
+	event = b.getLong(i); i += 8;
+	ts = b.getLong(i); i += 8;
+	bidLevels = b.getInt(i); i += 4;
+	askLevels = b.getInt(i); i += 4;
+	totalBids = b.getInt(i); i += 4;
+	totalAsks = b.getInt(i); i += 4;
+	totalBidVol = b.getLong(i); i += 8;
+	totalAskVol = b.getLong(i); i += 8;
+	moActiveBuys = b.getInt(i); i += 4;
+	moActiveSells = b.getInt(i); i += 4;
+	moOutstandingBuyVolume = b.getLong(i); i += 8;
+	moOutstandingSellVolume = b.getLong(i); i += 8;
+	moBuyTip = b.getInt(i); i += 4;
+	moSellTip = b.getInt(i); i += 4;
+	lowestPrice = b.getInt(i); i += 4;
+	highestPrice = b.getInt(i); i += 4;
+	totalMoBuyVol = b.getLong(i); i += 8;
+	totalMoSellVol = b.getLong(i); i += 8;
+	totalMoBuys = b.getInt(i); i += 4;
+	totalMoSells = b.getInt(i); i += 4;
+	lastTradeTs = b.getLong(i); i += 8;
+	lastTradePrice = b.getInt(i); i += 4;
+	lastTradeDirection = b.getInt(i); i += 4;
+	lastTradeVolume = b.getLong(i);
+	i = base + HEADER_LENGTH;
+	for(int l = 0; l < depth; l++, i += LEVEL_LENGTH) {
+	    bidPrice[l] = b.getInt(i);
+	    bidOrders[l] = b.getInt(i + 4);
+	    bidVolume[l] = b.getLong(i + 8);
+	}
+	for(int l = 0; l < depth; l++, i += LEVEL_LENGTH) {
+	    askPrice[l] = b.getInt(i);
+	    askOrders[l] = b.getInt(i + 4);
+	    askVolume[l] = b.getLong(i + 8);
+	}
+    }
+
+    // same depth only.
+    public TopOfBook copyFrom(final TopOfBook t) {
+	event = t.event;
+	ts = t.ts;
+	bidLevels = t.bidLevels;
+	askLevels = t.askLevels;
+	System.arraycopy(t.bidPrice, 0, bidPrice, 0, depth);
+	System.arraycopy(t.bidOrders, 0, bidOrders, 0, depth);
+	System.arraycopy(t.bidVolume, 0, bidVolume, 0, depth);
+	System.arraycopy(t.askPrice, 0, askPrice, 0, depth);
+	System.arraycopy(t.askOrders, 0, askOrders, 0, depth);
+	System.arraycopy(t.askVolume, 0, askVolume, 0, depth);
+	totalBids = t.totalBids;
+	totalAsks = t.totalAsks;
+	totalBidVol = t.totalBidVol;
+	totalAskVol = t.totalAskVol;
+	moActiveBuys = t.moActiveBuys;
+	moActiveSells = t.moActiveSells;
+	moOutstandingBuyVolume = t.moOutstandingBuyVolume;
+	moOutstandingSellVolume = t.moOutstandingSellVolume;
+	moBuyTip = t.moBuyTip;
+	moSellTip = t.moSellTip;
+	lowestPrice = t.lowestPrice;
+	highestPrice = t.highestPrice;
+	totalMoBuyVol = t.totalMoBuyVol;
+	totalMoSellVol = t.totalMoSellVol;
+	totalMoBuys = t.totalMoBuys;
+	totalMoSells = t.totalMoSells;
+	lastTradeTs = t.lastTradeTs;
+	lastTradePrice = t.lastTradePrice;
+	lastTradeDirection = t.lastTradeDirection;
+	lastTradeVolume = t.lastTradeVolume;
+	return this;
+    }
+
+    public String toString() {
+	final StringBuilder sb = new StringBuilder().append("event = ").append(event).append(" ts = ").append(ts);
+	for(int l = 0; l < Math.max(bidLevels, askLevels); l++) {
+	    sb.append("\n");
+	    if(l < bidLevels)
+		sb.append(Util.asBTC(bidVolume[l])).append(" ").append(Util.asUSD(bidPrice[l]));
+	    sb.append("\t");
+	    if(l < askLevels)
+		sb.append(Util.asUSD(askPrice[l])).append(" ").append(Util.asBTC(askVolume[l]));
+	}
+	return sb.toString();
+    }
+}
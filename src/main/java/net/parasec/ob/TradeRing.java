@@ -0,0 +1,175 @@
+package net.parasec.ob;
+
+import net.parasec.trading.ticker.core.wire.Direction;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+// time and sales: the last trades, held in pre-allocated primitive columns
+// (a ring, the oldest overwritten), so recording a trade allocates nothing.
+// trades are read by index (0 = newest) or through a View, a flyweight
+// positioned on one trade. maker and taker are the numeric exchange order
+// ids, -1 if not known (e.g. no taker market order outstanding).
+public final class TradeRing {
+
+    private final int mask;
+    private final boolean[] buy;
+    private final int[] price;
+    private final long[] volume;
+    private final long[] ts;
+    private final long[] exchangeTs;
+    private final long[] taker;
+    private final long[] maker;
+    // trades recorded so far.
+    private long count = 0;
+
+    // capacity is rounded up to a power of 2.
+    public TradeRing(final int capacity) {
+	int c = 1;
+	while(c < capacity)
+	    c <<= 1;
+	mask = c - 1;
+	buy = new boolean[c];
+	price = new int[c];
+	volume = new long[c];
+	ts = new long[c];
+	exchangeTs = new long[c];
+	taker = new long[c];
+	maker = new long[c];
+    }
+
+    // returns the trade's sequence (count - 1).
+    public long add(final Direction direction, final int price, final long volume, final long ts,
+		    final long exchangeTs, final long taker, final long maker) {
+	final int i = (int) count & mask;
+	this.buy[i] = direction.equals(Direction.BUY);
+	this.price[i] = price;
+	this.volume[i] = volume;
+	this.ts[i] = ts;
+	this.exchangeTs[i] = exchangeTs;
+	this.taker[i] = taker;
+	this.maker[i] = maker;
+	return count++;
+    }
+
+    public int capacity() {
+	return mask + 1;
+    }
+
+    public int size() {
+	return (int) Math.min(count, mask + 1);
+    }
+
+    public long getCount() {
+	return count;
+    }
+
+    private int slot(final int i) {
+	return (int) (count - 1 - i) & mask;
+    }
+
+    public boolean isBuy(final int i) {
+	return buy[slot(i)];
+    }
+
+    public int getPrice(final int i) {
+	return price[slot(i)];
+    }
+
+    public long getVolume(final int i) {
+	return volume[slot(i)];
+    }
+
+    // the trades held, oldest first, with the count (a checkpoint, see
+    // LinkedOrderBook.writeCheckpoint).
+    public void writeTo(final DataOutput out) throws IOException {
+	final int n = size();
+	out.writeLong(count);
+	out.writeInt(n);
+	for(int i = n - 1; i >= 0; i--) {
+	    final int s = slot(i);
+	    out.writeBoolean(buy[s]);
+	    out.writeInt(price[s]);
+	    out.writeLong(volume[s]);
+	    out.writeLong(ts[s]);
+	    out.writeLong(exchangeTs[s]);
+	    out.writeLong(taker[s]);
+	    out.writeLong(maker[s]);
+	}
+    }
+
+    // replaces the contents (the newest capacity trades are kept).
+    public void readFrom(final DataInput in) throws IOException {
+	final long saved = in.readLong();
+	final int n = in.readInt();
+	count = saved - n;
+	for(int i = 0; i < n; i++, count++) {
+	    final int s = (int) count & mask;
+	    buy[s] = in.readBoolean();
+	    price[s] = in.readInt();
+	    volume[s] = in.readLong();
+	    ts[s] = in.readLong();
+	    exchangeTs[s] = in.readLong();
+	    taker[s] = in.readLong();
+	    maker[s] = in.readLong();
+	}
+    }
+
+    public View view() {
+	return new View();
+    }
+
+    // valid until capacity more trades are added.
+    public final class View {
+
+	private int slot;
+	private long seq;
+
+	private View() {}
+
+	// i = 0 is the newest trade.
+	public View at(final int i) {
+	    slot = slot(i);
+	    seq = count - 1 - i;
+	    return this;
+	}
+
+	public long getSeq() {
+	    return seq;
+	}
+
+	public boolean isBuy() {
+	    return buy[slot];
+	}
+
+	public Direction getDirection() {
+	    return buy[slot] ? Direction.BUY : Direction.SELL;
+	}
+
+	public int getPrice() {
+	    return price[slot];
+	}
+
+	public long getVolume() {
+	    return volume[slot];
+	}
+
+	public long getTimestamp() {
+	    return ts[slot];
+	}
+
+	public long getExchangeTimestamp() {
+	    return exchangeTs[slot];
+	}
+
+	public long getTaker() {
+	    return taker[slot];
+	}
+
+	public long getMaker() {
+	    return maker[slot];
+	}
+    }
+}
@@ -1,8 +1,15 @@
 package net.parasec.ob;
 
 import net.parasec.trading.ticker.core.wire.Direction;
+import net.parasec.trading.ticker.core.wire.OrderInfo;
 import net.parasec.trading.ticker.core.wire.Trade;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
 
 public final class Util {
 
@@ -14,6 +21,35 @@ public final class Util {
     return (int) Math.round(dollar*100);
   }
 
+  // order info for orders which did not come from the ticker (replayed logs,
+  // archives, other feeds). price in cents, volume in satoshi, timestamp in ms.
+  public static OrderInfo newOrderInfo(final String id, final int price,
+      final long volume, final long exchangeTs) {
+    return new OrderInfo(id, price, volume, exchangeTs);
+  }
+
+  // ids kept as numbers (trade, cancel and fill rings, state): no id, and
+  // an id which is not a number of up to 18 digits (so lost; the book
+  // counts these, see BookMetrics.getUnparsedIds).
+  public final static long NO_ID = -1;
+  public final static long UNPARSED_ID = -2;
+
+  // numeric exchange order id, NO_ID if missing, UNPARSED_ID if not numeric.
+  public static long parseId(final String s) {
+    if(s == null || s.length() == 0)
+      return NO_ID;
+    if(s.length() > 18)
+      return UNPARSED_ID;
+    long v = 0;
+    for(int i = 0, len = s.length(); i < len; i++) {
+      final char c = s.charAt(i);
+      if(c < '0' || c > '9')
+        return UNPARSED_ID;
+      v = v*10 + (c - '0');
+    }
+    return v;
+  }
+
   public static String asBTC(final long satoshi) {
     return String.format("%.8f", satoshi*0.00000001);
   }
@@ -22,6 +58,67 @@ public final class Util {
     return String.format("%.2f", cents*0.01);
   }
 
+  // fixed point without String.format, for display paths which run often
+  // (BookRenderer). same digits as asUSD/asBTC.
+  public static StringBuilder appendUSD(final StringBuilder sb, final int cents) {
+    return appendFixed(sb, cents, 2);
+  }
+
+  public static StringBuilder appendBTC(final StringBuilder sb, final long satoshi) {
+    return appendFixed(sb, satoshi, 8);
+  }
+
+  // value to 2 decimal places (as "%.2f", which rounds the decimal digits
+  // of the double half up). per*100 is rounded directly unless it is within
+  // reach of a tie, where the multiply's rounding can tip it either way:
+  // those go through BigDecimal. see FormatCheck.
+  public static StringBuilder appendPercent(final StringBuilder sb, final double per) {
+    final double scaled = per*100;
+    final double frac = Math.abs(scaled - (long) scaled);
+    final long v = Math.abs(frac - 0.5) > 1e-6 || Math.abs(scaled) >= 1e15 ? Math.round(scaled)
+      : BigDecimal.valueOf(per).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+    // negative values which round to 0 keep their sign ("-0.00").
+    if(v == 0 && (per < 0 || 1/per < 0))
+      sb.append('-');
+    return appendFixed(sb, v, 2);
+  }
+
+  // v / 10^decimals.
+  private static StringBuilder appendFixed(final StringBuilder sb, final long v, final int decimals) {
+    long scale = 1;
+    for(int i = 0; i < decimals; i++)
+      scale *= 10;
+    if(v < 0)
+      sb.append('-');
+    final long abs = Math.abs(v);
+    sb.append(abs / scale).append('.');
+    final long frac = abs % scale;
+    for(long d = scale / 10; d > 0; d /= 10)
+      sb.append((char) ('0' + frac / d % 10));
+    return sb;
+  }
+
+  // unsigned varint (7 bits a byte, as ArchiveWriter).
+  public static void writeVarint(final DataOutput out, long v) throws IOException {
+    while((v & ~0x7fL) != 0) {
+      out.writeByte((int) ((v & 0x7f) | 0x80));
+      v >>>= 7;
+    }
+    out.writeByte((int) v);
+  }
+
+  public static long readVarint(final DataInput in) throws IOException {
+    long v = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = in.readByte();
+      v |= (long) (b & 0x7f) << shift;
+      shift += 7;
+    } while(b < 0);
+    return v;
+  }
+
   public static StringBuilder tradeToCsv(final Trade trade, final String dl) {
     return (new StringBuilder().append(trade.getExchangeTimestamp()).append(dl)
         .append(asUSD(trade.getPrice())).append(dl)
@@ -0,0 +1,15 @@
+package net.parasec.ob;
+
+// live mode: wall clock time, read once per event.
+public final class WallClock implements Clock {
+
+    private long now = System.currentTimeMillis();
+
+    public void advance(final long exchangeTs) {
+	now = System.currentTimeMillis();
+    }
+
+    public long currentTimeMillis() {
+	return now;
+    }
+}
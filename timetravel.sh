@@ -0,0 +1,3 @@
+#!/bin/bash
+# ./timetravel.sh <archive> <checkpoints> -build [every n blocks] | <ts ms> | -event <n> [-csv]
+java -cp target/ob-jar-with-dependencies.jar net.parasec.ob.TimeTravel "$@"